@@ -0,0 +1,117 @@
+package map.bench;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Runs {@link MapBenchmark} and {@link ParallelStreamBenchmark} once,
+ * {@link ConcurrentMapBenchmark} and {@link HotKeyBenchmark} at each
+ * thread count and {@link WriterContentionBenchmark} at each writer
+ * count, and writes all results to a single JMH JSON file, which can be
+ * diffed between releases or loaded into a JMH visualizer.
+ *
+ * <pre>
+ *   java -jar target/benchmarks.jar [-o results.json] [-t 1,2,4,8] [-w 16,32,64,128] [-i regex]
+ *                                   [-p name=v1,v2 ...] [-quick]
+ * </pre>
+ * <ul>
+ * <li>{@code -o}: the JSON file to write, by default {@code results.json};
+ * <li>{@code -t}: the thread counts of the concurrent benchmarks;
+ * <li>{@code -w}: the thread counts of the writer contention benchmark;
+ * <li>{@code -i}: runs only the benchmarks whose names match the regex;
+ * <li>{@code -p}: overrides the values of a parameter, e.g.
+ *     {@code -p size=1000 -p kind=CUS_HASH_MAP,HASH_MAP};
+ * <li>{@code -quick}: one short warmup and measurement iteration, for a
+ *     smoke test rather than numbers.
+ * </ul>
+ *
+ * <p>依次运行单线程与各线程数下的多线程基准，结果合并写入一个 JSON 文件</p>
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String output = "results.json";
+        int[] threads = {1, 2, 4, 8};
+        int[] writers = {16, 32, 64, 128};
+        String include = ".*";
+        List<String[]> params = new ArrayList<>();
+        boolean quick = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-o":
+                    output = args[++i];
+                    break;
+                case "-t":
+                    threads = counts(args[++i]);
+                    break;
+                case "-w":
+                    writers = counts(args[++i]);
+                    break;
+                case "-i":
+                    include = args[++i];
+                    break;
+                case "-p":
+                    String[] p = args[++i].split("=", 2);
+                    params.add(new String[]{p[0], p[1]});
+                    break;
+                case "-quick":
+                    quick = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        List<RunResult> results = new ArrayList<>();
+        results.addAll(new Runner(options(MapBenchmark.class, include, params, quick, 1)).run());
+        results.addAll(new Runner(options(ParallelStreamBenchmark.class, include, params, quick, 1)).run());
+        for (int t : threads) {
+            results.addAll(new Runner(options(ConcurrentMapBenchmark.class, include, params, quick, t)).run());
+            results.addAll(new Runner(options(HotKeyBenchmark.class, include, params, quick, t)).run());
+        }
+        for (int t : writers) {
+            results.addAll(new Runner(options(WriterContentionBenchmark.class, include, params, quick, t)).run());
+        }
+
+        ResultFormatFactory.getInstance(ResultFormatType.JSON, output).writeOut(results);
+        System.out.println("Results written to " + output);
+    }
+
+    private static int[] counts(String list) {
+        String[] counts = list.split(",");
+        int[] result = new int[counts.length];
+        for (int j = 0; j < counts.length; j++) {
+            result[j] = Integer.parseInt(counts[j].trim());
+        }
+        return result;
+    }
+
+    private static Options options(Class<?> benchmark, String include, List<String[]> params,
+                                   boolean quick, int threads) {
+        OptionsBuilder builder = new OptionsBuilder();
+        // 限定在该类中，再按用户给出的条件过滤方法名
+        builder.include("^" + Pattern.quote(benchmark.getName()) + "\\.(?:" + include + ")");
+        builder.threads(threads);
+        for (String[] p : params) {
+            builder.param(p[0], p[1].split(","));
+        }
+        if (quick) {
+            builder.warmupIterations(1)
+                    .warmupTime(TimeValue.milliseconds(200))
+                    .measurementIterations(1)
+                    .measurementTime(TimeValue.milliseconds(200));
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,87 @@
+package map.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operations on one map shared by all benchmark threads, for the
+ * concurrent implementations.  {@link BenchmarkRunner} runs this class at
+ * several thread counts; run directly, it uses {@value #THREADS} threads.
+ *
+ * <p>Each operation picks a random key.  {@code mixed} performs a
+ * {@code put} for one operation in ten and a {@code get} otherwise.
+ * Results are throughput over all threads.
+ *
+ * <p>多线程基准：所有线程共享同一个 Map</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Threads(ConcurrentMapBenchmark.THREADS)
+@State(Scope.Benchmark)
+public class ConcurrentMapBenchmark {
+
+    static final int THREADS = 4;
+
+    @Param({"CUS_CONCURRENT_HASH_MAP", "CONCURRENT_HASH_MAP"})
+    MapKind kind;
+
+    @Param({"1000", "1000000"})
+    int size;
+
+    @Param({"INTEGER", "STRING", "BAD_HASH"})
+    KeyType keyType;
+
+    Object[] keys;
+
+    Map<Object, Object> map;
+
+    @Setup
+    public void setUp() {
+        keys = keyType.keys(0, size);
+        map = kind.create(MapKind.DEFAULT_INITIAL_CAPACITY, 0.75f);
+        for (Object key : keys) {
+            map.put(key, key);
+        }
+    }
+
+    private Object randomKey() {
+        return keys[ThreadLocalRandom.current().nextInt(size)];
+    }
+
+    @Benchmark
+    public Object get() {
+        return map.get(randomKey());
+    }
+
+    @Benchmark
+    public Object put() {
+        Object key = randomKey();
+        return map.put(key, key);
+    }
+
+    @Benchmark
+    public Object mixed() {
+        Object key = randomKey();
+        if (ThreadLocalRandom.current().nextInt(10) == 0) {
+            return map.put(key, key);
+        }
+        return map.get(key);
+    }
+}
@@ -0,0 +1,58 @@
+package map.bench;
+
+import map.CusSpliterator;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Adapts a {@link CusSpliterator} to a {@link Spliterator}, so that the
+ * maps of the library, which compile for Java 7, can feed parallel
+ * streams through {@code StreamSupport.stream}.
+ *
+ * <p>把 CusSpliterator 适配为 java.util.Spliterator</p>
+ */
+final class CusSpliterators {
+
+    private CusSpliterators() {
+    }
+
+    static <T> Spliterator<T> adapt(CusSpliterator<T> s) {
+        return new Adapter<>(s);
+    }
+
+    private static final class Adapter<T> implements Spliterator<T> {
+        private final CusSpliterator<T> s;
+
+        Adapter(CusSpliterator<T> s) {
+            this.s = s;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            return s.tryAdvance(action::accept);
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            s.forEachRemaining(action::accept);
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            CusSpliterator<T> prefix = s.trySplit();
+            return (prefix == null) ? null : new Adapter<>(prefix);
+        }
+
+        @Override
+        public long estimateSize() {
+            return s.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            // 两者的特征位取值相同
+            return s.characteristics();
+        }
+    }
+}
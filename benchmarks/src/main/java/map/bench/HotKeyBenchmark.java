@@ -0,0 +1,74 @@
+package map.bench;
+
+import map.CusConcurrentHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads with a few hot keys on one {@link CusConcurrentHashMap} shared by
+ * all benchmark threads, with and without hot key detection.
+ * {@link BenchmarkRunner} runs this class at each thread count; run
+ * directly, it uses {@value #THREADS} threads.
+ *
+ * <p>Half of the reads go to {@value #HOT_KEYS} hot keys, the others to
+ * random keys.  {@code sampleRate} is the sampling rate of the sketch, 0
+ * meaning detection off, so the cost of detection shows as the
+ * difference to the runs with 0.
+ *
+ * <p>热点读基准：比较开启与关闭热点 key 探测时 get 的吞吐量</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Threads(HotKeyBenchmark.THREADS)
+@State(Scope.Benchmark)
+public class HotKeyBenchmark {
+
+    static final int THREADS = 4;
+
+    static final int HOT_KEYS = 8;
+
+    private static final int SIZE = 1000000;
+
+    @Param({"0", "16", "256"})
+    int sampleRate;
+
+    Integer[] keys;
+
+    CusConcurrentHashMap<Object, Object> map;
+
+    @Setup
+    public void setUp() {
+        keys = new Integer[SIZE];
+        map = new CusConcurrentHashMap<>(2 * SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            keys[i] = i;
+            map.put(keys[i], keys[i]);
+        }
+        if (sampleRate > 0) {
+            map.enableHotKeys(HOT_KEYS, sampleRate);
+        }
+    }
+
+    @Benchmark
+    public Object get() {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        int i = r.nextBoolean() ? r.nextInt(HOT_KEYS) : r.nextInt(SIZE);
+        return map.get(keys[i]);
+    }
+}
@@ -0,0 +1,81 @@
+package map.bench;
+
+/**
+ * The kinds of keys the benchmarks are run with.
+ *
+ * <p>基准测试使用的 key 类型：Integer、String 与 hashCode 质量很差的 key</p>
+ */
+public enum KeyType {
+
+    INTEGER {
+        @Override
+        Object key(int i) {
+            return i * 0x9E3779B9;
+        }
+    },
+
+    STRING {
+        @Override
+        Object key(int i) {
+            return "key-" + i;
+        }
+    },
+
+    /**
+     * Keys whose hash codes collide in groups of
+     * {@value BadHashKey#COLLISIONS}, as produced by a careless
+     * {@code hashCode()}.
+     */
+    BAD_HASH {
+        @Override
+        Object key(int i) {
+            return new BadHashKey(i);
+        }
+    };
+
+    /**
+     * Returns the i-th key.  Distinct indexes give distinct keys.
+     */
+    abstract Object key(int i);
+
+    /**
+     * Returns the keys for the indexes [from, from + n).
+     */
+    Object[] keys(int from, int n) {
+        Object[] keys = new Object[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = key(from + i);
+        }
+        return keys;
+    }
+
+    /**
+     * A key whose hash code ignores the low bits of its id.  Comparable,
+     * so that CusHashMap can order colliding keys in tree bins.
+     */
+    static final class BadHashKey implements Comparable<BadHashKey> {
+
+        static final int COLLISIONS = 8;
+
+        final int id;
+
+        BadHashKey(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id / COLLISIONS;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof BadHashKey && ((BadHashKey) o).id == id;
+        }
+
+        @Override
+        public int compareTo(BadHashKey o) {
+            return Integer.compare(id, o.id);
+        }
+    }
+}
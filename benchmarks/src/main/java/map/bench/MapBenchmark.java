@@ -0,0 +1,128 @@
+package map.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded operations on every map implementation, across sizes,
+ * key types and load factors.
+ *
+ * <p>The per-key benchmarks ({@code get}, {@code getMiss}, {@code put},
+ * {@code removeAndPut}) report the time of one operation, cycling through
+ * the keys.  The whole-map benchmarks report the time to iterate all
+ * mappings ({@code iterate}), to copy them into an empty map
+ * ({@code putAll}), and to insert them one by one into a map of default
+ * capacity, which includes every resize ({@code grow}).
+ *
+ * <p>单线程基准：get、put、remove、遍历、putAll 与扩容</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Thread)
+public class MapBenchmark {
+
+    @Param({"CUS_HASH_MAP", "HASH_MAP", "CUS_CONCURRENT_HASH_MAP", "CONCURRENT_HASH_MAP"})
+    MapKind kind;
+
+    @Param({"1000", "100000", "1000000"})
+    int size;
+
+    @Param({"INTEGER", "STRING", "BAD_HASH"})
+    KeyType keyType;
+
+    @Param({"0.5", "0.75", "1.0"})
+    float loadFactor;
+
+    Object[] keys;
+
+    // 不在 map 中的 key，用于未命中的查找
+    Object[] missing;
+
+    Map<Object, Object> map;
+
+    // putAll 的数据源，与被测实现无关
+    Map<Object, Object> source;
+
+    int index;
+
+    @Setup
+    public void setUp() {
+        keys = keyType.keys(0, size);
+        missing = keyType.keys(size, size);
+        map = kind.create(MapKind.DEFAULT_INITIAL_CAPACITY, loadFactor);
+        source = new HashMap<>();
+        for (Object key : keys) {
+            map.put(key, key);
+            source.put(key, key);
+        }
+    }
+
+    private int next() {
+        int i = index;
+        index = i + 1 == size ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public Object get() {
+        return map.get(keys[next()]);
+    }
+
+    @Benchmark
+    public Object getMiss() {
+        return map.get(missing[next()]);
+    }
+
+    @Benchmark
+    public Object put() {
+        Object key = keys[next()];
+        return map.put(key, key);
+    }
+
+    @Benchmark
+    public Object removeAndPut() {
+        Object key = keys[next()];
+        map.remove(key);
+        return map.put(key, key);
+    }
+
+    @Benchmark
+    public void iterate(Blackhole bh) {
+        for (Map.Entry<Object, Object> e : map.entrySet()) {
+            bh.consume(e.getValue());
+        }
+    }
+
+    @Benchmark
+    public Map<Object, Object> putAll() {
+        Map<Object, Object> m = kind.create(MapKind.DEFAULT_INITIAL_CAPACITY, loadFactor);
+        m.putAll(source);
+        return m;
+    }
+
+    @Benchmark
+    public Map<Object, Object> grow() {
+        Map<Object, Object> m = kind.create(MapKind.DEFAULT_INITIAL_CAPACITY, loadFactor);
+        for (Object key : keys) {
+            m.put(key, key);
+        }
+        return m;
+    }
+}
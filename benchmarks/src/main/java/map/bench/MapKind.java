@@ -0,0 +1,48 @@
+package map.bench;
+
+import map.CusConcurrentHashMap;
+import map.CusHashMap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The map implementations under test.
+ *
+ * <p>待测的 Map 实现</p>
+ */
+public enum MapKind {
+
+    CUS_HASH_MAP {
+        @Override
+        <K, V> Map<K, V> create(int initialCapacity, float loadFactor) {
+            return new CusHashMap<>(initialCapacity, loadFactor);
+        }
+    },
+
+    HASH_MAP {
+        @Override
+        <K, V> Map<K, V> create(int initialCapacity, float loadFactor) {
+            return new HashMap<>(initialCapacity, loadFactor);
+        }
+    },
+
+    CUS_CONCURRENT_HASH_MAP {
+        @Override
+        <K, V> Map<K, V> create(int initialCapacity, float loadFactor) {
+            return new CusConcurrentHashMap<>(initialCapacity, loadFactor);
+        }
+    },
+
+    CONCURRENT_HASH_MAP {
+        @Override
+        <K, V> Map<K, V> create(int initialCapacity, float loadFactor) {
+            return new ConcurrentHashMap<>(initialCapacity, loadFactor);
+        }
+    };
+
+    static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    abstract <K, V> Map<K, V> create(int initialCapacity, float loadFactor);
+}
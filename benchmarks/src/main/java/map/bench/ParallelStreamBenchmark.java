@@ -0,0 +1,77 @@
+package map.bench;
+
+import map.CusConcurrentHashMap;
+import map.CusHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.StreamSupport;
+
+/**
+ * Sums the keys of a map with a parallel stream, once through the
+ * map's own spliterator and once through {@code keySet().parallelStream()}.
+ *
+ * <p>For the JDK maps both use the same native spliterator.  For the
+ * {@code Cus*} maps {@code keySet()} falls back to the default spliterator
+ * over the iterator, which splits off growing batches copied into arrays,
+ * while {@code keySpliterator()} splits the table itself.  The stream runs
+ * in the common pool, so results depend on the number of cores.
+ *
+ * <p>并行流基准：比较 Map 自带的 spliterator 与基于迭代器的默认 spliterator</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class ParallelStreamBenchmark {
+
+    @Param({"CUS_HASH_MAP", "HASH_MAP", "CUS_CONCURRENT_HASH_MAP", "CONCURRENT_HASH_MAP"})
+    MapKind kind;
+
+    @Param({"100000", "1000000"})
+    int size;
+
+    Map<Long, Long> map;
+
+    @Setup
+    public void setUp() {
+        map = kind.create(MapKind.DEFAULT_INITIAL_CAPACITY, 0.75f);
+        for (long i = 0; i < size; i++) {
+            map.put(i * 0x9E3779B97F4A7C15L, i);
+        }
+    }
+
+    @Benchmark
+    public long spliterator() {
+        return StreamSupport.stream(keySpliterator(), true).mapToLong(Long::longValue).sum();
+    }
+
+    @Benchmark
+    public long keySet() {
+        return map.keySet().parallelStream().mapToLong(Long::longValue).sum();
+    }
+
+    private Spliterator<Long> keySpliterator() {
+        if (map instanceof CusHashMap) {
+            return CusSpliterators.adapt(((CusHashMap<Long, Long>) map).keySpliterator());
+        }
+        if (map instanceof CusConcurrentHashMap) {
+            return CusSpliterators.adapt(((CusConcurrentHashMap<Long, Long>) map).keySpliterator());
+        }
+        return map.keySet().spliterator();
+    }
+}
@@ -0,0 +1,109 @@
+package map.bench;
+
+import map.CusConcurrentHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writers only, on one {@link CusConcurrentHashMap} shared by many
+ * threads.  {@link BenchmarkRunner} runs this class at 16 to 128 threads;
+ * run directly, it uses {@value #THREADS} threads.
+ *
+ * <p>With many segments, most writes lock a segment no other thread
+ * holds, so throughput is bounded by cache lines shared between
+ * segments and by the map's element count rather than by the locks
+ * themselves.  {@code put} replaces the value of a random existing key;
+ * {@code putRemove} inserts and then removes a key private to the
+ * thread, which also updates the segment's and the map's counts.
+ * Compare the results of two releases to see the effect of a layout
+ * change.  The {@code stats} parameter turns on the map's per-segment
+ * statistics, whose cost shows as the difference to the runs without.
+ *
+ * <p>多写线程基准：观察 segment 之间的伪共享</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Threads(WriterContentionBenchmark.THREADS)
+@State(Scope.Benchmark)
+public class WriterContentionBenchmark {
+
+    static final int THREADS = 32;
+
+    private static final int SIZE = 100000;
+
+    @Param({"16", "256"})
+    int concurrencyLevel;
+
+    @Param({"false", "true"})
+    boolean binLocking;
+
+    @Param({"false", "true"})
+    boolean stats;
+
+    Integer[] keys;
+
+    CusConcurrentHashMap<Object, Object> map;
+
+    /**
+     * Hands out the key prefixes of the threads.
+     */
+    final AtomicLong threadIds = new AtomicLong();
+
+    @State(Scope.Thread)
+    public static class ThreadKeys {
+        long prefix;
+        long next;
+
+        @Setup
+        public void setUp(WriterContentionBenchmark b) {
+            prefix = b.threadIds.incrementAndGet() << 40;
+        }
+
+        Long nextKey() {
+            return prefix | next++;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        keys = new Integer[SIZE];
+        map = new CusConcurrentHashMap<>(2 * SIZE, 0.75f, concurrencyLevel, binLocking);
+        for (int i = 0; i < SIZE; i++) {
+            keys[i] = i * 0x9E3779B9;
+            map.put(keys[i], keys[i]);
+        }
+        if (stats) {
+            map.enableStats();
+        }
+    }
+
+    @Benchmark
+    public Object put() {
+        Integer key = keys[ThreadLocalRandom.current().nextInt(SIZE)];
+        return map.put(key, key);
+    }
+
+    @Benchmark
+    public Object putRemove(ThreadKeys t) {
+        Long key = t.nextKey();
+        map.put(key, key);
+        return map.remove(key);
+    }
+}
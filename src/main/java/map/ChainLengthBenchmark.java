@@ -0,0 +1,131 @@
+package map;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reports the bucket length distribution of a {@link CusHashMap} filled with
+ * String keys, with and without alternative String hashing.
+ *
+ * <p>Alternative hashing is chosen per JVM through the
+ * {@code jdk.map.althashing.threshold} system property, so the benchmark
+ * re-launches itself once with the property set to {@code -1} (disabled) and
+ * once with {@code 0} (always enabled), and each child prints its own
+ * distribution.  Two key sets are used: random strings, and hostile strings
+ * built from the "Aa"/"BB" blocks, which all share one {@code hashCode()}.
+ *
+ * <p>用法：java map.ChainLengthBenchmark [keys]，默认 65536 个 key
+ */
+public class ChainLengthBenchmark {
+
+    private static final int DEFAULT_KEYS = 1 << 16;
+
+    public static void main(String[] args) throws Exception {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_KEYS;
+
+        if (args.length > 1) {
+            // 子进程：按当前 JVM 的配置实际测量
+            report(args[1], keys);
+            return;
+        }
+
+        // 父进程：分别以关闭、开启替代哈希的方式启动子进程
+        run("-1", "alternative hashing off", keys);
+        run("0", "alternative hashing on", keys);
+    }
+
+    private static void run(String threshold, String label, int keys) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        command.add("-Djdk.map.althashing.threshold=" + threshold);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ChainLengthBenchmark.class.getName());
+        command.add(String.valueOf(keys));
+        command.add(label);
+
+        Process process = new ProcessBuilder(command).inheritIO().start();
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException("benchmark child failed: " + label);
+        }
+    }
+
+    private static void report(String label, int keys) {
+        System.out.println("== " + label + ", " + keys + " keys ==");
+        report("random", randomKeys(keys));
+        report("colliding", collidingKeys(keys));
+    }
+
+    private static void report(String name, List<String> keys) {
+        CusHashMap<String, Integer> map = new CusHashMap<>();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < keys.size(); i++) {
+            map.put(keys.get(i), i);
+        }
+        long putNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int hits = 0;
+        for (String key : keys) {
+            if (map.get(key) != null) {
+                hits++;
+            }
+        }
+        long getNanos = System.nanoTime() - start;
+
+        // 统计每个桶的长度分布：0..TREEIFY_THRESHOLD，以及更长的桶
+        int[] histogram = new int[CusHashMap.TREEIFY_THRESHOLD + 2];
+        int max = 0;
+        int treeBins = 0;
+        for (CusHashMap.Entry<String, Integer> first : map.table) {
+            int length = 0;
+            for (CusHashMap.Entry<String, Integer> e = first; e != null; e = e.next) {
+                length++;
+            }
+            if (first instanceof CusHashMap.TreeNode) {
+                treeBins++;
+            }
+            max = Math.max(max, length);
+            histogram[Math.min(length, histogram.length - 1)]++;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-10s capacity=%d hashSeed=%s max=%d treeBins=%d put=%.1fns/op get=%.1fns/op hits=%d%n",
+                name, map.table.length, map.hashSeed != 0 ? "on" : "off", max, treeBins,
+                (double) putNanos / keys.size(), (double) getNanos / keys.size(), hits));
+        for (int i = 0; i < histogram.length; i++) {
+            sb.append(String.format("  %s%-2d %d%n", i == histogram.length - 1 ? ">=" : "  ", i, histogram[i]));
+        }
+        System.out.print(sb);
+    }
+
+    private static List<String> randomKeys(int count) {
+        Random random = new Random(42);
+        List<String> keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            keys.add(Long.toString(random.nextLong(), 36));
+        }
+        return keys;
+    }
+
+    /**
+     * "Aa" and "BB" have the same hashCode, so every string made of the same
+     * number of these blocks collides with every other one.
+     */
+    private static List<String> collidingKeys(int count) {
+        int blocks = 32 - Integer.numberOfLeadingZeros(Math.max(count - 1, 1));
+        List<String> keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder sb = new StringBuilder(blocks * 2);
+            for (int b = 0; b < blocks; b++) {
+                sb.append(((i >>> b) & 1) == 0 ? "Aa" : "BB");
+            }
+            keys.add(sb.toString());
+        }
+        return keys;
+    }
+}
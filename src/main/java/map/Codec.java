@@ -0,0 +1,104 @@
+package map;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes values of one type into a fixed number of bytes of a
+ * {@link ByteBuffer}, for maps that keep their mappings outside the Java
+ * heap.  All accesses are absolute, so the buffer's position and limit are
+ * never touched.
+ *
+ * <p>Off-heap maps compare and hash keys by their encoded bytes, so a key
+ * codec must encode equal keys to equal bytes; the key's {@code
+ * hashCode()} is not used.  A {@link CusHashMap} snapshot stores the
+ * keys' hashes, which are derived from {@code hashCode()}; it only reuses
+ * them on reading when the key codec is a {@link StableHash}.
+ *
+ * <p>定长编解码器：堆外 Map 通过它读写 key、value 的字节</p>
+ *
+ * @param <T> the type of the encoded values
+ */
+public interface Codec<T> {
+
+    /**
+     * Returns the number of bytes every encoded value takes.
+     */
+    int size();
+
+    /**
+     * Writes value at the given absolute index of buf.
+     */
+    void write(ByteBuffer buf, int index, T value);
+
+    /**
+     * Reads the value stored at the given absolute index of buf.
+     */
+    T read(ByteBuffer buf, int index);
+
+    /**
+     * A codec whose decoded values have a {@code hashCode()} that depends
+     * only on their encoded bytes, and so is the same in every JVM, unlike
+     * identity hash codes or those of enums.  The codecs defined here are
+     * stable.
+     *
+     * <p>标记 hashCode 跨 JVM 稳定的编解码器，快照读取时才可复用存储的 hash</p>
+     */
+    interface StableHash<T> extends Codec<T> {
+    }
+
+    Codec<Integer> INT = new StableHash<Integer>() {
+        @Override
+        public int size() {
+            return 4;
+        }
+
+        @Override
+        public void write(ByteBuffer buf, int index, Integer value) {
+            buf.putInt(index, value);
+        }
+
+        @Override
+        public Integer read(ByteBuffer buf, int index) {
+            return buf.getInt(index);
+        }
+    };
+
+    Codec<Long> LONG = new StableHash<Long>() {
+        @Override
+        public int size() {
+            return 8;
+        }
+
+        @Override
+        public void write(ByteBuffer buf, int index, Long value) {
+            buf.putLong(index, value);
+        }
+
+        @Override
+        public Long read(ByteBuffer buf, int index) {
+            return buf.getLong(index);
+        }
+    };
+
+    /**
+     * Encodes doubles with {@link Double#doubleToLongBits}, which matches
+     * {@link Double#equals}: all NaNs encode alike, {@code -0.0} and
+     * {@code 0.0} do not.
+     */
+    Codec<Double> DOUBLE = new StableHash<Double>() {
+        @Override
+        public int size() {
+            return 8;
+        }
+
+        @Override
+        public void write(ByteBuffer buf, int index, Double value) {
+            buf.putLong(index, Double.doubleToLongBits(value));
+        }
+
+        @Override
+        public Double read(ByteBuffer buf, int index) {
+            return Double.longBitsToDouble(buf.getLong(index));
+        }
+    };
+}
@@ -0,0 +1,782 @@
+package map;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Structure-of-Arrays sibling of {@link CusHashMap}.  Collisions are still
+ * resolved by chaining, but a mapping is not an {@link CusHashMap.Entry}
+ * object: its hash, key, value and chain link live at the same index of
+ * the parallel arrays {@link #hashes}, {@link #keys}, {@link #vals} and
+ * {@link #next}, and each bucket of {@link #buckets} holds the index of the
+ * first mapping of its chain.
+ *
+ * <p>Mappings are packed into the indices [0, size): a new mapping takes
+ * index {@code size}, and a removal moves the last mapping into the freed
+ * index.  A map of n mappings therefore costs five arrays instead of n entry
+ * objects, chain walks touch primitive arrays only, and the garbage
+ * collector marks a handful of arrays rather than millions of small
+ * objects.  Iteration and containsValue run in O(size).
+ *
+ * <p>The {@link Map.Entry} objects handed out by {@link #entrySet()} are
+ * flyweights: they own no data and read and write through to the arrays.
+ * Chains are never treeified, so unlike {@code CusHashMap} this map gives no
+ * protection against keys with heavily colliding hash codes.
+ *
+ * <p>Like {@code CusHashMap}, this map permits null keys and null values, is
+ * not synchronized, and its iterators are fail-fast.
+ *
+ * <p>紧凑存储：hash、key、value、链表指针分别放在平行数组中，以下标代替 Entry 对象</p>
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public class CusCompactHashMap<K, V>
+        extends CusAbstractMap<K, V>
+        implements Map<K, V>, Cloneable, Serializable {
+
+    static final int DEFAULT_INITIAL_CAPACITY = 1 << 4; // aka 16
+
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    // 链表结束、空桶的标记
+    static final int NIL = -1;
+
+    // 所有空 Map 之间，共享空数组
+    static final Object[] EMPTY_TABLE = {};
+
+    static final int[] EMPTY_INTS = {};
+
+    /**
+     * Value representing null keys inside the key array.
+     */
+    static final Object NULL_KEY = new Object();
+
+    // 桶数组：每个桶存放链表头的下标，长度必须为 2 的次幂
+    transient int[] buckets = EMPTY_INTS;
+
+    // 以下四个平行数组长度相同，下标 [0, size) 存放映射
+    transient int[] hashes = EMPTY_INTS;
+
+    transient Object[] keys = EMPTY_TABLE;
+
+    transient Object[] vals = EMPTY_TABLE;
+
+    // 同一个桶中下一个映射的下标
+    transient int[] next = EMPTY_INTS;
+
+    /**
+     * The number of key-value mappings contained in this map.
+     */
+    transient int size;
+
+    // 扩容阈值；初始时 buckets == EMPTY_INTS, 则 threshold = initial capacity
+    int threshold;
+
+    final float loadFactor;
+
+    // 结构修改次数，用于迭代时 fail-fast
+    transient int modCount;
+
+    public CusCompactHashMap(int initialCapacity, float loadFactor) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: " +
+                    initialCapacity);
+        }
+
+        if (initialCapacity > MAXIMUM_CAPACITY) {
+            initialCapacity = MAXIMUM_CAPACITY;
+        }
+
+        if (loadFactor <= 0 || Float.isNaN(loadFactor)) {
+            throw new IllegalArgumentException("Illegal load factor: " +
+                    loadFactor);
+        }
+
+        this.loadFactor = loadFactor;
+        threshold = initialCapacity;
+    }
+
+    public CusCompactHashMap(int initialCapacity) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    public CusCompactHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR);
+    }
+
+    public CusCompactHashMap(Map<? extends K, ? extends V> map) {
+        this(Math.max((int) (map.size() / DEFAULT_LOAD_FACTOR) + 1,
+                DEFAULT_INITIAL_CAPACITY), DEFAULT_LOAD_FACTOR);
+
+        inflateTable(threshold);
+
+        for (Map.Entry<? extends K, ? extends V> e : map.entrySet()) {
+            putForCreate(e.getKey(), e.getValue());
+        }
+    }
+
+    // 表初次膨胀：桶数组与映射数组一次分配到位
+    private void inflateTable(int toSize) {
+        int capacity = CusHashMap.roundUpToPowerOf2(toSize);
+
+        threshold = (int) Math.min(capacity * loadFactor, MAXIMUM_CAPACITY + 1);
+        buckets = newBuckets(capacity);
+
+        int slots = Math.max(Math.min(threshold, MAXIMUM_CAPACITY), 1);
+        hashes = new int[slots];
+        keys = new Object[slots];
+        vals = new Object[slots];
+        next = new int[slots];
+    }
+
+    private static int[] newBuckets(int capacity) {
+        int[] b = new int[capacity];
+        Arrays.fill(b, NIL);
+        return b;
+    }
+
+    /**
+     * Applies the same supplemental hash function as {@link CusHashMap},
+     * which defends against poor quality hash functions.  Null keys
+     * always hash to 0.
+     */
+    static int hash(Object k) {
+        if (k == null) {
+            return 0;
+        }
+        int h = k.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+
+    private static Object maskNull(Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K> K unmaskNull(Object key) {
+        return key == NULL_KEY ? null : (K) key;
+    }
+
+    /**
+     * Returns the index of the given (masked) key, or NIL.
+     */
+    final int findIndex(Object k, int hash) {
+        if (size == 0) {
+            return NIL;
+        }
+        int[] hs = hashes;
+        Object[] ks = keys;
+        int[] nx = next;
+        for (int i = buckets[CusHashMap.indexFor(hash, buckets.length)]; i != NIL; i = nx[i]) {
+            Object x;
+            if (hs[i] == hash && ((x = ks[i]) == k || k.equals(x))) {
+                return i;
+            }
+        }
+        return NIL;
+    }
+
+    /**
+     * Returns the number of key-value mappings in this map.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map contains no key-value mappings.
+     */
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int i = findIndex(maskNull(key), hash(key));
+        return i == NIL ? null : (V) vals[i];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return findIndex(maskNull(key), hash(key)) != NIL;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        Object[] vs = vals;
+        for (int i = 0; i < size; i++) {
+            Object v = vs[i];
+            if (v == value || (value != null && value.equals(v))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Associates the specified value with the specified key in this map.
+     * If the map previously contained a mapping for the key, the old
+     * value is replaced.
+     *
+     * @param key   key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @return the previous value associated with <tt>key</tt>, or
+     * <tt>null</tt> if there was no mapping for <tt>key</tt>.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        // 1. 判断是否为初始空
+        if (buckets == EMPTY_INTS) {
+            inflateTable(threshold);
+        }
+
+        // 2. 查找已存在数据
+        Object k = maskNull(key);
+        int hash = hash(key);
+        int i = findIndex(k, hash);
+        if (i != NIL) {
+            V oldValue = (V) vals[i];
+            vals[i] = value;
+            return oldValue;
+        }
+
+        // 3. 扩容判断，再插入
+        modCount++;
+        if (size >= threshold) {
+            resize(buckets.length * 2);
+        }
+        insert(hash, k, value);
+        return null;
+    }
+
+    /**
+     * Used instead of put by constructors and readObject; the bucket
+     * array is already large enough.
+     */
+    private void putForCreate(K key, V value) {
+        Object k = maskNull(key);
+        int hash = hash(key);
+        int i = findIndex(k, hash);
+        if (i != NIL) {
+            vals[i] = value;
+            return;
+        }
+        insert(hash, k, value);
+    }
+
+    /**
+     * Stores a mapping known to be absent at index size and links it at
+     * the head of its bucket.
+     */
+    private void insert(int hash, Object k, Object v) {
+        if (size == keys.length) {
+            growSlots();
+        }
+        int i = size;
+        int b = CusHashMap.indexFor(hash, buckets.length);
+        hashes[i] = hash;
+        keys[i] = k;
+        vals[i] = v;
+        next[i] = buckets[b];
+        buckets[b] = i;
+        size++;
+    }
+
+    // 映射数组已满（负载因子较大或桶数组已达最大容量时），按 1.5 倍增长
+    private void growSlots() {
+        int n = keys.length;
+        if (n == Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Capacity exhausted.");
+        }
+        int newLength = (int) Math.min(n + (n >> 1) + 1L, Integer.MAX_VALUE - 8);
+        hashes = Arrays.copyOf(hashes, newLength);
+        keys = Arrays.copyOf(keys, newLength);
+        vals = Arrays.copyOf(vals, newLength);
+        next = Arrays.copyOf(next, newLength);
+    }
+
+    /**
+     * Rebuilds the bucket array with the given capacity.  Only the chain
+     * links are rewritten: mappings keep their indices and no object is
+     * allocated apart from the new arrays.
+     */
+    private void resize(int newCapacity) {
+        int oldCapacity = buckets.length;
+
+        // 容量达到最大，不再进行扩容
+        if (oldCapacity == MAXIMUM_CAPACITY) {
+            threshold = Integer.MAX_VALUE;
+            return;
+        }
+
+        int[] b = newBuckets(newCapacity);
+        int[] hs = hashes;
+        int[] nx = next;
+        for (int i = 0; i < size; i++) {
+            int idx = CusHashMap.indexFor(hs[i], newCapacity);
+            nx[i] = b[idx];
+            b[idx] = i;
+        }
+        buckets = b;
+        threshold = (int) Math.min(newCapacity * loadFactor, MAXIMUM_CAPACITY + 1);
+
+        // 映射数组提前扩到新阈值，避免之后逐步增长
+        if (keys.length < threshold && threshold <= MAXIMUM_CAPACITY) {
+            hashes = Arrays.copyOf(hashes, threshold);
+            keys = Arrays.copyOf(keys, threshold);
+            vals = Arrays.copyOf(vals, threshold);
+            next = Arrays.copyOf(next, threshold);
+        }
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        int numberKeysToBeAdded = m.size();
+        if (numberKeysToBeAdded == 0) {
+            return;
+        }
+
+        if (buckets == EMPTY_INTS) {
+            inflateTable((int) Math.max(numberKeysToBeAdded / loadFactor + 1, threshold));
+        } else if (numberKeysToBeAdded > threshold) {
+            // 与 CusHashMap 相同的保守判断，最多多一次扩容
+            int targetCapacity = (int) Math.min(numberKeysToBeAdded / loadFactor + 1,
+                    MAXIMUM_CAPACITY);
+            int newCapacity = buckets.length;
+            while (newCapacity < targetCapacity) {
+                newCapacity <<= 1;
+            }
+            if (newCapacity > buckets.length) {
+                resize(newCapacity);
+            }
+        }
+
+        for (Map.Entry<? extends K, ? extends V> e : m.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        int i = findIndex(maskNull(key), hash(key));
+        if (i == NIL) {
+            return null;
+        }
+        V oldValue = (V) vals[i];
+        modCount++;
+        deleteAt(i);
+        return oldValue;
+    }
+
+    /**
+     * Unlinks the mapping at index i, then moves the last mapping into
+     * index i so that [0, size) stays dense.
+     */
+    private void deleteAt(int i) {
+        int[] hs = hashes;
+        int[] nx = next;
+
+        // 1. 从所在链表中摘除
+        unlink(i, nx[i]);
+
+        // 2. 最后一个映射移入空出的下标，指向它的链接改为 i
+        int last = --size;
+        if (i != last) {
+            unlink(last, i);
+            hs[i] = hs[last];
+            keys[i] = keys[last];
+            vals[i] = vals[last];
+            nx[i] = nx[last];
+        }
+        keys[last] = null;
+        vals[last] = null;
+    }
+
+    // 将指向下标 i 的链接（桶头或前驱的 next）改为 replacement
+    private void unlink(int i, int replacement) {
+        int[] nx = next;
+        int b = CusHashMap.indexFor(hashes[i], buckets.length);
+        int p = buckets[b];
+        if (p == i) {
+            buckets[b] = replacement;
+            return;
+        }
+        while (nx[p] != i) {
+            p = nx[p];
+        }
+        nx[p] = replacement;
+    }
+
+    /**
+     * Removes all of the mappings from this map.
+     * The map will be empty after this call returns.
+     */
+    @Override
+    public void clear() {
+        modCount++;
+        Arrays.fill(buckets, NIL);
+        Arrays.fill(keys, 0, size, null);
+        Arrays.fill(vals, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Returns a shallow copy of this map: the keys and values themselves
+     * are not cloned.  The arrays are copied as they are, so no mapping is
+     * re-hashed.
+     *
+     * @return a shallow copy of this map
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object clone() {
+        CusCompactHashMap<K, V> result = null;
+        try {
+            result = (CusCompactHashMap<K, V>) super.clone();
+        } catch (CloneNotSupportedException e) {
+            // assert false;
+        }
+        if (buckets != EMPTY_INTS) {
+            result.buckets = buckets.clone();
+            result.hashes = hashes.clone();
+            result.keys = keys.clone();
+            result.vals = vals.clone();
+            result.next = next.clone();
+        }
+        result.entrySet = null;
+        result.modCount = 0;
+        return result;
+    }
+
+    /* ---------------- Iterator Support -------------- */
+
+    /**
+     * Iterators walk the indices from size - 1 down to 0.  Removing the
+     * current mapping moves the last mapping, which has already been
+     * returned, into the current index, so nothing is skipped or repeated.
+     */
+    private abstract class CompactIterator<E> implements Iterator<E> {
+        int index;                  // index of the next mapping, plus one
+        int lastReturned = NIL;     // index of the mapping last returned
+        int expectedModCount;       // For fast-fail
+
+        CompactIterator() {
+            expectedModCount = modCount;
+            index = size;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index > 0;
+        }
+
+        final int nextIndex() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (index == 0) {
+                throw new NoSuchElementException();
+            }
+            return lastReturned = --index;
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned == NIL) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            modCount++;
+            deleteAt(lastReturned);
+            lastReturned = NIL;
+            expectedModCount = modCount;
+        }
+    }
+
+    private final class KeyIterator extends CompactIterator<K> {
+        @Override
+        public K next() {
+            return unmaskNull(keys[nextIndex()]);
+        }
+    }
+
+    private final class ValueIterator extends CompactIterator<V> {
+        @Override
+        @SuppressWarnings("unchecked")
+        public V next() {
+            return (V) vals[nextIndex()];
+        }
+    }
+
+    private final class EntryIterator extends CompactIterator<Map.Entry<K, V>> {
+        @Override
+        public Map.Entry<K, V> next() {
+            int i = nextIndex();
+            return new SlotEntry(i, keys[i]);
+        }
+    }
+
+    /**
+     * Flyweight entry over an index.  Mappings move when others are
+     * removed, so the index is re-located by key if it no longer holds this
+     * entry's key; writes go through to the map.
+     */
+    private final class SlotEntry implements Map.Entry<K, V> {
+        final Object key;   // masked
+        int index;
+
+        SlotEntry(int index, Object key) {
+            this.index = index;
+            this.key = key;
+        }
+
+        private int slot() {
+            if (index >= size || keys[index] != key) {
+                index = findIndex(key, hash(unmaskNull(key)));
+            }
+            return index;
+        }
+
+        @Override
+        public K getKey() {
+            return unmaskNull(key);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V getValue() {
+            int i = slot();
+            return i == NIL ? null : (V) vals[i];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V setValue(V value) {
+            int i = slot();
+            if (i == NIL) {
+                return put(getKey(), value);
+            }
+            V oldValue = (V) vals[i];
+            vals[i] = value;
+            return oldValue;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry e = (Map.Entry) o;
+            return Objects.equals(getKey(), e.getKey())
+                    && Objects.equals(getValue(), e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    // Views - 视图部分实现
+
+    private transient Set<Map.Entry<K, V>> entrySet = null;
+
+    @Override
+    public Set<K> keySet() {
+        Set<K> ks = keySet;
+        return ks != null ? ks : (keySet = new KeySet());
+    }
+
+    private final class KeySet extends AbstractSet<K> {
+        @Override
+        public Iterator<K> iterator() {
+            return new KeyIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            int before = size;
+            CusCompactHashMap.this.remove(o);
+            return size != before;
+        }
+
+        @Override
+        public void clear() {
+            CusCompactHashMap.this.clear();
+        }
+    }
+
+    @Override
+    public Collection<V> values() {
+        Collection<V> vs = values;
+        return vs != null ? vs : (values = new Values());
+    }
+
+    private final class Values extends AbstractCollection<V> {
+        @Override
+        public Iterator<V> iterator() {
+            return new ValueIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsValue(o);
+        }
+
+        @Override
+        public void clear() {
+            CusCompactHashMap.this.clear();
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> es = entrySet;
+        return es != null ? es : (entrySet = new EntrySet());
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            int i = findIndex(maskNull(e.getKey()), hash(e.getKey()));
+            return i != NIL && Objects.equals(vals[i], e.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!contains(o)) {
+                return false;
+            }
+            CusCompactHashMap.this.remove(((Map.Entry<?, ?>) o).getKey());
+            return true;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void clear() {
+            CusCompactHashMap.this.clear();
+        }
+    }
+
+    /**
+     * Save the state of the map to a stream (i.e., serialize it).
+     *
+     * @serialData The <i>capacity</i> of the map (the length of the bucket
+     *             array) is emitted (int), followed by the <i>size</i>
+     *             (an int, the number of key-value mappings), followed by
+     *             the key (Object) and value (Object) for each key-value
+     *             mapping, in index order.
+     */
+    private void writeObject(java.io.ObjectOutputStream s)
+            throws IOException
+    {
+        s.defaultWriteObject();
+
+        if (buckets == EMPTY_INTS) {
+            s.writeInt(CusHashMap.roundUpToPowerOf2(threshold));
+        } else {
+            s.writeInt(buckets.length);
+        }
+
+        s.writeInt(size);
+
+        for (int i = 0; i < size; i++) {
+            s.writeObject(unmaskNull(keys[i]));
+            s.writeObject(vals[i]);
+        }
+    }
+
+    private static final long serialVersionUID = 2370142563124591406L;
+
+    /**
+     * Reconstitute the map from a stream (i.e., deserialize it).
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(java.io.ObjectInputStream s)
+            throws IOException, ClassNotFoundException
+    {
+        s.defaultReadObject();
+        if (loadFactor <= 0 || Float.isNaN(loadFactor)) {
+            throw new InvalidObjectException("Illegal load factor: " +
+                    loadFactor);
+        }
+
+        buckets = EMPTY_INTS;
+        hashes = EMPTY_INTS;
+        keys = EMPTY_TABLE;
+        vals = EMPTY_TABLE;
+        next = EMPTY_INTS;
+
+        s.readInt(); // capacity, ignored
+
+        int mappings = s.readInt();
+        if (mappings < 0) {
+            throw new InvalidObjectException("Illegal mappings count: " +
+                    mappings);
+        }
+
+        int capacity = (int) Math.min(mappings / loadFactor + 1, MAXIMUM_CAPACITY);
+        if (mappings > 0) {
+            inflateTable(capacity);
+        } else {
+            threshold = capacity;
+        }
+
+        for (int i = 0; i < mappings; i++) {
+            K key = (K) s.readObject();
+            V value = (V) s.readObject();
+            putForCreate(key, value);
+        }
+    }
+
+    int   capacity()     { return buckets.length; }
+    float loadFactor()   { return loadFactor;   }
+
+}
@@ -5,6 +5,11 @@ import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
@@ -33,6 +38,53 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
      * the expense of a large initial footprint.  Some remnants of
      * that design (including forced construction of segment 0) exist
      * to ensure serialization compatibility.
+     *
+     * Segment scaling: a map constructed with a scaleQueueLength may
+     * replace its segments array by one twice as long (see
+     * growSegments), so lookups derive the segment index from the
+     * length of the array they read, not from segmentShift and
+     * segmentMask.
+     *
+     * Bin locking mode: A map constructed with binLocking set does
+     * not use segments for its mappings (segment 0 is still built,
+     * only to carry the load factor and keep the serial form).
+     * Instead there is a single table whose bins are the lock
+     * units, so write concurrency grows with the table instead of
+     * being fixed by the concurrency level.  Insertion of the first
+     * node of an empty bin is done by CAS alone.  Every other update
+     * synchronizes on the first node of the bin and rechecks, once
+     * locked, that it is still the first node, retrying otherwise.
+     * Because the first node is the lock, new nodes are appended at
+     * the end of the list, and removing the first node replaces the
+     * lock, which later lockers notice through the recheck.
+     * computeIfAbsent and compute claim an empty bin with a locked
+     * ReservationNode (hash RESERVED) while the function runs, so
+     * that other writers of the bin wait for the computed value.
+     *
+     * Resizing moves bins to a table twice as large, one bin at a
+     * time, under the same per-bin lock.  Each moved bin (or empty
+     * bin, claimed by CAS) is replaced in the old table by a
+     * ForwardingNode, whose hash is MOVED and which holds the next
+     * table.  Readers meeting one continue in the next table, and
+     * until then keep reading the old one.  As in Segment.rehash, the
+     * nodes are copied except for a trailing run that keeps its
+     * index, so readers still traversing the old lists are not
+     * disturbed.
+     *
+     * Resizing is cooperative.  The bins are handed out from the top
+     * of the old table downwards in strides of at least
+     * MIN_TRANSFER_STRIDE, claimed by CAS on transferIndex.  A writer
+     * that runs into a forwarding node, or whose insertion finds the
+     * table over its threshold while a resize is running, joins in
+     * (helpTransfer) and claims strides until none are left, instead
+     * of waiting.  No lock is held for longer than the move of one
+     * bin.  While resizing, sizeCtl holds the resize stamp of the
+     * old table length in its upper bits and one more than the
+     * number of active resizers in its lower bits; the last resizer
+     * to leave rechecks every bin and then installs the new table.
+     * Otherwise sizeCtl holds the size at which to resize next, or,
+     * before the table is allocated, the initial table size (-1
+     * while allocating it).
      */
 
     /* ---------------- Constants -------------- */
@@ -85,15 +137,63 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
     static final int MAX_SEGMENTS = 1 << 16; // slightly conservative
 
     /**
-     * Number of unsynchronized retries in size and containsValue
-     * methods before resorting to locking. This is used to avoid
+     * Number of unsynchronized retries in the segment mode
+     * containsValue method before resorting to locking. This is used to avoid
      * unbounded retries if tables undergo continuous modification
      * which would make it impossible to obtain an accurate result.
      *
-     * <p>seze、contains 等方法中的最大重试次数</p>
+     * <p>containsValue 方法中的最大重试次数</p>
      */
     static final int RETRIES_BEFORE_LOCK = 2;
 
+    /**
+     * Hash of forwarding nodes in bin locking mode.  Ordinary nodes
+     * have their hashes masked with HASH_BITS, so they are never
+     * negative.
+     */
+    static final int MOVED = -1;
+
+    /**
+     * Hash of reservation nodes in bin locking mode.
+     */
+    static final int RESERVED = -3;
+
+    /**
+     * Usable bits of normal node hashes in bin locking mode.
+     */
+    static final int HASH_BITS = 0x7fffffff;
+
+    /**
+     * Minimum number of rebinnings per transfer step.  Ranges are
+     * subdivided to allow multiple resizer threads.  This value
+     * serves as a lower bound to avoid resizers encountering
+     * excessive memory contention.  The value should be at least
+     * DEFAULT_INITIAL_CAPACITY.
+     */
+    private static final int MIN_TRANSFER_STRIDE = 16;
+
+    /**
+     * The number of bits used for generation stamp in sizeCtl.
+     * Must be at least 6 for 32bit arrays.
+     */
+    private static final int RESIZE_STAMP_BITS = 16;
+
+    /**
+     * The maximum number of threads that can help resize.
+     * Must fit in 32 - RESIZE_STAMP_BITS bits.
+     */
+    private static final int MAX_RESIZERS = (1 << (32 - RESIZE_STAMP_BITS)) - 1;
+
+    /**
+     * The bit shift for recording size stamp in sizeCtl.
+     */
+    private static final int RESIZE_STAMP_SHIFT = 32 - RESIZE_STAMP_BITS;
+
+    /**
+     * Number of CPUS, to place bounds on the transfer stride.
+     */
+    static final int NCPU = Runtime.getRuntime().availableProcessors();
+
     /* ---------------- Fields -------------- */
 
     /**
@@ -155,19 +255,108 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
 
     /**
      * Mask value for indexing into segments. The upper bits of a
-     * key's hash code are used to choose the segment.
+     * key's hash code are used to choose the segment.  Kept equal to
+     * segments.length - 1 for the serialized form; lookups derive it
+     * from the array they read, since the segments may grow.
      */
-    final int segmentMask;
+    int segmentMask;
 
     /**
-     * Shift value for indexing within segments.
+     * Shift value for indexing within segments.  Kept in step with
+     * segments.length like segmentMask.
      */
-    final int segmentShift;
+    int segmentShift;
 
     /**
      * The segments, each of which is a specialized hash table.
+     * Replaced by an array twice as long when the segments grow.
+     */
+    volatile Segment<K, V>[] segments;
+
+    /**
+     * Whether this map keeps its mappings in the bin locked table
+     * instead of the segments.
+     *
+     * @serial
+     */
+    final boolean binLocking;
+
+    /**
+     * The average number of threads waiting for a segment lock, per
+     * acquisition, at which the segments grow, or 0 if they never do.
+     *
+     * @serial
+     */
+    final int scaleQueueLength;
+
+    /**
+     * Spinlock (locked via CAS) held while growing the segments.
+     */
+    private transient volatile int segmentsBusy;
+
+    /**
+     * The statistics collected while statistics mode is on, otherwise
+     * null.  The counters themselves are kept by the segments.
+     */
+    private transient volatile CusConcurrentHashMapStats stats;
+
+    /**
+     * The hot key sketch fed by get and put while hot key detection
+     * is on, otherwise null.
+     */
+    private transient volatile CusHotKeySketch<K> hotKeys;
+
+    /**
+     * The bin locking table.  Lazily initialized upon first
+     * insertion.  Elements are accessed via entryAt/setEntryAt/
+     * casEntryAt.
+     *
+     * <p>bin 锁模式下的 table，每个 bin 的首节点即为该 bin 的锁</p>
+     */
+    transient volatile HashEntry<K, V>[] table;
+
+    /**
+     * The next table to use; non-null only while resizing.
+     */
+    private transient volatile HashEntry<K, V>[] nextTable;
+
+    /**
+     * Table initialization and resizing control.  When negative,
+     * the table is being initialized (-1) or resized (the resize
+     * stamp in the upper bits, 1 + the number of resizing threads in
+     * the lower ones).  Otherwise, before the table is allocated,
+     * holds the initial table size to use (0 for the default), and
+     * afterwards the element count at which to resize.
+     */
+    private transient volatile int sizeCtl;
+
+    /**
+     * The next table index (plus one) to split while resizing.
+     */
+    private transient volatile int transferIndex;
+
+    /**
+     * Base counter, used mainly when there is no contention, but also
+     * as a fallback during table initialization races.  Its value is
+     * updated via CAS.  Together with the counter cells it holds the
+     * number of mappings in both modes; Segment.count is then only
+     * used for the per-segment resize thresholds.  It is kept in a
+     * padded cell rather than in a field of the map, so that counting
+     * does not invalidate the cache line holding segments,
+     * segmentShift, table and sizeCtl, which every operation reads.
+     */
+    private transient final CounterCell baseCell = new CounterCell(0L);
+
+    /**
+     * Spinlock (locked via CAS) used when resizing and/or creating
+     * CounterCells.
      */
-    final Segment<K, V>[] segments;
+    private transient volatile int cellsBusy;
+
+    /**
+     * Table of counter cells. When non-null, size is a power of 2.
+     */
+    private transient volatile CounterCell[] counterCells;
 
     transient Set<K> keySet;
     transient Set<Map.Entry<K,V>> entrySet;
@@ -177,7 +366,7 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
      * ConcurrentHashMap list entry. Note that this is never exported
      * out as a user-visible Map.Entry.
      */
-    static final class HashEntry<K, V> {
+    static class HashEntry<K, V> {
 
         final int hash;
         final K key;
@@ -204,7 +393,7 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
 
         static {
             try {
-                UNSAFE = sun.misc.Unsafe.getUnsafe();
+                UNSAFE = getUnsafe();
 
                 Class k = HashEntry.class;
                 nextOffset = UNSAFE.objectFieldOffset
@@ -238,6 +427,72 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
         UNSAFE.putOrderedObject(tab, ((long) i << TSHIFT) + TBASE, e);
     }
 
+    /**
+     * Sets the ith element of given table to v if it currently holds
+     * c.  Used for the lock-free paths of bin locking mode.
+     */
+    static final <K, V> boolean casEntryAt(HashEntry<K, V>[] tab, int i,
+                                           HashEntry<K, V> c, HashEntry<K, V> v) {
+        return UNSAFE.compareAndSwapObject(tab, ((long) i << TSHIFT) + TBASE, c, v);
+    }
+
+    /**
+     * A node inserted at the head of a bin of the old table while it
+     * is being moved by a resize in bin locking mode.
+     *
+     * <p>扩容时放在旧 table 已迁移 bin 上的标记，指向新 table</p>
+     */
+    static final class ForwardingNode<K, V> extends HashEntry<K, V> {
+        final HashEntry<K, V>[] nextTable;
+
+        ForwardingNode(HashEntry<K, V>[] tab) {
+            super(MOVED, null, null, null);
+            this.nextTable = tab;
+        }
+
+        /**
+         * Finds the node for the given key in the next table(s).
+         */
+        HashEntry<K, V> find(int h, Object k) {
+            // loop to avoid arbitrarily deep recursion on forwarding nodes
+            outer:
+            for (HashEntry<K, V>[] tab = nextTable; ; ) {
+                HashEntry<K, V> e;
+                int n;
+                if (tab == null || (n = tab.length) == 0 ||
+                        (e = entryAt(tab, (n - 1) & h)) == null) {
+                    return null;
+                }
+                for (; ; ) {
+                    int eh;
+                    K ek;
+                    if ((eh = e.hash) == h &&
+                            ((ek = e.key) == k || (ek != null && k.equals(ek)))) {
+                        return e;
+                    }
+                    if (eh == MOVED) {
+                        tab = ((ForwardingNode<K, V>) e).nextTable;
+                        continue outer;
+                    }
+                    if ((e = e.next) == null) {
+                        return null;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A place-holder node used by computeIfAbsent and compute in bin
+     * locking mode: it claims an empty bin, and is locked, while the
+     * value is computed.
+     */
+    static final class ReservationNode<K, V> extends HashEntry<K, V> {
+        ReservationNode() {
+            super(RESERVED, null, null, null);
+        }
+    }
+
     /**
      * Applies a supplemental hash function to a given hashCode, which
      * defends against poor quality hash functions.  This is critical
@@ -264,6 +519,169 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
         return h ^ (h >>> 16);
     }
 
+    /*
+     * Segment layout.  Writers of different segments must not share
+     * cache lines, but HotSpot orders the fields of a class by size,
+     * so padding declared next to the fields of one class ends up in
+     * front of them.  Superclass fields are laid out first, though,
+     * hence the hierarchy: SegmentPad puts a cache line after the
+     * object header, SegmentFields holds the fields written under the
+     * lock, and Segment itself ends with another cache line.  The
+     * lock word lives in the ReentrantLock's Sync object, allocated
+     * by the Segment constructor right after the Segment, and the
+     * table is allocated right after that, so that a segment's
+     * objects sit together between the two paddings.  The padding
+     * fields are transient and never read.
+     *
+     * 分段锁的内存布局：前后各填充一个 cache line，避免相邻 segment 的伪共享
+     */
+
+    /**
+     * Padding between the header of a Segment and its fields.
+     */
+    abstract static class SegmentPad extends ReentrantLock {
+        private static final long serialVersionUID = -3514370398571733458L;
+
+        transient long p0, p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    /**
+     * The fields of a Segment that are written under its lock.
+     */
+    abstract static class SegmentFields<K, V> extends SegmentPad {
+        private static final long serialVersionUID = 3918203781230432311L;
+
+        /**
+         * The per-segment table. Elements are accessed via
+         * entryAt/setEntryAt providing volatile semantics.
+         */
+        transient volatile HashEntry<K, V>[] table;
+
+        /**
+         * The number of elements. Accessed only either within locks
+         * or among other volatile reads that maintain visibility.
+         */
+        transient int count;
+
+        /**
+         * The total number of mutative operations in this segment.
+         * Even though this may overflows 32 bits, it provides
+         * sufficient accuracy for stability checks in CHM isEmpty()
+         * and size() methods.  Accessed only either within locks or
+         * among other volatile reads that maintain visibility.
+         */
+        transient int modCount;
+
+        /**
+         * The table is rehashed when its size exceeds this threshold.
+         * (The value of this field is always <tt>(int)(capacity *
+         * loadFactor)</tt>.)
+         */
+        transient int threshold;
+
+        /**
+         * The number of tryLock attempts a thread that finds the lock
+         * held makes, after its scan, before blocking.  Adapted under
+         * the lock by recordContendedLock, and read without it.
+         */
+        transient int spinLimit;
+
+        /**
+         * The number of contended acquisitions that got the lock while
+         * spinning.  Accessed only within locks.
+         */
+        transient long spinCount;
+
+        /**
+         * The number of contended acquisitions that gave up spinning
+         * and blocked.  Accessed only within locks.
+         */
+        transient long parkCount;
+
+        /**
+         * The number of acquisitions in the current contention sample
+         * (see checkContention), up to SCALE_SAMPLE, or minus the number
+         * still to be ignored after a split.  Written within locks, read
+         * without them to decide whether to take the sample.
+         */
+        transient int scaleAcquisitions;
+
+        /**
+         * The number of other threads found waiting by the blocked
+         * acquisitions of the current sample whose hashes fall in the
+         * lower half of a split of this segment.  Accessed only within
+         * locks.
+         */
+        transient int scaleWaitersLow;
+
+        /**
+         * As scaleWaitersLow, for the upper half.
+         */
+        transient int scaleWaitersHigh;
+
+        /**
+         * The hash bit that would split this segment: the one after the
+         * bits that select it in its segments array.  Set before the
+         * segment is published.
+         */
+        transient int splitBit;
+
+        /**
+         * Once the segments have grown past this one, the array that
+         * replaced the one holding it; locked operations then forward
+         * to their segment there.  Written and read within locks.
+         */
+        transient Segment<K, V>[] forward;
+
+        /**
+         * The counters of this segment while statistics are on (see
+         * enableStats), otherwise null.  Updated within locks.
+         */
+        transient volatile SegmentStats stats;
+    }
+
+    /**
+     * Lock and rehash counters of one segment.  Each is written only
+     * by the holder of the segment's lock and read without it, so a
+     * reading may be slightly stale.  Padded like CounterCell, since
+     * the counters of neighbouring segments are allocated together and
+     * written by different threads.
+     *
+     * <p>单个 segment 的锁与 rehash 计数，前后填充避免伪共享</p>
+     */
+    static final class SegmentStats {
+        long p0, p1, p2, p3, p4, p5, p6;
+        // 加锁成功次数
+        long acquisitions;
+        // 首次 tryLock 失败（锁被占用）的次数
+        long tryLockFailures;
+        // 扫描等待期间重试 tryLock 的总次数
+        long scanRetries;
+        // 竞争时靠自旋拿到锁的次数
+        long spins;
+        // 竞争时阻塞等待的次数
+        long parks;
+        // 竞争时等待锁的总耗时
+        long lockWaitNanos;
+        long rehashCount;
+        long rehashNanos;
+        long q0, q1, q2, q3, q4, q5, q6;
+
+        /**
+         * Adds the counts of o to these.
+         */
+        void add(SegmentStats o) {
+            acquisitions += o.acquisitions;
+            tryLockFailures += o.tryLockFailures;
+            scanRetries += o.scanRetries;
+            spins += o.spins;
+            parks += o.parks;
+            lockWaitNanos += o.lockWaitNanos;
+            rehashCount += o.rehashCount;
+            rehashNanos += o.rehashNanos;
+        }
+    }
+
     /**
      * Segments are specialized versions of hash tables.  This
      * subclasses from ReentrantLock opportunistically, just to
@@ -271,7 +689,7 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
      *
      * <p>特化版本的 hash table. 便于分段锁<p/>
      */
-    static final class Segment<K, V> extends ReentrantLock implements Serializable {
+    static final class Segment<K, V> extends SegmentFields<K, V> implements Serializable {
 
         /*
          * Segments maintain a table of entry lists that are always
@@ -302,7 +720,7 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
         private static final long serialVersionUID = 2249069246763182397L;
 
         /**
-         * The maximum number of times to tryLock in a prescan before
+         * The initial number of times to tryLock in a prescan before
          * possibly blocking on acquire in preparation for a locked
          * segment operation. On multiprocessors, using a bounded
          * number of retries maintains cache acquired while locating
@@ -311,33 +729,42 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
         static final int MAX_SCAN_RETRIES =
                 Runtime.getRuntime().availableProcessors() > 1 ? 64 : 1;
 
+        /*
+         * The retry bound actually used is each segment's spinLimit,
+         * which starts at MAX_SCAN_RETRIES and adapts to how long the
+         * lock tends to be held: it grows by a quarter whenever a
+         * contended acquisition succeeds while spinning, and halves
+         * whenever spinning runs out and the thread blocks, as when
+         * the holder is rehashing or has been descheduled.  Growing
+         * more slowly than it shrinks keeps a segment whose holds are
+         * long near the minimum, where threads block almost at once,
+         * while a few short holds are enough to bring spinning back.
+         * On a uniprocessor both bounds are 1.
+         *
+         * 自适应自旋：自旋成功则增加上限，自旋失败转为阻塞则减半
+         */
+
         /**
-         * The per-segment table. Elements are accessed via
-         * entryAt/setEntryAt providing volatile semantics.
+         * The lower bound of spinLimit.
          */
-        transient volatile HashEntry<K, V>[] table;
+        static final int MIN_SPIN_LIMIT = NCPU > 1 ? 4 : 1;
 
         /**
-         * The number of elements. Accessed only either within locks
-         * or among other volatile reads that maintain visibility.
+         * The upper bound of spinLimit.
          */
-        transient int count;
+        static final int MAX_SPIN_LIMIT = NCPU > 1 ? 1024 : 1;
 
         /**
-         * The total number of mutative operations in this segment.
-         * Even though this may overflows 32 bits, it provides
-         * sufficient accuracy for stability checks in CHM isEmpty()
-         * and size() methods.  Accessed only either within locks or
-         * among other volatile reads that maintain visibility.
+         * The number of acquisitions in a contention sample.
          */
-        transient int modCount;
+        static final int SCALE_SAMPLE = 256;
 
         /**
-         * The table is rehashed when its size exceeds this threshold.
-         * (The value of this field is always <tt>(int)(capacity *
-         * loadFactor)</tt>.)
+         * The number of acquisitions a segment created by a split
+         * leaves out of its samples, while the threads that queued on
+         * the old segments drain.
          */
-        transient int threshold;
+        static final int SCALE_COOLDOWN = 1024;
 
         /**
          * The load factor for the hash table.  Even though this value
@@ -348,15 +775,27 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
          */
         final float loadFactor;
 
-        Segment(float lf, int threshold, HashEntry<K, V>[] tab) {
+        /**
+         * Padding after the fields, see SegmentPad.
+         */
+        transient long q0, q1, q2, q3, q4, q5, q6, q7;
+
+        @SuppressWarnings("unchecked")
+        Segment(float lf, int threshold, int capacity) {
             this.loadFactor = lf;
             this.threshold = threshold;
-            this.table = tab;
+            this.spinLimit = MAX_SCAN_RETRIES;
+            // 在 Segment 及其锁对象之后分配 table，使同一 segment 的对象相邻
+            this.table = (HashEntry<K, V>[]) new HashEntry[capacity];
         }
 
         final V put(K key, int hash, V value, boolean onlyIfAbsent) {
             HashEntry<K, V> node = tryLock() ? null :
                     scanAndLockForPut(key, hash, value);
+            Segment<K, V> succ;
+            if ((succ = successor(hash)) != null) {
+                return succ.put(key, hash, value, onlyIfAbsent);
+            }
             V oldValue;
             try {
                 HashEntry<K, V>[] tab = this.table;
@@ -425,6 +864,8 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
              * table write.
              */
 
+            SegmentStats st = stats;
+            long start = st != null ? System.nanoTime() : 0L;
             HashEntry<K, V>[] oldTable = this.table;
             int oldCapacity = oldTable.length;
             int newCapacity = oldCapacity << 1;
@@ -474,6 +915,10 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
             node.setNext(newTable[nodeIndex]);
             newTable[nodeIndex] = node;
             table = newTable;
+            if (st != null) {
+                st.rehashCount++;
+                st.rehashNanos += System.nanoTime() - start;
+            }
         }
 
         /**
@@ -495,10 +940,14 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
             HashEntry<K, V> e = first;
 
             int retries = -1;
+            int limit = spinLimit;
+            int tries = 0;
+            long start = stats != null ? System.nanoTime() : 0L;
 
             HashEntry<K, V> node = null;
             while (!tryLock()) {
                 HashEntry<K, V> f;
+                ++tries;
                 if (retries < 0) {
                     if (e == null) {
                         if (node == null) {
@@ -510,14 +959,16 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
                     } else {
                         e = e.next;
                     }
-                } else if (++retries > MAX_SCAN_RETRIES) {
+                } else if (++retries > limit) {
                     lock();
-                    break;
+                    recordContendedLock(false, tries, start, hash);
+                    return node;
                 } else if ((retries & 1) == 0 && (f = entryForHash(this, hash)) != first) {
                     e = first = f;
                     retries = -1;
                 }
             }
+            recordContendedLock(true, tries, start, hash);
 
             return node;
         }
@@ -538,23 +989,181 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
             HashEntry<K, V> first = entryForHash(this, hash);
             HashEntry<K, V> e = first;
             int retries = -1;
+            int limit = spinLimit;
+            int tries = 0;
+            long start = stats != null ? System.nanoTime() : 0L;
             while (!tryLock()) {
                 HashEntry<K, V> f;
+                ++tries;
                 if (retries < 0) {
                     if (e == null || key.equals(e.key)) {
                         retries = 0;
                     } else {
                         e = e.next;
                     }
-                } else if (++retries > MAX_SCAN_RETRIES) {
+                } else if (++retries > limit) {
                     lock();
-                    break;
+                    recordContendedLock(false, tries, start, hash);
+                    return;
                 } else if ((retries & 1) == 0 &&
                         (f = entryForHash(this, hash)) != first) {
                     e = first = f;
                     retries = -1;
                 }
             }
+            recordContendedLock(true, tries, start, hash);
+        }
+
+        /**
+         * Counts a contended acquisition and adapts spinLimit to its
+         * outcome.  Called with the lock held.
+         *
+         * @param spun true if the lock was acquired while spinning,
+         *             false if the thread blocked
+         * @param tries the number of tryLocks that failed during the scan
+         * @param start the nanoTime at the start of the scan, or 0 if
+         *              statistics were off then
+         * @param hash the hash of the key of the operation
+         */
+        private void recordContendedLock(boolean spun, int tries, long start, int hash) {
+            SegmentStats st = stats;
+            if (st != null) {
+                st.tryLockFailures++;
+                st.scanRetries += tries;
+                if (spun) {
+                    st.spins++;
+                } else {
+                    st.parks++;
+                }
+                if (start != 0L) {
+                    st.lockWaitNanos += System.nanoTime() - start;
+                }
+            }
+            int limit = spinLimit;
+            if (spun) {
+                ++spinCount;
+                if (limit < MAX_SPIN_LIMIT) {
+                    spinLimit = Math.min(limit + (limit >>> 2) + 1, MAX_SPIN_LIMIT);
+                }
+            } else {
+                ++parkCount;
+                if (limit > MIN_SPIN_LIMIT) {
+                    spinLimit = Math.max(limit >>> 1, MIN_SPIN_LIMIT);
+                }
+                int a = scaleAcquisitions;
+                if (a >= 0 && a < SCALE_SAMPLE) {
+                    // 按本线程 hash 落在拆分后的哪一半，累计仍在排队的线程数
+                    if ((hash & splitBit) == 0) {
+                        scaleWaitersLow += getQueueLength();
+                    } else {
+                        scaleWaitersHigh += getQueueLength();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Called after acquiring the lock: if this segment has been
+         * split, releases the lock and returns the segment now
+         * responsible for the given hash, otherwise counts the
+         * acquisition, returns null and keeps the lock.
+         */
+        private Segment<K, V> successor(int hash) {
+            Segment<K, V>[] ss = forward;
+            if (ss == null) {
+                SegmentStats st = stats;
+                if (st != null) {
+                    st.acquisitions++;
+                }
+                if (scaleAcquisitions < SCALE_SAMPLE) {
+                    ++scaleAcquisitions;
+                }
+                return null;
+            }
+            unlock();
+            // 扩展后的数组中每个 segment 都已创建
+            return segmentAt(ss, segmentIndex(hash, ss.length));
+        }
+
+        /**
+         * Takes the contention sample of this segment, if it is
+         * complete, and starts a new one.  Returns true if the sample
+         * calls for a split: the blocked acquisitions found on average
+         * at least queueLength other threads waiting per acquisition,
+         * and the acquirers in the smaller half of the split account
+         * for at least a quarter of them, so that splitting spreads the
+         * waiting rather than leaving it all on one key or one half.
+         * Called with the lock held.
+         */
+        final boolean takeContentionSample(int queueLength) {
+            if (scaleAcquisitions < SCALE_SAMPLE) {
+                return false;
+            }
+            int low = scaleWaitersLow;
+            int high = scaleWaitersHigh;
+            scaleAcquisitions = 0;
+            scaleWaitersLow = 0;
+            scaleWaitersHigh = 0;
+            long waiters = (long) low + high;
+            return waiters >= (long) queueLength * SCALE_SAMPLE &&
+                    (long) Math.min(low, high) << 2 >= waiters;
+        }
+
+        /**
+         * Copies the entries of this segment, at index j of a segments
+         * array being doubled into ns, to the two segments that take
+         * its place in ns, and makes this segment forward to ns.
+         * Called with the lock held.  This segment's own table is left
+         * as it is for the readers still using it.
+         */
+        @SuppressWarnings("unchecked")
+        final void split(Segment<K, V>[] ns, int j) {
+            HashEntry<K, V>[] tab = this.table;
+            int n = ns.length;
+            // 先数出两半各自的 entry 数，以确定新 segment 的容量
+            int lowCount = 0;
+            for (int i = 0; i < tab.length; i++) {
+                for (HashEntry<K, V> e = entryAt(tab, i); e != null; e = e.next) {
+                    if ((segmentIndex(e.hash, n) & 1) == 0) {
+                        ++lowCount;
+                    }
+                }
+            }
+            Segment<K, V> lo = newSplit(lowCount, n);
+            Segment<K, V> hi = newSplit(count - lowCount, n);
+            for (int i = 0; i < tab.length; i++) {
+                for (HashEntry<K, V> e = entryAt(tab, i); e != null; e = e.next) {
+                    Segment<K, V> s = ((segmentIndex(e.hash, n) & 1) == 0) ? lo : hi;
+                    HashEntry<K, V>[] t = s.table;
+                    int idx = e.hash & (t.length - 1);
+                    t[idx] = new HashEntry<>(e.hash, e.key, e.value, t[idx]);
+                    s.count++;
+                }
+            }
+            lo.spinCount = spinCount;
+            lo.parkCount = parkCount;
+            if (stats != null) {
+                lo.stats = new SegmentStats();
+                hi.stats = new SegmentStats();
+            }
+            ns[j << 1] = lo;
+            ns[(j << 1) + 1] = hi;
+            forward = ns;
+        }
+
+        /**
+         * Returns a segment with a table large enough for c entries, to
+         * be placed in a segments array of length n.
+         */
+        private Segment<K, V> newSplit(int c, int n) {
+            int cap = MIN_SEGMENT_TABLE_CAPACITY;
+            while (cap < MAXIMUM_CAPACITY && c > (int) (cap * loadFactor)) {
+                cap <<= 1;
+            }
+            Segment<K, V> s = new Segment<>(loadFactor, (int) (cap * loadFactor), cap);
+            s.splitBit = splitBit(n);
+            s.scaleAcquisitions = -SCALE_COOLDOWN;
+            return s;
         }
 
         /**
@@ -564,6 +1173,10 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
             if (!tryLock()) {
                 scanAndLock(key, hash);
             }
+            Segment<K, V> succ;
+            if ((succ = successor(hash)) != null) {
+                return succ.remove(key, hash, value);
+            }
             V oldValue = null;
 
             try {
@@ -571,7 +1184,7 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
                 HashEntry<K, V>[] tab = this.table;
                 int index = hash & (tab.length - 1);
                 HashEntry<K, V> e = entryAt(tab, index);
-                HashEntry<K, V> prev = e;
+                HashEntry<K, V> prev = null;
                 while (e != null) {
                     HashEntry<K, V> next = e.next;
                     K k;
@@ -579,7 +1192,7 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
                         V v = e.value;
                         if (value == null || value == v || value.equals(v)) {
                             if (prev == null) {
-                                setEntryAt(tab, index, e);
+                                setEntryAt(tab, index, next);
                             } else {
                                 prev.setNext(next);
                             }
@@ -603,6 +1216,10 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
             if (!tryLock()) {
                 scanAndLock(key, hash);
             }
+            Segment<K, V> succ;
+            if ((succ = successor(hash)) != null) {
+                return succ.replace(key, hash, oldValue, newValue);
+            }
             boolean replaced = false;
             try {
                 HashEntry<K, V> e;
@@ -628,10 +1245,14 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
             if (!tryLock()) {
                 scanAndLock(key, hash);
             }
+            Segment<K, V> succ;
+            if ((succ = successor(hash)) != null) {
+                return succ.replace(key, hash, value);
+            }
             V oldValue = null;
             try {
                 HashEntry<K, V> e;
-                for (e = entryForHash(this, hash); ; ) {
+                for (e = entryForHash(this, hash); e != null; e = e.next) {
                     K k;
                     if ((k = e.key) == key ||
                             (e.hash == hash && key.equals(k))) {
@@ -647,89 +1268,1398 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
             return oldValue;
         }
 
-        final void clear() {
-            lock();
-            try {
-                HashEntry<K, V>[] tab = this.table;
-                for (int i = 0; i < tab.length; i++) {
-                    setEntryAt(tab, i, null);
-                }
-                modCount++;
-                count = 0;
-            } finally {
-                unlock();
+        /**
+         * Links node, whose next field is the current first entry of
+         * the bin at index, into the table, rehashing first if the
+         * segment is full.
+         */
+        private void addEntry(HashEntry<K, V>[] tab, int index, HashEntry<K, V> node) {
+            int c = count + 1;
+            if (c > threshold && tab.length < MAXIMUM_CAPACITY) {
+                rehash(node);
+            } else {
+                setEntryAt(tab, index, node);
             }
+            modCount++;
+            count = c;
         }
 
+        /**
+         * Unlinks e, whose predecessor is prev (null if e is first),
+         * from the bin at index.
+         */
+        private void removeEntry(HashEntry<K, V>[] tab, int index,
+                                 HashEntry<K, V> prev, HashEntry<K, V> e) {
+            if (prev == null) {
+                setEntryAt(tab, index, e.next);
+            } else {
+                prev.setNext(e.next);
+            }
+            modCount++;
+            count--;
+        }
+
+        /**
+         * Fails if the mapping function updated this segment, which
+         * would have left tab, index and the found entries stale.
+         * The lock is reentrant, so such an update is not blocked.
+         */
+        private void checkNotRecursive(int expectedModCount) {
+            if (modCount != expectedModCount) {
+                throw new IllegalStateException("Recursive update");
+            }
+        }
+
+        /**
+         * Locked part of computeIfAbsent. The mapping function is
+         * called at most once, and only while holding the lock.
+         * Changes in the number of mappings are added to map's count
+         * after unlocking.
+         */
+        final V computeIfAbsent(K key, int hash, Fun<? super K, ? extends V> mappingFunction,
+                                CusConcurrentHashMap<K, V> map) {
+            if (!tryLock()) {
+                scanAndLock(key, hash);
+            }
+            Segment<K, V> succ;
+            if ((succ = successor(hash)) != null) {
+                return succ.computeIfAbsent(key, hash, mappingFunction, map);
+            }
+            V value = null;
+            boolean added = false;
+            try {
+                HashEntry<K, V>[] tab = this.table;
+                int index = (tab.length - 1) & hash;
+                HashEntry<K, V> first = entryAt(tab, index);
+                HashEntry<K, V> e = first;
+                K k;
+                while (e != null && (k = e.key) != key && (e.hash != hash || !key.equals(k))) {
+                    e = e.next;
+                }
+                if (e != null) {
+                    value = e.value;
+                } else {
+                    int mc = modCount;
+                    if ((value = mappingFunction.apply(key)) != null) {
+                        checkNotRecursive(mc);
+                        addEntry(tab, index, new HashEntry<>(hash, key, value, first));
+                        added = true;
+                    }
+                }
+            } finally {
+                unlock();
+            }
+            if (added) {
+                map.addCount(1L, false);
+            }
+            return value;
+        }
+
+        /**
+         * Locked part of compute and, if onlyIfPresent is set,
+         * computeIfPresent.
+         */
+        final V compute(K key, int hash, BiFun<? super K, ? super V, ? extends V> remappingFunction,
+                        boolean onlyIfPresent, CusConcurrentHashMap<K, V> map) {
+            if (!tryLock()) {
+                scanAndLock(key, hash);
+            }
+            Segment<K, V> succ;
+            if ((succ = successor(hash)) != null) {
+                return succ.compute(key, hash, remappingFunction, onlyIfPresent, map);
+            }
+            V value = null;
+            int delta = 0;
+            try {
+                HashEntry<K, V>[] tab = this.table;
+                int index = (tab.length - 1) & hash;
+                HashEntry<K, V> first = entryAt(tab, index);
+                HashEntry<K, V> prev = null;
+                HashEntry<K, V> e = first;
+                K k;
+                while (e != null && (k = e.key) != key && (e.hash != hash || !key.equals(k))) {
+                    prev = e;
+                    e = e.next;
+                }
+                if (e != null || !onlyIfPresent) {
+                    int mc = modCount;
+                    value = remappingFunction.apply(key, e == null ? null : e.value);
+                    checkNotRecursive(mc);
+                    if (e != null) {
+                        if (value != null) {
+                            e.value = value;
+                            modCount++;
+                        } else {
+                            removeEntry(tab, index, prev, e);
+                            delta = -1;
+                        }
+                    } else if (value != null) {
+                        addEntry(tab, index, new HashEntry<>(hash, key, value, first));
+                        delta = 1;
+                    }
+                }
+            } finally {
+                unlock();
+            }
+            if (delta != 0) {
+                map.addCount(delta, false);
+            }
+            return value;
+        }
+
+        /**
+         * Locked part of merge.
+         */
+        final V merge(K key, int hash, V value, BiFun<? super V, ? super V, ? extends V> remappingFunction,
+                      CusConcurrentHashMap<K, V> map) {
+            if (!tryLock()) {
+                scanAndLock(key, hash);
+            }
+            Segment<K, V> succ;
+            if ((succ = successor(hash)) != null) {
+                return succ.merge(key, hash, value, remappingFunction, map);
+            }
+            V newValue;
+            int delta = 0;
+            try {
+                HashEntry<K, V>[] tab = this.table;
+                int index = (tab.length - 1) & hash;
+                HashEntry<K, V> first = entryAt(tab, index);
+                HashEntry<K, V> prev = null;
+                HashEntry<K, V> e = first;
+                K k;
+                while (e != null && (k = e.key) != key && (e.hash != hash || !key.equals(k))) {
+                    prev = e;
+                    e = e.next;
+                }
+                if (e == null) {
+                    newValue = value;
+                    addEntry(tab, index, new HashEntry<>(hash, key, value, first));
+                    delta = 1;
+                } else {
+                    int mc = modCount;
+                    newValue = remappingFunction.apply(e.value, value);
+                    checkNotRecursive(mc);
+                    if (newValue != null) {
+                        e.value = newValue;
+                        modCount++;
+                    } else {
+                        removeEntry(tab, index, prev, e);
+                        delta = -1;
+                    }
+                }
+            } finally {
+                unlock();
+            }
+            if (delta != 0) {
+                map.addCount(delta, false);
+            }
+            return newValue;
+        }
+
+        /**
+         * Removes all entries and returns how many there were.  A
+         * segment that has been split is left alone and counts 0.
+         */
+        final int clear() {
+            lock();
+            if (forward != null) {
+                unlock();
+                return 0;
+            }
+            SegmentStats st = stats;
+            if (st != null) {
+                st.acquisitions++;
+            }
+            try {
+                HashEntry<K, V>[] tab = this.table;
+                for (int i = 0; i < tab.length; i++) {
+                    setEntryAt(tab, i, null);
+                }
+                modCount++;
+                int removed = count;
+                count = 0;
+                return removed;
+            } finally {
+                unlock();
+            }
+        }
+
+    }
+
+    // Accessing segments
+
+    /**
+     * Gets the jth element of given segment array (if nonnull) with
+     * volatile element access semantics via Unsafe. (The null check
+     * can trigger harmlessly only during deserialization.) Note:
+     * because each element of segments array is set only once (using
+     * fully ordered writes), some performance-sensitive methods rely
+     * on this method only as a recheck upon null reads.
+     */
+    static final <K, V> Segment<K, V> segmentAt(Segment<K, V>[] ss, int i) {
+        long j = (i << SSHIFT) + SBASE;
+        return ss == null ? null :
+                (Segment<K, V>) UNSAFE.getObjectVolatile(ss, j);
+    }
+
+    /**
+     * Returns the index in a segments array of length n, a power of
+     * two, of the segment for the given hash: its upper log2(n) bits.
+     * When the array doubles, the segment at index j is split between
+     * indexes 2j and 2j + 1.
+     */
+    static int segmentIndex(int h, int n) {
+        // n == 1 时移位 32 位等于不移位，与 0 掩码相与后仍为 0
+        return (h >>> (Integer.numberOfLeadingZeros(n) + 1)) & (n - 1);
+    }
+
+    /**
+     * Returns the segment for the given index of ss, creating it and
+     * recording in segment table (via CAS) if not already present.
+     *
+     * @param ss the segments array
+     * @param k the index
+     * @return the segment
+     */
+    @SuppressWarnings("unchecked")
+    Segment<K, V> ensureSegment(Segment<K, V>[] ss, int k) {
+        long u = (k << SSHIFT) + SBASE;
+        Segment<K, V> seg = null;
+        if ((seg = (Segment<K, V>) UNSAFE.getObjectVolatile(ss, u)) == null) {
+            // use segment 0 as prototype
+            // 以 segment 0 为原型，创建新的 segment
+            Segment<K, V> proto = ss[0];
+            int cap = proto.table.length;
+            float lf = proto.loadFactor;
+            int threshold = (int) (cap * lf);
+            if ((seg = (Segment<K, V>) UNSAFE.getObjectVolatile(ss, u)) == null) { // recheck
+                Segment<K, V> s = new Segment<>(lf, threshold, cap);
+                s.splitBit = splitBit(ss.length);
+                while ((seg = (Segment<K, V>) UNSAFE.getObjectVolatile(ss, u)) == null) {
+                    if (UNSAFE.compareAndSwapObject(ss, u, null, seg = s)) {
+                        // 发布后再检查统计模式：与 setSegmentStats 先写 stats 后读数组配对，不会漏掉新 segment
+                        if (stats != null) {
+                            s.stats = new SegmentStats();
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        return seg;
+    }
+
+    // Hash-based segment and entry accesses
+
+    /**
+     * Get the segment for the given hash
+     */
+    private Segment<K, V> segmentForHash(int h) {
+        Segment<K, V>[] ss = segments;
+        long u = (((long) segmentIndex(h, ss.length)) << SSHIFT) + SBASE;
+        return (Segment<K, V>) UNSAFE.getObjectVolatile(ss, u);
+    }
+
+    /**
+     * Get the segment for the given hash, creating it if needed
+     */
+    @SuppressWarnings("unchecked")
+    private Segment<K, V> ensureSegmentForHash(int h) {
+        Segment<K, V>[] ss = segments;
+        int j = segmentIndex(h, ss.length);
+        Segment<K, V> s;
+        if ((s = (Segment<K, V>) UNSAFE.getObjectVolatile
+                (ss, (j << SSHIFT) + SBASE)) == null) { // recheck
+            s = ensureSegment(ss, j);
+        }
+        return s;
+    }
+
+    /* ---------------- Segment scaling -------------- */
+
+    /*
+     * With a scaleQueueLength set, the number of segments follows
+     * contention instead of being fixed by the concurrency level.
+     * Each segment samples its contention over SCALE_SAMPLE
+     * acquisitions: a thread that blocked on the lock adds the number
+     * of other threads still waiting, on the side of the split its
+     * hash falls in, while an uncontended acquisition only counts, so
+     * that a past burst is diluted.  Once an updating method has
+     * released the lock, it looks up the segment now responsible for
+     * its hash, and if that segment's sample is complete, takes it
+     * (see takeContentionSample).  If the waiting was sustained, at
+     * scaleQueueLength threads per acquisition on average, and shared
+     * by both halves, the segments grow: a single hot key, or hot
+     * keys on one side, would stay together in one segment however
+     * often the segments split.  Growing takes every segment lock (in
+     * index order, as containsValue does), splits each segment in two
+     * by one more hash bit into a new array of twice the length, and
+     * publishes it.  The new segments skip SCALE_COOLDOWN
+     * acquisitions before they sample, so that the threads that were
+     * queued at the split cannot trigger the next one.  The old segments are not updated any more: their
+     * tables still serve readers that fetched them before, giving
+     * the state as of the split, and their forward field redirects
+     * threads that were waiting for their locks.  Iterators and
+     * bulk operations started before a split likewise traverse the
+     * old segments.  The segments never shrink.
+     *
+     * 分段扩展：某个 segment 的锁等待队列过长时，将 segment 数组加倍，
+     * 每个 segment 按多一位 hash 拆成两个
+     */
+
+    /**
+     * Takes the contention sample of the segment responsible for hash,
+     * if it is complete and its lock is free, and grows the segments
+     * if the sample calls for it.  Called by updating methods after
+     * they release the lock.
+     */
+    private void checkContention(int hash) {
+        int t = scaleQueueLength;
+        if (t == 0) {
+            return;
+        }
+        Segment<K, V>[] ss = segments;
+        Segment<K, V> s = segmentAt(ss, segmentIndex(hash, ss.length));
+        if (s == null || s.scaleAcquisitions < Segment.SCALE_SAMPLE || !s.tryLock()) {
+            return;
+        }
+        boolean grow;
+        try {
+            grow = s.forward == null && s.takeContentionSample(t);
+        } finally {
+            s.unlock();
+        }
+        if (grow) {
+            growSegments(s);
+        }
+    }
+
+    /**
+     * Returns the hash bit that splits the segments of an array of
+     * length n.
+     */
+    static int splitBit(int n) {
+        return Integer.MIN_VALUE >>> Integer.numberOfTrailingZeros(n);
+    }
+
+    /**
+     * Doubles the segments array, unless it is at its maximum size,
+     * another thread is growing it, or hot has already been split.
+     */
+    @SuppressWarnings("unchecked")
+    private void growSegments(Segment<K, V> hot) {
+        Segment<K, V>[] ss = segments;
+        int n = ss.length;
+        if (n >= MAX_SEGMENTS ||
+                !UNSAFE.compareAndSwapInt(this, SEGMENTSBUSY_OFFSET, 0, 1)) {
+            return;
+        }
+        try {
+            if (segments != ss || hot.forward != null) {
+                return;
+            }
+            for (int j = 0; j < n; ++j) {
+                ensureSegment(ss, j).lock();
+            }
+            try {
+                Segment<K, V>[] ns = (Segment<K, V>[]) new Segment[n << 1];
+                for (int j = 0; j < n; ++j) {
+                    segmentAt(ss, j).split(ns, j);
+                }
+                segments = ns;
+                segmentShift = Integer.numberOfLeadingZeros(ns.length) + 1;
+                segmentMask = ns.length - 1;
+                CusConcurrentHashMapStats st = stats;
+                if (st != null) {
+                    retireSegmentStats(st, ss, ns);
+                }
+            } finally {
+                for (int j = 0; j < n; ++j) {
+                    segmentAt(ss, j).unlock();
+                }
+            }
+        } finally {
+            segmentsBusy = 0;
+        }
+    }
+
+    /* ---------------- Statistics -------------- */
+
+    /*
+     * While statistics mode is on, every segment refers to its own
+     * SegmentStats, which the lock holder updates; with the mode off
+     * a locked operation pays one volatile read of a null field.  The
+     * segments that appear while the mode is being switched are
+     * covered from both sides: setSegmentStats writes the map's stats
+     * field before it reads the segments, and ensureSegment and
+     * growSegments read the field after they publish new segments.
+     * When the segments grow, the counts of the old ones are kept as
+     * the retired totals of the statistics.
+     *
+     * 统计模式：每个 segment 持有自己的计数对象，由持锁线程更新
+     */
+
+    /**
+     * Turns statistics mode on, if it is not on already, and returns
+     * the statistics.  Counting starts from zero when the mode is
+     * turned on.  The statistics cover segment locks and rehashes, so
+     * in bin locking mode only the size is meaningful.
+     *
+     * <p>开启统计模式；关闭时每次加锁操作仅多一次 volatile 判空</p>
+     */
+    public synchronized CusConcurrentHashMapStats enableStats() {
+        CusConcurrentHashMapStats st = stats;
+        if (st == null) {
+            stats = st = new CusConcurrentHashMapStats(this);
+            setSegmentStats(true);
+        }
+        return st;
+    }
+
+    /**
+     * Turns statistics mode off.  Statistics returned earlier keep the
+     * counts of the segments retired by growth, and no longer see the
+     * others.
+     */
+    public synchronized void disableStats() {
+        if (stats != null) {
+            stats = null;
+            setSegmentStats(false);
+        }
+    }
+
+    /**
+     * Returns the statistics of this map, or null if statistics mode
+     * is off.
+     */
+    public CusConcurrentHashMapStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Restarts the counters of every segment from zero, if st is
+     * still the statistics of this map.
+     */
+    synchronized void resetStats(CusConcurrentHashMapStats st) {
+        if (stats == st) {
+            setSegmentStats(true);
+        }
+    }
+
+    // 为当前每个 segment 换上新的计数对象（on 为 false 时清除）；期间数组被加倍则对新数组重做
+    private void setSegmentStats(boolean on) {
+        Segment<K, V>[] ss;
+        do {
+            ss = segments;
+            for (int j = 0; j < ss.length; ++j) {
+                Segment<K, V> s = segmentAt(ss, j);
+                if (s != null) {
+                    s.stats = on ? new SegmentStats() : null;
+                }
+            }
+        } while (ss != segments);
+    }
+
+    /**
+     * Adds the counts of the segments of ss, just split into ns, to
+     * the retired totals of st, and makes sure the segments of ns are
+     * counted.  Called by growSegments with the locks of ss held.
+     */
+    private void retireSegmentStats(CusConcurrentHashMapStats st,
+                                    Segment<K, V>[] ss, Segment<K, V>[] ns) {
+        for (int j = 0; j < ss.length; ++j) {
+            SegmentStats old = segmentAt(ss, j).stats;
+            if (old != null) {
+                st.retire(old);
+            }
+        }
+        for (int j = 0; j < ns.length; ++j) {
+            Segment<K, V> s = ns[j];
+            if (s.stats == null) {
+                s.stats = new SegmentStats();
+            }
+        }
+    }
+
+    /* ---------------- Hot key detection -------------- */
+
+    /**
+     * Turns hot key detection on, replacing any sketch in use, and
+     * returns the new sketch.  From then on one <tt>get</tt> or
+     * <tt>put</tt> in sampleRate is counted, without locking; with
+     * detection off they pay one volatile null check.
+     *
+     * <p>开启热点 key 探测：按采样率把 get/put 的 key 计入 Count-Min sketch</p>
+     *
+     * @param topK the number of hot keys to report
+     * @param sampleRate one call in sampleRate is sampled
+     * @throws IllegalArgumentException if topK is not positive or
+     *         greater than {@link CusHotKeySketch#MAX_TOP_K}, or
+     *         sampleRate is not a positive power of two
+     */
+    public CusHotKeySketch<K> enableHotKeys(int topK, int sampleRate) {
+        CusHotKeySketch<K> hk = new CusHotKeySketch<>(topK, sampleRate);
+        hotKeys = hk;
+        return hk;
+    }
+
+    /**
+     * Turns hot key detection off.  A sketch returned earlier keeps its
+     * counts but is no longer fed.
+     */
+    public void disableHotKeys() {
+        hotKeys = null;
+    }
+
+    /**
+     * Returns the hot key sketch of this map, or null if hot key
+     * detection is off.
+     */
+    public CusHotKeySketch<K> getHotKeys() {
+        return hotKeys;
+    }
+
+    /**
+     * Gets the table entry for the given segment and hash
+     */
+    @SuppressWarnings("unchecked")
+    static final <K, V> HashEntry<K, V> entryForHash(Segment<K, V> seg, int h) {
+        HashEntry<K, V>[] tab;
+        return (seg == null || (tab = seg.table) == null) ? null :
+                (HashEntry<K, V>) UNSAFE.getObjectVolatile
+                        (tab, ((long) (((tab.length - 1) & h)) << TSHIFT) + TBASE);
+    }
+
+    /* ---------------- Counter support -------------- */
+
+    /**
+     * A padded cell for distributing counts.  Adapted from LongAdder
+     * and Striped64: the padding keeps cells that are updated by
+     * different threads on different cache lines.
+     *
+     * <p>分散计数的 cell，前后填充避免伪共享</p>
+     */
+    static final class CounterCell {
+        volatile long p0, p1, p2, p3, p4, p5, p6;
+        volatile long value;
+        volatile long q0, q1, q2, q3, q4, q5, q6;
+
+        CounterCell(long x) {
+            value = x;
+        }
+    }
+
+    /**
+     * Holder for the thread-local hash code determining which
+     * CounterCell to use. The code is initialized via the
+     * counterHashCodeGenerator, but may be moved upon collisions.
+     */
+    static final class CounterHashCode {
+        int code;
+    }
+
+    /**
+     * Generates initial value for per-thread CounterHashCodes.
+     */
+    static final AtomicInteger counterHashCodeGenerator = new AtomicInteger();
+
+    /**
+     * Increment for counterHashCodeGenerator. See class ThreadLocal
+     * for explanation.
+     */
+    static final int SEED_INCREMENT = 0x61c88647;
+
+    /**
+     * Per-thread counter hash codes. Shared across all instances.
+     */
+    static final ThreadLocal<CounterHashCode> threadCounterHashCode =
+            new ThreadLocal<CounterHashCode>();
+
+    /**
+     * Returns the sum of the base count and all counter cells.
+     */
+    final long sumCount() {
+        CounterCell[] as = counterCells;
+        CounterCell a;
+        long sum = baseCell.value;
+        if (as != null) {
+            for (int i = 0; i < as.length; ++i) {
+                if ((a = as[i]) != null) {
+                    sum += a.value;
+                }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Adds x when the fast path of addCount failed: creates the
+     * calling thread's hash code, initializes or grows the cell table
+     * (up to NCPU cells), or moves the thread to another cell after a
+     * collision.  See LongAdder version for explanation.
+     */
+    private void fullAddCount(long x, CounterHashCode hc, boolean wasUncontended) {
+        int h;
+        if (hc == null) {
+            hc = new CounterHashCode();
+            int s = counterHashCodeGenerator.addAndGet(SEED_INCREMENT);
+            h = hc.code = (s == 0) ? 1 : s; // Avoid zero
+            threadCounterHashCode.set(hc);
+        } else {
+            h = hc.code;
+        }
+        boolean collide = false;                // True if last slot nonempty
+        for (; ; ) {
+            CounterCell[] as;
+            CounterCell a;
+            int n;
+            long v;
+            if ((as = counterCells) != null && (n = as.length) > 0) {
+                if ((a = as[(n - 1) & h]) == null) {
+                    if (cellsBusy == 0) {            // Try to attach new Cell
+                        CounterCell r = new CounterCell(x); // Optimistic create
+                        if (cellsBusy == 0 &&
+                                UNSAFE.compareAndSwapInt(this, CELLSBUSY_OFFSET, 0, 1)) {
+                            boolean created = false;
+                            try {               // Recheck under lock
+                                CounterCell[] rs;
+                                int m;
+                                int j;
+                                if ((rs = counterCells) != null &&
+                                        (m = rs.length) > 0 &&
+                                        rs[j = (m - 1) & h] == null) {
+                                    rs[j] = r;
+                                    created = true;
+                                }
+                            } finally {
+                                cellsBusy = 0;
+                            }
+                            if (created) {
+                                break;
+                            }
+                            continue;           // Slot is now non-empty
+                        }
+                    }
+                    collide = false;
+                } else if (!wasUncontended) {       // CAS already known to fail
+                    wasUncontended = true;      // Continue after rehash
+                } else if (UNSAFE.compareAndSwapLong(a, CELLVALUE_OFFSET, v = a.value, v + x)) {
+                    break;
+                } else if (counterCells != as || n >= NCPU) {
+                    collide = false;            // At max size or stale
+                } else if (!collide) {
+                    collide = true;
+                } else if (cellsBusy == 0 &&
+                        UNSAFE.compareAndSwapInt(this, CELLSBUSY_OFFSET, 0, 1)) {
+                    try {
+                        if (counterCells == as) {// Expand table unless stale
+                            CounterCell[] rs = new CounterCell[n << 1];
+                            for (int i = 0; i < n; ++i) {
+                                rs[i] = as[i];
+                            }
+                            counterCells = rs;
+                        }
+                    } finally {
+                        cellsBusy = 0;
+                    }
+                    collide = false;
+                    continue;                   // Retry with expanded table
+                }
+                h ^= h << 13;                   // Rehash
+                h ^= h >>> 17;
+                h ^= h << 5;
+            } else if (cellsBusy == 0 && counterCells == as &&
+                    UNSAFE.compareAndSwapInt(this, CELLSBUSY_OFFSET, 0, 1)) {
+                boolean init = false;
+                try {                           // Initialize table
+                    if (counterCells == as) {
+                        CounterCell[] rs = new CounterCell[2];
+                        rs[h & 1] = new CounterCell(x);
+                        counterCells = rs;
+                        init = true;
+                    }
+                } finally {
+                    cellsBusy = 0;
+                }
+                if (init) {
+                    break;
+                }
+            } else if (UNSAFE.compareAndSwapLong(baseCell, CELLVALUE_OFFSET, v = baseCell.value, v + x)) {
+                break;                          // Fall back on using base
+            }
+        }
+        hc.code = h;                            // Record index for next time
+    }
+
+    /* ---------------- Bin locking mode -------------- */
+
+    /**
+     * Returns a power of two table size for the given desired capacity.
+     */
+    private static int tableSizeFor(int c) {
+        int n = c - 1;
+        n |= n >>> 1;
+        n |= n >>> 2;
+        n |= n >>> 4;
+        n |= n >>> 8;
+        n |= n >>> 16;
+        return (n < 0) ? 1 : (n >= MAXIMUM_CAPACITY) ? MAXIMUM_CAPACITY : n + 1;
+    }
+
+    /**
+     * Returns the element count at which a bin locking table of
+     * length n is resized.
+     */
+    private int binThreshold(int n) {
+        if (n >= MAXIMUM_CAPACITY) {
+            return Integer.MAX_VALUE;
+        }
+        // segment 0 只用来保存 loadFactor
+        return (int) Math.min(n * (double) segments[0].loadFactor, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Initializes the bin locking table, using the size recorded in
+     * sizeCtl.
+     */
+    @SuppressWarnings("unchecked")
+    private HashEntry<K, V>[] initTable() {
+        HashEntry<K, V>[] tab;
+        int sc;
+        while ((tab = table) == null || tab.length == 0) {
+            if ((sc = sizeCtl) < 0) {
+                Thread.yield(); // lost initialization race; just spin
+            } else if (UNSAFE.compareAndSwapInt(this, SIZECTL_OFFSET, sc, -1)) {
+                try {
+                    if ((tab = table) == null || tab.length == 0) {
+                        int n = (sc > 0) ? sc : DEFAULT_INITIAL_CAPACITY;
+                        tab = (HashEntry<K, V>[]) new HashEntry[n];
+                        table = tab;
+                        sc = binThreshold(n);
+                    }
+                } finally {
+                    sizeCtl = sc;
+                }
+                break;
+            }
+        }
+        return tab;
+    }
+
+    /**
+     * Bin locking version of get.
+     */
+    private V binGet(Object key) {
+        HashEntry<K, V>[] tab;
+        HashEntry<K, V> e;
+        int n;
+        int eh;
+        K ek;
+        int h = hash(key) & HASH_BITS;
+        if ((tab = table) != null && (n = tab.length) > 0 &&
+                (e = entryAt(tab, (n - 1) & h)) != null) {
+            if ((eh = e.hash) == h) {
+                if ((ek = e.key) == key || (ek != null && key.equals(ek))) {
+                    return e.value;
+                }
+            } else if (eh == MOVED) {
+                HashEntry<K, V> p = ((ForwardingNode<K, V>) e).find(h, key);
+                return p != null ? p.value : null;
+            }
+            while ((e = e.next) != null) {
+                if (e.hash == h &&
+                        ((ek = e.key) == key || (ek != null && key.equals(ek)))) {
+                    return e.value;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Bin locking version of put and putIfAbsent.
+     */
+    private V putVal(K key, V value, boolean onlyIfAbsent) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        int hash = hash(key) & HASH_BITS;
+        for (HashEntry<K, V>[] tab = table; ; ) {
+            HashEntry<K, V> f;
+            int n;
+            int i;
+            if (tab == null || (n = tab.length) == 0) {
+                tab = initTable();
+            } else if ((f = entryAt(tab, i = (n - 1) & hash)) == null) {
+                // 空 bin：CAS 放入首节点，无需加锁
+                if (casEntryAt(tab, i, null, new HashEntry<K, V>(hash, key, value, null))) {
+                    break;
+                }
+            } else if (f.hash == MOVED) {
+                // 该 bin 已迁移：先协助扩容，再到新 table 中继续
+                tab = helpTransfer(tab, f);
+            } else {
+                V oldVal = null;
+                boolean validated = false;
+                synchronized (f) {
+                    if (entryAt(tab, i) == f) {
+                        validated = true;
+                        checkNotReserved(f);
+                        for (HashEntry<K, V> e = f; ; ) {
+                            K ek;
+                            if (e.hash == hash &&
+                                    ((ek = e.key) == key || (ek != null && key.equals(ek)))) {
+                                oldVal = e.value;
+                                if (!onlyIfAbsent) {
+                                    e.value = value;
+                                }
+                                break;
+                            }
+                            HashEntry<K, V> pred = e;
+                            if ((e = e.next) == null) {
+                                // 首节点是锁，新节点只能挂在链尾
+                                pred.setNext(new HashEntry<K, V>(hash, key, value, null));
+                                break;
+                            }
+                        }
+                    }
+                }
+                if (validated) {
+                    if (oldVal != null) {
+                        return oldVal;
+                    }
+                    break;
+                }
+            }
+        }
+        addCount(1L, true);
+        return null;
+    }
+
+    /**
+     * Bin locking version of the remove and replace methods: replaces
+     * the value with v, or removes the node if v is null, provided the
+     * current value matches cv (when cv is non-null).
+     *
+     * @return the previous value, or null if nothing was changed
+     */
+    private V replaceNode(Object key, V v, Object cv) {
+        int hash = hash(key) & HASH_BITS;
+        for (HashEntry<K, V>[] tab = table; ; ) {
+            HashEntry<K, V> f;
+            int n;
+            int i;
+            if (tab == null || (n = tab.length) == 0 ||
+                    (f = entryAt(tab, i = (n - 1) & hash)) == null) {
+                break;
+            } else if (f.hash == MOVED) {
+                tab = helpTransfer(tab, f);
+            } else {
+                V oldVal = null;
+                boolean validated = false;
+                synchronized (f) {
+                    if (entryAt(tab, i) == f) {
+                        validated = true;
+                        checkNotReserved(f);
+                        for (HashEntry<K, V> e = f, pred = null; ; ) {
+                            K ek;
+                            if (e.hash == hash &&
+                                    ((ek = e.key) == key || (ek != null && key.equals(ek)))) {
+                                V ev = e.value;
+                                if (cv == null || cv == ev || (ev != null && cv.equals(ev))) {
+                                    oldVal = ev;
+                                    if (v != null) {
+                                        e.value = v;
+                                    } else if (pred != null) {
+                                        pred.setNext(e.next);
+                                    } else {
+                                        setEntryAt(tab, i, e.next);
+                                    }
+                                }
+                                break;
+                            }
+                            pred = e;
+                            if ((e = e.next) == null) {
+                                break;
+                            }
+                        }
+                    }
+                }
+                if (validated) {
+                    if (oldVal != null) {
+                        if (v == null) {
+                            addCount(-1L, false);
+                        }
+                        return oldVal;
+                    }
+                    break;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Bin locking version of clear.
+     */
+    private void binClear() {
+        long delta = 0L;
+        int i = 0;
+        HashEntry<K, V>[] tab = table;
+        while (tab != null && i < tab.length) {
+            HashEntry<K, V> f = entryAt(tab, i);
+            if (f == null) {
+                ++i;
+            } else if (f.hash == MOVED) {
+                tab = helpTransfer(tab, f);
+                i = 0; // restart
+            } else {
+                synchronized (f) {
+                    if (entryAt(tab, i) == f) {
+                        checkNotReserved(f);
+                        for (HashEntry<K, V> p = f; p != null; p = p.next) {
+                            --delta;
+                        }
+                        setEntryAt(tab, i++, null);
+                    }
+                }
+            }
+        }
+        if (delta != 0L) {
+            addCount(delta, false);
+        }
+    }
+
+    /**
+     * Bin locking version of computeIfAbsent.  An empty bin is
+     * claimed with a locked ReservationNode while the value is
+     * computed, so that the function runs at most once per key.
+     */
+    private V binComputeIfAbsent(K key, Fun<? super K, ? extends V> mappingFunction) {
+        int h = hash(key) & HASH_BITS;
+        V val = null;
+        boolean added = false;
+        for (HashEntry<K, V>[] tab = table; ; ) {
+            HashEntry<K, V> f;
+            int n;
+            int i;
+            if (tab == null || (n = tab.length) == 0) {
+                tab = initTable();
+            } else if ((f = entryAt(tab, i = (n - 1) & h)) == null) {
+                HashEntry<K, V> r = new ReservationNode<K, V>();
+                boolean reserved = false;
+                synchronized (r) {
+                    if (casEntryAt(tab, i, null, r)) {
+                        reserved = true;
+                        HashEntry<K, V> node = null;
+                        try {
+                            if ((val = mappingFunction.apply(key)) != null) {
+                                node = new HashEntry<K, V>(h, key, val, null);
+                                added = true;
+                            }
+                        } finally {
+                            setEntryAt(tab, i, node);
+                        }
+                    }
+                }
+                if (reserved) {
+                    break;
+                }
+            } else if (f.hash == MOVED) {
+                tab = helpTransfer(tab, f);
+            } else {
+                boolean validated = false;
+                synchronized (f) {
+                    if (entryAt(tab, i) == f) {
+                        validated = true;
+                        checkNotReserved(f);
+                        for (HashEntry<K, V> e = f; ; ) {
+                            K ek;
+                            if (e.hash == h && ((ek = e.key) == key || (ek != null && key.equals(ek)))) {
+                                val = e.value;
+                                break;
+                            }
+                            HashEntry<K, V> pred = e;
+                            if ((e = e.next) == null) {
+                                if ((val = mappingFunction.apply(key)) != null) {
+                                    if (pred.next != null) {
+                                        throw new IllegalStateException("Recursive update");
+                                    }
+                                    added = true;
+                                    pred.setNext(new HashEntry<K, V>(h, key, val, null));
+                                }
+                                break;
+                            }
+                        }
+                    }
+                }
+                if (validated) {
+                    break;
+                }
+            }
+        }
+        if (added) {
+            addCount(1L, true);
+        }
+        return val;
+    }
+
+    /**
+     * Bin locking version of compute and, if onlyIfPresent is set,
+     * computeIfPresent.
+     */
+    private V binCompute(K key, BiFun<? super K, ? super V, ? extends V> remappingFunction,
+                         boolean onlyIfPresent) {
+        int h = hash(key) & HASH_BITS;
+        V val = null;
+        int delta = 0;
+        for (HashEntry<K, V>[] tab = table; ; ) {
+            HashEntry<K, V> f;
+            int n;
+            int i;
+            if (tab == null || (n = tab.length) == 0) {
+                if (onlyIfPresent) {
+                    break;
+                }
+                tab = initTable();
+            } else if ((f = entryAt(tab, i = (n - 1) & h)) == null) {
+                if (onlyIfPresent) {
+                    break;
+                }
+                HashEntry<K, V> r = new ReservationNode<K, V>();
+                boolean reserved = false;
+                synchronized (r) {
+                    if (casEntryAt(tab, i, null, r)) {
+                        reserved = true;
+                        HashEntry<K, V> node = null;
+                        try {
+                            if ((val = remappingFunction.apply(key, null)) != null) {
+                                delta = 1;
+                                node = new HashEntry<K, V>(h, key, val, null);
+                            }
+                        } finally {
+                            setEntryAt(tab, i, node);
+                        }
+                    }
+                }
+                if (reserved) {
+                    break;
+                }
+            } else if (f.hash == MOVED) {
+                tab = helpTransfer(tab, f);
+            } else {
+                boolean validated = false;
+                synchronized (f) {
+                    if (entryAt(tab, i) == f) {
+                        validated = true;
+                        checkNotReserved(f);
+                        for (HashEntry<K, V> e = f, pred = null; ; ) {
+                            K ek;
+                            if (e.hash == h && ((ek = e.key) == key || (ek != null && key.equals(ek)))) {
+                                val = remappingFunction.apply(key, e.value);
+                                if (val != null) {
+                                    e.value = val;
+                                } else {
+                                    delta = -1;
+                                    if (pred != null) {
+                                        pred.setNext(e.next);
+                                    } else {
+                                        setEntryAt(tab, i, e.next);
+                                    }
+                                }
+                                break;
+                            }
+                            pred = e;
+                            if ((e = e.next) == null) {
+                                if (!onlyIfPresent &&
+                                        (val = remappingFunction.apply(key, null)) != null) {
+                                    if (pred.next != null) {
+                                        throw new IllegalStateException("Recursive update");
+                                    }
+                                    delta = 1;
+                                    pred.setNext(new HashEntry<K, V>(h, key, val, null));
+                                }
+                                break;
+                            }
+                        }
+                    }
+                }
+                if (validated) {
+                    break;
+                }
+            }
+        }
+        if (delta != 0) {
+            addCount(delta, delta > 0);
+        }
+        return val;
+    }
+
+    /**
+     * Bin locking version of merge.
+     */
+    private V binMerge(K key, V value, BiFun<? super V, ? super V, ? extends V> remappingFunction) {
+        int h = hash(key) & HASH_BITS;
+        V val = null;
+        int delta = 0;
+        for (HashEntry<K, V>[] tab = table; ; ) {
+            HashEntry<K, V> f;
+            int n;
+            int i;
+            if (tab == null || (n = tab.length) == 0) {
+                tab = initTable();
+            } else if ((f = entryAt(tab, i = (n - 1) & h)) == null) {
+                if (casEntryAt(tab, i, null, new HashEntry<K, V>(h, key, value, null))) {
+                    delta = 1;
+                    val = value;
+                    break;
+                }
+            } else if (f.hash == MOVED) {
+                tab = helpTransfer(tab, f);
+            } else {
+                boolean validated = false;
+                synchronized (f) {
+                    if (entryAt(tab, i) == f) {
+                        validated = true;
+                        checkNotReserved(f);
+                        for (HashEntry<K, V> e = f, pred = null; ; ) {
+                            K ek;
+                            if (e.hash == h && ((ek = e.key) == key || (ek != null && key.equals(ek)))) {
+                                val = remappingFunction.apply(e.value, value);
+                                if (val != null) {
+                                    e.value = val;
+                                } else {
+                                    delta = -1;
+                                    if (pred != null) {
+                                        pred.setNext(e.next);
+                                    } else {
+                                        setEntryAt(tab, i, e.next);
+                                    }
+                                }
+                                break;
+                            }
+                            pred = e;
+                            if ((e = e.next) == null) {
+                                delta = 1;
+                                val = value;
+                                pred.setNext(new HashEntry<K, V>(h, key, val, null));
+                                break;
+                            }
+                        }
+                    }
+                }
+                if (validated) {
+                    break;
+                }
+            }
+        }
+        if (delta != 0) {
+            addCount(delta, delta > 0);
+        }
+        return val;
     }
 
-    // Accessing segments
+    /**
+     * Fails when a locked bin turns out to be held by a
+     * ReservationNode, which can only be seen by the thread that is
+     * computing its value, updating the map from within the mapping
+     * function.
+     */
+    private static void checkNotReserved(HashEntry<?, ?> f) {
+        if (f.hash == RESERVED) {
+            throw new IllegalStateException("Recursive update");
+        }
+    }
 
     /**
-     * Gets the jth element of given segment array (if nonnull) with
-     * volatile element access semantics via Unsafe. (The null check
-     * can trigger harmlessly only during deserialization.) Note:
-     * because each element of segments array is set only once (using
-     * fully ordered writes), some performance-sensitive methods rely
-     * on this method only as a recheck upon null reads.
+     * Returns the stamp bits for resizing a table of size n.
+     * Must be negative when shifted left by RESIZE_STAMP_SHIFT.
      */
-    static final <K, V> Segment<K, V> segmentAt(Segment<K, V>[] ss, int i) {
-        long j = (i << SSHIFT) + SBASE;
-        return ss == null ? null :
-                (Segment<K, V>) UNSAFE.getObjectVolatile(ss, j);
+    static int resizeStamp(int n) {
+        return Integer.numberOfLeadingZeros(n) | (1 << (RESIZE_STAMP_BITS - 1));
     }
 
     /**
-     * Returns the segment for the given index, creating it and
-     * recording in segment table (via CAS) if not already present.
-     *
-     * @param k the index
-     * @return the segment
+     * Adds x to the count, and if check is set and the table is now
+     * too small, starts a resize or joins the one in progress.
+     * Segment mode always passes false: segments resize themselves.
      */
-    @SuppressWarnings("unchecked")
-    private Segment<K, V> ensureSegment(int k) {
-        final Segment<K, V>[] ss = segments;
-        long u = (k << SSHIFT) + SBASE;
-        Segment<K, V> seg = null;
-        if ((seg = (Segment<K, V>) UNSAFE.getObjectVolatile(ss, u)) == null) {
-            // use segment 0 as prototype
-            // 以 segment 0 为原型，创建新的 segment
-            Segment<K, V> proto = ss[0];
-            int cap = proto.table.length;
-            float lf = proto.loadFactor;
-            int threshold = (int) (cap * lf);
-            HashEntry<K, V>[] tab = (HashEntry<K, V>[]) new HashEntry[cap];
-            if ((seg = (Segment<K, V>) UNSAFE.getObjectVolatile(ss, u)) == null) { // recheck
-                Segment<K, V> s = new Segment<>(lf, threshold, tab);
-                while ((seg = (Segment<K, V>) UNSAFE.getObjectVolatile(ss, u)) == null) {
-                    if (UNSAFE.compareAndSwapObject(ss, u, null, seg = s)) {
+    private void addCount(long x, boolean check) {
+        CounterCell[] as;
+        CounterCell base = baseCell;
+        long b;
+        long s;
+        if ((as = counterCells) != null ||
+                !UNSAFE.compareAndSwapLong(base, CELLVALUE_OFFSET, b = base.value, s = b + x)) {
+            // baseCell 上出现竞争后改为按线程分散到各个 cell
+            CounterHashCode hc;
+            CounterCell a;
+            long v;
+            int m;
+            boolean uncontended = true;
+            if ((hc = threadCounterHashCode.get()) == null ||
+                    as == null || (m = as.length - 1) < 0 ||
+                    (a = as[m & hc.code]) == null ||
+                    !(uncontended =
+                            UNSAFE.compareAndSwapLong(a, CELLVALUE_OFFSET, v = a.value, v + x))) {
+                fullAddCount(x, hc, uncontended);
+                return;
+            }
+            if (!check) {
+                return;
+            }
+            s = sumCount();
+        }
+        if (check) {
+            HashEntry<K, V>[] tab;
+            HashEntry<K, V>[] nt;
+            int n;
+            int sc;
+            while (s >= (long) (sc = sizeCtl) && (tab = table) != null &&
+                    (n = tab.length) < MAXIMUM_CAPACITY) {
+                int rs = resizeStamp(n) << RESIZE_STAMP_SHIFT;
+                if (sc < 0) {
+                    // 正在扩容：人数已满、已在收尾或没有剩余区间时不再加入
+                    if (sc == rs + MAX_RESIZERS || sc == rs + 1 ||
+                            (nt = nextTable) == null || transferIndex <= 0) {
                         break;
                     }
+                    if (UNSAFE.compareAndSwapInt(this, SIZECTL_OFFSET, sc, sc + 1)) {
+                        transfer(tab, nt);
+                    }
+                } else if (UNSAFE.compareAndSwapInt(this, SIZECTL_OFFSET, sc, rs + 2)) {
+                    transfer(tab, null);
                 }
+                s = sumCount();
             }
         }
-        return seg;
     }
 
-    // Hash-based segment and entry accesses
-
     /**
-     * Get the segment for the given hash
+     * Helps transfer if a resize is in progress, and returns the
+     * table to continue in.
      */
-    private Segment<K, V> segmentForHash(int h) {
-        long u = (((h >>> segmentShift) & segmentMask) << SSHIFT) + SBASE;
-        return (Segment<K, V>) UNSAFE.getObjectVolatile(segments, u);
+    private HashEntry<K, V>[] helpTransfer(HashEntry<K, V>[] tab, HashEntry<K, V> f) {
+        HashEntry<K, V>[] nextTab;
+        int sc;
+        if (tab != null && (f instanceof ForwardingNode) &&
+                (nextTab = ((ForwardingNode<K, V>) f).nextTable) != null) {
+            int rs = resizeStamp(tab.length) << RESIZE_STAMP_SHIFT;
+            while (nextTab == nextTable && table == tab && (sc = sizeCtl) < 0) {
+                if (sc == rs + MAX_RESIZERS || sc == rs + 1 || transferIndex <= 0) {
+                    break;
+                }
+                if (UNSAFE.compareAndSwapInt(this, SIZECTL_OFFSET, sc, sc + 1)) {
+                    transfer(tab, nextTab);
+                    break;
+                }
+            }
+            return nextTab;
+        }
+        return table;
     }
 
     /**
-     * Gets the table entry for the given segment and hash
+     * Moves the bins of tab to nextTab, claiming strides of bins
+     * until none are left.  The thread that starts the resize passes
+     * a null nextTab, and the last one to leave installs the new
+     * table.
      */
     @SuppressWarnings("unchecked")
-    static final <K, V> HashEntry<K, V> entryForHash(Segment<K, V> seg, int h) {
-        HashEntry<K, V>[] tab;
-        return (seg == null || (tab = seg.table) == null) ? null :
-                (HashEntry<K, V>) UNSAFE.getObjectVolatile
-                        (tab, ((long) (((tab.length - 1) & h)) << TSHIFT) + TBASE);
+    private void transfer(HashEntry<K, V>[] tab, HashEntry<K, V>[] nextTab) {
+        int n = tab.length;
+        int stride;
+        if ((stride = (NCPU > 1) ? (n >>> 3) / NCPU : n) < MIN_TRANSFER_STRIDE) {
+            stride = MIN_TRANSFER_STRIDE; // subdivide range
+        }
+        if (nextTab == null) {            // initiating
+            try {
+                nextTab = (HashEntry<K, V>[]) new HashEntry[n << 1];
+            } catch (Throwable ex) {      // try to cope with OOME
+                sizeCtl = Integer.MAX_VALUE;
+                return;
+            }
+            nextTable = nextTab;
+            transferIndex = n;
+        }
+        int nextn = nextTab.length;
+        ForwardingNode<K, V> fwd = new ForwardingNode<K, V>(nextTab);
+        boolean advance = true;
+        boolean finishing = false; // to ensure sweep before committing nextTab
+        for (int i = 0, bound = 0; ; ) {
+            HashEntry<K, V> f;
+            while (advance) {
+                int nextIndex;
+                int nextBound;
+                if (--i >= bound || finishing) {
+                    advance = false;
+                } else if ((nextIndex = transferIndex) <= 0) {
+                    i = -1;
+                    advance = false;
+                } else if (UNSAFE.compareAndSwapInt(this, TRANSFERINDEX_OFFSET, nextIndex,
+                        nextBound = (nextIndex > stride ? nextIndex - stride : 0))) {
+                    // 领取 [nextBound, nextIndex) 这一段 bin
+                    bound = nextBound;
+                    i = nextIndex - 1;
+                    advance = false;
+                }
+            }
+            if (i < 0 || i >= n || i + n >= nextn) {
+                int sc;
+                if (finishing) {
+                    nextTable = null;
+                    table = nextTab;
+                    sizeCtl = binThreshold(n << 1);
+                    return;
+                }
+                if (UNSAFE.compareAndSwapInt(this, SIZECTL_OFFSET, sc = sizeCtl, sc - 1)) {
+                    if ((sc - 2) != resizeStamp(n) << RESIZE_STAMP_SHIFT) {
+                        return; // 不是最后一个离开的线程
+                    }
+                    finishing = advance = true;
+                    i = n; // recheck before commit
+                }
+            } else if ((f = entryAt(tab, i)) == null) {
+                advance = casEntryAt(tab, i, null, fwd);
+            } else if (f.hash == MOVED) {
+                advance = true; // already processed
+            } else {
+                synchronized (f) {
+                    if (entryAt(tab, i) == f) {
+                        checkNotReserved(f);
+                        // 与 Segment.rehash 相同：复用尾部下标不变的一段，其余节点复制
+                        HashEntry<K, V> lastRun = f;
+                        int runBit = f.hash & n;
+                        for (HashEntry<K, V> p = f.next; p != null; p = p.next) {
+                            int b = p.hash & n;
+                            if (b != runBit) {
+                                runBit = b;
+                                lastRun = p;
+                            }
+                        }
+                        HashEntry<K, V> ln = null;
+                        HashEntry<K, V> hn = null;
+                        if (runBit == 0) {
+                            ln = lastRun;
+                        } else {
+                            hn = lastRun;
+                        }
+                        for (HashEntry<K, V> p = f; p != lastRun; p = p.next) {
+                            if ((p.hash & n) == 0) {
+                                ln = new HashEntry<K, V>(p.hash, p.key, p.value, ln);
+                            } else {
+                                hn = new HashEntry<K, V>(p.hash, p.key, p.value, hn);
+                            }
+                        }
+                        setEntryAt(nextTab, i, ln);
+                        setEntryAt(nextTab, i + n, hn);
+                        setEntryAt(tab, i, fwd);
+                        advance = true;
+                    }
+                }
+            }
+        }
     }
 
     /* ---------------- Public operations -------------- */
@@ -750,15 +2680,98 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
      *                                  negative or the load factor or concurrencyLevel are
      *                                  nonpositive.
      */
-    @SuppressWarnings("unchecked")
     public CusConcurrentHashMap(int initialCapacity,
                                 float loadFactor, int concurrencyLevel) {
-        if (!(loadFactor > 0) || initialCapacity < 0 || concurrencyLevel <= 0) {
+        this(initialCapacity, loadFactor, concurrencyLevel, false);
+    }
+
+    /**
+     * Creates a new, empty map with the specified initial capacity,
+     * load factor and concurrency level, which locks either whole
+     * segments or single bins on update.
+     *
+     * <p>With <tt>binLocking</tt> set, the map is one table whose
+     * empty bins are filled by CAS and whose other bins are updated
+     * while holding a lock on their first node only, so the number
+     * of concurrent writers is bounded by the table size rather than
+     * by the number of segments.  The concurrency level is then only
+     * a sizing hint: the table is made large enough for at least
+     * that many elements.
+     *
+     * @param initialCapacity  the initial capacity. The implementation
+     *                         performs internal sizing to accommodate this many elements.
+     * @param loadFactor       the load factor threshold, used to control resizing.
+     *                         Resizing may be performed when the average number of elements per
+     *                         bin exceeds this threshold.
+     * @param concurrencyLevel the estimated number of concurrently
+     *                         updating threads. The implementation performs internal sizing
+     *                         to try to accommodate this many threads.
+     * @param binLocking       whether to lock single bins instead of segments
+     * @throws IllegalArgumentException if the initial capacity is
+     *                                  negative or the load factor or concurrencyLevel are
+     *                                  nonpositive.
+     */
+    public CusConcurrentHashMap(int initialCapacity, float loadFactor,
+                                int concurrencyLevel, boolean binLocking) {
+        this(initialCapacity, loadFactor, concurrencyLevel, binLocking, 0);
+    }
+
+    /**
+     * Creates a new, empty map with the specified initial capacity,
+     * load factor, concurrency level and locking mode, whose number of
+     * segments may grow with contention.
+     *
+     * <p>With a positive <tt>scaleQueueLength</tt>, the concurrency
+     * level only sets the initial number of segments.  When the
+     * threads blocked on a segment lock have found, over a few hundred
+     * acquisitions, that many other threads waiting on average per
+     * acquisition, the number of segments doubles, up to 65536: every
+     * segment is split in two while all of them are locked, which
+     * stalls updates for a time proportional to the size of the map.
+     * Contention on keys that would stay together after the split,
+     * such as a single hot key, does not grow the segments.  A map
+     * sized for a few threads thus adapts to many more.
+     *
+     * @param initialCapacity  the initial capacity. The implementation
+     *                         performs internal sizing to accommodate this many elements.
+     * @param loadFactor       the load factor threshold, used to control resizing.
+     *                         Resizing may be performed when the average number of elements per
+     *                         bin exceeds this threshold.
+     * @param concurrencyLevel the estimated number of concurrently
+     *                         updating threads. The implementation performs internal sizing
+     *                         to try to accommodate this many threads.
+     * @param binLocking       whether to lock single bins instead of segments
+     * @param scaleQueueLength the average number of threads waiting
+     *                         for a segment lock at which the segments
+     *                         grow, or 0 to keep their number fixed
+     * @throws IllegalArgumentException if the initial capacity or
+     *                                  scaleQueueLength is negative, the load factor or
+     *                                  concurrencyLevel are nonpositive, or scaleQueueLength
+     *                                  is positive in bin locking mode.
+     */
+    @SuppressWarnings("unchecked")
+    public CusConcurrentHashMap(int initialCapacity, float loadFactor,
+                                int concurrencyLevel, boolean binLocking, int scaleQueueLength) {
+        if (!(loadFactor > 0) || initialCapacity < 0 || concurrencyLevel <= 0 ||
+                scaleQueueLength < 0 || (binLocking && scaleQueueLength != 0)) {
             throw new IllegalArgumentException();
         }
+        this.scaleQueueLength = scaleQueueLength;
         if (concurrencyLevel > MAX_SEGMENTS) {
             concurrencyLevel = MAX_SEGMENTS;
         }
+        this.binLocking = binLocking;
+        if (binLocking) {
+            // 只保留 segment 0，table 在首次插入时按 sizeCtl 分配
+            if (initialCapacity < concurrencyLevel) {
+                initialCapacity = concurrencyLevel;
+            }
+            long size = (long) (1.0 + initialCapacity / loadFactor);
+            this.sizeCtl = (size >= MAXIMUM_CAPACITY) ?
+                    MAXIMUM_CAPACITY : tableSizeFor((int) size);
+            initialCapacity = 0;
+            concurrencyLevel = 1;
+        }
         // Find power-of-two sizes best matching arguments
         int ssize = 1;
         int sshift = 0;
@@ -781,14 +2794,14 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
         }
 
         int cap = MIN_SEGMENT_TABLE_CAPACITY;
-        while (c < cap) {
-            c <<= 1;
+        while (cap < c) {
+            cap <<= 1;
         }
 
         // create segments and segments[0]
         Segment<K, V> s0 =
-                new Segment<>(loadFactor, (int) (cap * loadFactor),
-                        (HashEntry<K, V>[]) new HashEntry[cap]);
+                new Segment<>(loadFactor, (int) (cap * loadFactor), cap);
+        s0.splitBit = splitBit(ssize);
         Segment<K, V>[] ss = (Segment<K, V>[]) new Segment[ssize];
         UNSAFE.putOrderedObject(ss, SBASE, s0); // ordered write of segments[0]
         this.segments = ss;
@@ -854,41 +2867,7 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
      */
     @Override
     public boolean isEmpty() {
-        /*
-         * Sum per-segment modCounts to avoid mis-reporting when
-         * elements are concurrently added and removed in one segment
-         * while checking another, in which case the table was never
-         * actually empty at any point. (The sum ensures accuracy up
-         * through at least 1<<31 per-segment modifications before
-         * recheck.)  Methods size() and containsValue() use similar
-         * constructions for stability checks.
-         */
-        long sum = 0L;
-        Segment<K, V>[] segments = this.segments;
-        for (int i = 0; i < segments.length; i++) {
-            Segment<K, V> seg = segmentAt(segments, i);
-            if (seg != null) {
-                if (seg.count != 0) {
-                    return false;
-                }
-                sum += seg.modCount;
-            }
-        }
-        if (sum != 0L) { // recheck unless no modifications
-            for (int i = 0; i < segments.length; i++) {
-                Segment<K, V> seg = segmentAt(segments, i);
-                if (seg != null) {
-                    if (seg.count != 0) {
-                        return false;
-                    }
-                    sum -= seg.modCount;
-                }
-            }
-            if (sum != 0L) {
-                return false;
-            }
-        }
-        return true;
+        return sumCount() <= 0L; // ignore transient negative values
     }
 
     /**
@@ -900,43 +2879,72 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
      */
     @Override
     public int size() {
-        // Try a few times to get accurate count. On failure due to
-        // continuous async changes in table, resort to locking.
-        final Segment<K,V>[] segments = this.segments;
-        int size;
-        boolean overflow; // true if size overflows 32 bits
-        long sum;         // sum of modCounts
-        long last = 0L;   // previous sum
-        int retries = -1; // first iteration isn't retry
-        try {
-            for (;;) {
-                if (retries++ == RETRIES_BEFORE_LOCK) {
-                    for (int j = 0; j < segments.length; ++j)
-                        ensureSegment(j).lock(); // force creation
-                }
-                sum = 0L;
-                size = 0;
-                overflow = false;
-                for (int j = 0; j < segments.length; ++j) {
-                    Segment<K,V> seg = segmentAt(segments, j);
-                    if (seg != null) {
-                        sum += seg.modCount;
-                        int c = seg.count;
-                        if (c < 0 || (size += c) < 0)
-                            overflow = true;
-                    }
-                }
-                if (sum == last)
-                    break;
-                last = sum;
+        long n = sumCount();
+        return ((n < 0L) ? 0 :
+                (n > (long) Integer.MAX_VALUE) ? Integer.MAX_VALUE :
+                        (int) n);
+    }
+
+    /**
+     * Returns the number of mappings.  This method should be used
+     * instead of {@link #size} because a CusConcurrentHashMap may
+     * contain more mappings than can be represented as an int.  The
+     * value returned is an estimate; the actual count may differ if
+     * there are concurrent insertions or removals.
+     *
+     * <p>与 size() 一样只累加计数 cell，不加锁、不重试</p>
+     *
+     * @return the number of mappings
+     */
+    public long mappingCount() {
+        long n = sumCount();
+        return (n < 0L) ? 0L : n; // ignore transient negative values
+    }
+
+    /**
+     * Returns the number of times a thread found a segment locked and
+     * then acquired it while spinning.  Together with {@link
+     * #parkCount} it shows how the adaptive spinning of the segments
+     * fares: under heavy contention, or when locks are held long,
+     * parking dominates and the segments spin less.  The counts are
+     * read without locking, so the value is an estimate, and they
+     * stay zero in bin locking mode, whose bin locks are monitors.
+     *
+     * <p>竞争时通过自旋拿到 segment 锁的次数</p>
+     *
+     * @return the number of contended lock acquisitions won by spinning
+     */
+    public long spinCount() {
+        long n = 0L;
+        final Segment<K, V>[] segments = this.segments;
+        for (int j = 0; j < segments.length; ++j) {
+            Segment<K, V> seg = segmentAt(segments, j);
+            if (seg != null) {
+                n += seg.spinCount;
             }
-        } finally {
-            if (retries > RETRIES_BEFORE_LOCK) {
-                for (int j = 0; j < segments.length; ++j)
-                    segmentAt(segments, j).unlock();
+        }
+        return n;
+    }
+
+    /**
+     * Returns the number of times a thread found a segment locked,
+     * gave up spinning and blocked until the lock was released.  See
+     * {@link #spinCount}.
+     *
+     * <p>竞争时放弃自旋、阻塞等待 segment 锁的次数</p>
+     *
+     * @return the number of contended lock acquisitions that blocked
+     */
+    public long parkCount() {
+        long n = 0L;
+        final Segment<K, V>[] segments = this.segments;
+        for (int j = 0; j < segments.length; ++j) {
+            Segment<K, V> seg = segmentAt(segments, j);
+            if (seg != null) {
+                n += seg.parkCount;
             }
         }
-        return overflow ? Integer.MAX_VALUE : size;
+        return n;
     }
 
     /**
@@ -952,12 +2960,20 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
      */
     @Override
     public V get(Object key) {
+        CusHotKeySketch<K> hk = hotKeys;
+        if (hk != null) {
+            hk.offer(key);
+        }
+        if (binLocking) {
+            return binGet(key);
+        }
         Segment<K, V> s;
         HashEntry<K, V>[] tab;
         int h = hash(key);
-        long u = (((h >>> segmentShift) & segmentMask) << SSHIFT) + SBASE;
+        Segment<K, V>[] ss = segments;
+        long u = (((long) segmentIndex(h, ss.length)) << SSHIFT) + SBASE;
 
-        if ((s = (Segment<K, V>) UNSAFE.getObjectVolatile(segments, u)) != null &&
+        if ((s = (Segment<K, V>) UNSAFE.getObjectVolatile(ss, u)) != null &&
                 (tab = s.table) != null) {
             for (HashEntry<K,V> e = (HashEntry<K,V>) UNSAFE.getObjectVolatile
                     (tab, ((long)(((tab.length - 1) & h)) << TSHIFT) + TBASE);
@@ -982,12 +2998,16 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
      */
     @SuppressWarnings("unchecked")
     public boolean containsKey(Object key) {
+        if (binLocking) {
+            return binGet(key) != null;
+        }
         Segment<K, V> s;
         HashEntry<K, V>[] tab;
         int h = hash(key);
-        long u = (((h >>> segmentShift) & segmentMask) << SSHIFT) + SBASE;
+        Segment<K, V>[] ss = segments;
+        long u = (((long) segmentIndex(h, ss.length)) << SSHIFT) + SBASE;
 
-        if ((s = (Segment<K, V>) UNSAFE.getObjectVolatile(segments, u)) != null &&
+        if ((s = (Segment<K, V>) UNSAFE.getObjectVolatile(ss, u)) != null &&
                 (tab = s.table) != null) {
             for (HashEntry<K,V> e = (HashEntry<K,V>) UNSAFE.getObjectVolatile
                     (tab, ((long)(((tab.length - 1) & h)) << TSHIFT) + TBASE);
@@ -1017,6 +3037,18 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
         // Same idea as size()
         if (value == null)
             throw new NullPointerException();
+        if (binLocking) {
+            HashEntry<K, V>[] t = table;
+            int f = (t == null) ? 0 : t.length;
+            BinTraverser<K, V> it = new BinTraverser<K, V>(t, f, 0, f);
+            for (HashEntry<K, V> e; (e = it.advance()) != null; ) {
+                V v = e.value;
+                if (v == value || (v != null && value.equals(v))) {
+                    return true;
+                }
+            }
+            return false;
+        }
         final Segment<K,V>[] segments = this.segments;
         boolean found = false;
         long last = 0;
@@ -1025,7 +3057,7 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
             outer: for (;;) {
                 if (retries++ == RETRIES_BEFORE_LOCK) {
                     for (int j = 0; j < segments.length; ++j)
-                        ensureSegment(j).lock(); // force creation
+                        ensureSegment(segments, j).lock(); // force creation
                 }
                 long hashSum = 0L;
                 int sum = 0;
@@ -1094,18 +3126,25 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
      */
     @SuppressWarnings("unchecked")
     public V put(K key, V value) {
+        CusHotKeySketch<K> hk = hotKeys;
+        if (hk != null) {
+            hk.offer(key);
+        }
+        if (binLocking) {
+            return putVal(key, value, false);
+        }
         Segment<K, V> s;
         if (value == null) {
             throw new NullPointerException();
         }
         int hash = hash(key);
-
-        int j = (hash >>> segmentShift) & segmentMask;
-        if ((s = (Segment<K, V>) UNSAFE.getObjectVolatile
-                (segments, (j << SSHIFT) + SBASE)) == null) {// nonvolatile; recheck
-            s = ensureSegment(j);
+        s = ensureSegmentForHash(hash);
+        V oldValue = s.put(key, hash, value, false);
+        if (oldValue == null) {
+            addCount(1L, false);
         }
-        return s.put(key, hash, value, false);
+        checkContention(hash);
+        return oldValue;
     }
 
     /**
@@ -1117,18 +3156,21 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
      */
     @SuppressWarnings("unchecked")
     public V putIfAbsent(K key, V value) {
+        if (binLocking) {
+            return putVal(key, value, true);
+        }
         Segment<K, V> s;
         if (value == null) {
             throw new NullPointerException();
         }
         int hash = hash(key);
-
-        int j = (hash >>> segmentShift) & segmentMask;
-        if ((s = (Segment<K, V>) UNSAFE.getObjectVolatile
-                (segments, (j << SSHIFT) + SBASE)) == null) {// nonvolatile; recheck
-            s = ensureSegment(j);
+        s = ensureSegmentForHash(hash);
+        V oldValue = s.put(key, hash, value, true);
+        if (oldValue == null) {
+            addCount(1L, false);
         }
-        return s.put(key, hash, value, true);
+        checkContention(hash);
+        return oldValue;
     }
 
     /**
@@ -1156,9 +3198,20 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
      */
     @Override
     public V remove(Object key) {
+        if (binLocking) {
+            return replaceNode(key, null, null);
+        }
         int hash = hash(key);
         Segment<K, V> s = segmentForHash(hash);
-        return s == null ? null : s.remove(key, hash, null);
+        if (s == null) {
+            return null;
+        }
+        V oldValue = s.remove(key, hash, null);
+        if (oldValue != null) {
+            addCount(-1L, false);
+        }
+        checkContention(hash);
+        return oldValue;
     }
 
     /**
@@ -1168,10 +3221,23 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
      */
     @Override
     public boolean remove(Object key, Object value) {
+        if (binLocking) {
+            if (key == null) {
+                throw new NullPointerException();
+            }
+            return value != null && replaceNode(key, null, value) != null;
+        }
         int hash = hash(key);
         Segment<K, V> s;
-        return value != null && (s = segmentForHash(hash)) != null &&
-                s.remove(key, hash, value) != null;
+        if (value == null || (s = segmentForHash(hash)) == null) {
+            return false;
+        }
+        boolean removed = s.remove(key, hash, value) != null;
+        if (removed) {
+            addCount(-1L, false);
+        }
+        checkContention(hash);
+        return removed;
     }
 
     /**
@@ -1185,8 +3251,16 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
         if (oldValue == null || newValue == null) {
             throw new NullPointerException();
         }
+        if (binLocking) {
+            return replaceNode(key, newValue, oldValue) != null;
+        }
         Segment<K, V> s = segmentForHash(hash);
-        return s != null && s.replace(key, hash, oldValue, newValue);
+        if (s == null) {
+            return false;
+        }
+        boolean replaced = s.replace(key, hash, oldValue, newValue);
+        checkContention(hash);
+        return replaced;
     }
 
     /**
@@ -1201,9 +3275,113 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
         int hash = hash(key);
         if (value == null)
             throw new NullPointerException();
+        if (binLocking) {
+            return replaceNode(key, value, null);
+        }
+
+        Segment<K, V> s = segmentForHash(hash);
+        if (s == null) {
+            return null;
+        }
+        V oldValue = s.replace(key, hash, value);
+        checkContention(hash);
+        return oldValue;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>A present value is returned without locking.  Otherwise the
+     * function is called while holding the lock of the key's segment
+     * (or, in bin locking mode, of its bin), so concurrent callers for
+     * the same key wait for the first one and then see its value.
+     *
+     * @throws NullPointerException if the specified key or
+     *         mappingFunction is null
+     */
+    @SuppressWarnings("unchecked")
+    public V computeIfAbsent(K key, Fun<? super K, ? extends V> mappingFunction) {
+        if (key == null || mappingFunction == null) {
+            throw new NullPointerException();
+        }
+        V value;
+        // 已存在时只读不加锁，缓存命中时不会在锁上竞争
+        if ((value = get(key)) != null) {
+            return value;
+        }
+        if (binLocking) {
+            return binComputeIfAbsent(key, mappingFunction);
+        }
+        int hash = hash(key);
+        Segment<K, V> s = ensureSegmentForHash(hash);
+        value = s.computeIfAbsent(key, hash, mappingFunction, this);
+        checkContention(hash);
+        return value;
+    }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key or
+     *         remappingFunction is null
+     */
+    public V computeIfPresent(K key, BiFun<? super K, ? super V, ? extends V> remappingFunction) {
+        if (key == null || remappingFunction == null) {
+            throw new NullPointerException();
+        }
+        if (binLocking) {
+            return binCompute(key, remappingFunction, true);
+        }
+        int hash = hash(key);
         Segment<K, V> s = segmentForHash(hash);
-        return s == null ? null : s.replace(key, hash, value);
+        if (s == null) {
+            return null;
+        }
+        V value = s.compute(key, hash, remappingFunction, true, this);
+        checkContention(hash);
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key or
+     *         remappingFunction is null
+     */
+    @SuppressWarnings("unchecked")
+    public V compute(K key, BiFun<? super K, ? super V, ? extends V> remappingFunction) {
+        if (key == null || remappingFunction == null) {
+            throw new NullPointerException();
+        }
+        if (binLocking) {
+            return binCompute(key, remappingFunction, false);
+        }
+        int hash = hash(key);
+        Segment<K, V> s = ensureSegmentForHash(hash);
+        V value = s.compute(key, hash, remappingFunction, false, this);
+        checkContention(hash);
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws NullPointerException if the specified key, value or
+     *         remappingFunction is null
+     */
+    @SuppressWarnings("unchecked")
+    public V merge(K key, V value, BiFun<? super V, ? super V, ? extends V> remappingFunction) {
+        if (key == null || value == null || remappingFunction == null) {
+            throw new NullPointerException();
+        }
+        if (binLocking) {
+            return binMerge(key, value, remappingFunction);
+        }
+        int hash = hash(key);
+        Segment<K, V> s = ensureSegmentForHash(hash);
+        V newValue = s.merge(key, hash, value, remappingFunction, this);
+        checkContention(hash);
+        return newValue;
     }
 
     /**
@@ -1211,13 +3389,24 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
      */
     @Override
     public void clear() {
-        Segment<K, V>[] segments = this.segments;
-        for (int i = 0; i < segments.length; i++) {
-            Segment<K, V> s = segmentAt(segments, i);
-            if (s != null) {
-                s.clear();
-            }
+        if (binLocking) {
+            binClear();
+            return;
         }
+        Segment<K, V>[] segments;
+        do {
+            // 清空期间若 segment 被拆分，再清空新数组
+            segments = this.segments;
+            for (int i = 0; i < segments.length; i++) {
+                Segment<K, V> s = segmentAt(segments, i);
+                if (s != null) {
+                    int removed = s.clear();
+                    if (removed != 0) {
+                        addCount(-removed, false);
+                    }
+                }
+            }
+        } while (segments != this.segments);
     }
 
     /**
@@ -1278,9 +3467,46 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
      * construction of the iterator, and may (but is not guaranteed to)
      * reflect any modifications subsequent to construction.
      */
-    public Set<Map.Entry<K,V>> entrySet() {
-        Set<Map.Entry<K,V>> es = entrySet;
-        return (es != null) ? es : (entrySet = new EntrySet());
+    public Set<Map.Entry<K,V>> entrySet() {
+        Set<Map.Entry<K,V>> es = entrySet;
+        return (es != null) ? es : (entrySet = new EntrySet());
+    }
+
+    /**
+     * Returns a {@link CusSpliterator} over the keys of this map, for
+     * parallel traversal.  It splits the segments first and then the
+     * bins of a single segment's table, or index ranges of the table in
+     * bin locking mode.  The spliterator is {@link
+     * CusSpliterator#CONCURRENT}: like the views' iterators it is weakly
+     * consistent and never throws {@link ConcurrentModificationException}.
+     * Its size estimates are based on {@link #mappingCount} when it was
+     * created.
+     *
+     * @return a spliterator over the keys of this map
+     */
+    public CusSpliterator<K> keySpliterator() {
+        return new KeySpliterator(entryRange());
+    }
+
+    /**
+     * Returns a {@link CusSpliterator} over the values of this map,
+     * splitting like {@link #keySpliterator}.
+     *
+     * @return a spliterator over the values of this map
+     */
+    public CusSpliterator<V> valueSpliterator() {
+        return new ValueSpliterator(entryRange());
+    }
+
+    /**
+     * Returns a {@link CusSpliterator} over the mappings of this map,
+     * splitting like {@link #keySpliterator}.  Setting the value of a
+     * reported entry writes through to the map.
+     *
+     * @return a spliterator over the mappings of this map
+     */
+    public CusSpliterator<Map.Entry<K,V>> entrySpliterator() {
+        return new EntrySpliterator(entryRange());
     }
 
     /**
@@ -1305,15 +3531,291 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
 
     /* ---------------- Iterator Support -------------- */
 
+    /**
+     * Records the table, its length, and current traversal index for
+     * a traverser that must process a region of a forwarded table
+     * before proceeding with the current table.
+     */
+    static final class TableStack<K, V> {
+        int length;
+        int index;
+        HashEntry<K, V>[] tab;
+        TableStack<K, V> next;
+    }
+
+    /**
+     * Encapsulates traversal of the bin locking table, for iterators
+     * and containsValue.
+     *
+     * <p>If the table is resized during traversal, each bin that has
+     * been forwarded is continued in the next table: both of the bins
+     * it was split into are visited before moving on, which keeps the
+     * traversal free of duplicates and omissions despite the resize.
+     * The TableStack entries remember where to continue in each
+     * earlier table.
+     */
+    static class BinTraverser<K, V> {
+        HashEntry<K, V>[] tab;        // current table; updated if resized
+        HashEntry<K, V> next;         // the next entry to use
+        TableStack<K, V> stack;       // to save/restore on ForwardingNodes
+        TableStack<K, V> spare;
+        int index;                    // index of bin to use next
+        int baseIndex;                // current index of initial table
+        int baseLimit;                // index bound for initial table
+        final int baseSize;           // initial table size
+
+        BinTraverser(HashEntry<K, V>[] tab, int size, int index, int limit) {
+            this.tab = tab;
+            this.baseSize = size;
+            this.baseIndex = this.index = index;
+            this.baseLimit = limit;
+            this.next = null;
+        }
+
+        /**
+         * Advances if possible, returning next valid node, or null if none.
+         */
+        public final HashEntry<K, V> advance() {
+            HashEntry<K, V> e;
+            if ((e = next) != null) {
+                e = e.next;
+            }
+            for (; ; ) {
+                HashEntry<K, V>[] t;
+                int i;
+                int n;
+                if (e != null) {
+                    return next = e;
+                }
+                if (baseIndex >= baseLimit || (t = tab) == null ||
+                        (n = t.length) <= (i = index) || i < 0) {
+                    return next = null;
+                }
+                if ((e = entryAt(t, i)) != null && e.hash < 0) {
+                    if (e.hash == MOVED) {
+                        tab = ((ForwardingNode<K, V>) e).nextTable;
+                        e = null;
+                        pushState(t, i, n);
+                        continue;
+                    }
+                    e = null; // reserved bin, nothing to visit yet
+                }
+                if (stack != null) {
+                    recoverState(n);
+                } else if ((index = i + baseSize) >= n) {
+                    index = ++baseIndex; // visit upper slots if present
+                }
+            }
+        }
+
+        /**
+         * Saves traversal state upon encountering a forwarding node.
+         */
+        private void pushState(HashEntry<K, V>[] t, int i, int n) {
+            TableStack<K, V> s = spare;  // reuse if possible
+            if (s != null) {
+                spare = s.next;
+            } else {
+                s = new TableStack<K, V>();
+            }
+            s.tab = t;
+            s.length = n;
+            s.index = i;
+            s.next = stack;
+            stack = s;
+        }
+
+        /**
+         * Possibly pops traversal state.
+         *
+         * @param n length of current table
+         */
+        private void recoverState(int n) {
+            TableStack<K, V> s;
+            int len;
+            while ((s = stack) != null && (index += (len = s.length)) >= n) {
+                n = len;
+                index = s.index;
+                tab = s.tab;
+                s.tab = null;
+                TableStack<K, V> next = s.next;
+                s.next = spare; // save for reuse
+                stack = next;
+                spare = s;
+            }
+            if (s == null && (index += baseSize) >= n) {
+                index = ++baseIndex;
+            }
+        }
+    }
+
+    /**
+     * A splittable sequence of the entries of the map, in either
+     * mode, used by the parallel bulk operations and the spliterators.
+     * trySplit hands the upper part of the remaining range to a new
+     * EntryRange; it may also be called after advance.
+     */
+    interface EntryRange<K, V> {
+        /**
+         * Returns the next entry, or null if there are no more.
+         */
+        HashEntry<K, V> advance();
+
+        /**
+         * Splits off part of the range, or returns null if it cannot
+         * be split further.
+         */
+        EntryRange<K, V> trySplit();
+
+        /**
+         * Returns an estimate of the number of entries in the range.
+         */
+        long estimateSize();
+    }
+
+    /**
+     * EntryRange over the bin locking table, splitting on index ranges
+     * of the table as it was when the range was created.
+     */
+    static final class BinRange<K, V> extends BinTraverser<K, V> implements EntryRange<K, V> {
+        long est;               // size estimate
+
+        BinRange(HashEntry<K, V>[] tab, int size, int index, int limit, long est) {
+            super(tab, size, index, limit);
+            this.est = est;
+        }
+
+        public EntryRange<K, V> trySplit() {
+            int i;
+            int f;
+            int h;
+            return (stack != null || (h = ((i = baseIndex) + (f = baseLimit)) >>> 1) <= i) ? null :
+                    new BinRange<K, V>(tab, baseSize, baseLimit = h, f, est >>>= 1);
+        }
+
+        public long estimateSize() {
+            return est;
+        }
+    }
+
+    /**
+     * EntryRange over the segments: splits the range of segments
+     * first, and once a single one is left, the bins of its table.
+     * Each segment's table is read when the segment is reached.
+     */
+    static final class SegmentRange<K, V> implements EntryRange<K, V> {
+        final Segment<K, V>[] segments;
+        int segmentIndex;           // next segment to start
+        int segmentLimit;           // segment index bound
+        HashEntry<K, V>[] tab;      // table of the current segment
+        int index;                  // next bin of tab
+        int limit;                  // bin index bound in tab
+        HashEntry<K, V> next;
+        long est;                   // size estimate
+
+        SegmentRange(Segment<K, V>[] segments, int segmentIndex, int segmentLimit,
+                     HashEntry<K, V>[] tab, int index, int limit, long est) {
+            this.segments = segments;
+            this.segmentIndex = segmentIndex;
+            this.segmentLimit = segmentLimit;
+            this.tab = tab;
+            this.index = index;
+            this.limit = limit;
+            this.est = est;
+        }
+
+        public HashEntry<K, V> advance() {
+            HashEntry<K, V> e;
+            if ((e = next) != null) {
+                e = e.next;
+            }
+            for (; ; ) {
+                if (e != null) {
+                    return next = e;
+                }
+                if (tab != null && index < limit) {
+                    e = entryAt(tab, index++);
+                } else if (segmentIndex < segmentLimit) {
+                    startSegment();
+                } else {
+                    return next = null;
+                }
+            }
+        }
+
+        /**
+         * Moves on to the bins of the next segment.
+         */
+        private void startSegment() {
+            Segment<K, V> seg = segmentAt(segments, segmentIndex++);
+            HashEntry<K, V>[] t;
+            if (seg != null && (t = seg.table) != null) {
+                tab = t;
+                index = 0;
+                limit = t.length;
+            } else {
+                tab = null;
+            }
+        }
+
+        public EntryRange<K, V> trySplit() {
+            int lo = segmentIndex;
+            int hi = segmentLimit;
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                segmentLimit = mid;
+                return new SegmentRange<K, V>(segments, mid, hi, null, 0, 0, est >>>= 1);
+            }
+            if (hi - lo == 1 && (tab == null || index >= limit)) {
+                startSegment(); // 只剩一个 segment 时改为拆分它的 bin
+            }
+            int i = index;
+            int f = limit;
+            int h;
+            if (tab == null || (h = (i + f) >>> 1) <= i) {
+                return null;
+            }
+            limit = h;
+            return new SegmentRange<K, V>(segments, 0, 0, tab, h, f, est >>>= 1);
+        }
+
+        public long estimateSize() {
+            return est;
+        }
+    }
+
+    /**
+     * Returns an EntryRange over all entries of this map.
+     */
+    final EntryRange<K, V> entryRange() {
+        if (binLocking) {
+            HashEntry<K, V>[] t = table;
+            int f = (t == null) ? 0 : t.length;
+            return new BinRange<K, V>(t, f, 0, f, sumCount());
+        }
+        Segment<K, V>[] ss = segments;
+        return new SegmentRange<K, V>(ss, 0, ss.length, null, 0, 0, sumCount());
+    }
+
     abstract class HashIterator {
+        Segment<K,V>[] currentSegments;
         int nextSegmentIndex;
         int nextTableIndex;
         HashEntry<K,V>[] currentTable;
         HashEntry<K, V> nextEntry;
         HashEntry<K, V> lastReturned;
+        BinTraverser<K, V> traverser; // bin locking mode only
 
         HashIterator() {
-            nextSegmentIndex = segments.length - 1;
+            if (binLocking) {
+                HashEntry<K, V>[] t = table;
+                int f = (t == null) ? 0 : t.length;
+                traverser = new BinTraverser<K, V>(t, f, 0, f);
+                nextEntry = traverser.advance();
+                return;
+            }
+            currentSegments = segments;
+            nextSegmentIndex = currentSegments.length - 1;
             nextTableIndex = -1;
             advance();
         }
@@ -1330,7 +3832,7 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
                         break;
                 }
                 else if (nextSegmentIndex >= 0) {
-                    Segment<K,V> seg = segmentAt(segments, nextSegmentIndex--);
+                    Segment<K,V> seg = segmentAt(currentSegments, nextSegmentIndex--);
                     if (seg != null && (currentTable = seg.table) != null)
                         nextTableIndex = currentTable.length - 1;
                 }
@@ -1344,7 +3846,9 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
             if (e == null)
                 throw new NoSuchElementException();
             lastReturned = e; // cannot assign until after null check
-            if ((nextEntry = e.next) == null)
+            if (traverser != null)
+                nextEntry = traverser.advance();
+            else if ((nextEntry = e.next) == null)
                 advance();
             return e;
         }
@@ -1481,6 +3985,428 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
         }
     }
 
+    /**
+     * Base of the spliterators: maps the entries of an EntryRange to
+     * the reported elements.
+     */
+    abstract class RangeSpliterator<T> implements CusSpliterator<T> {
+        final EntryRange<K, V> range;
+
+        RangeSpliterator(EntryRange<K, V> range) {
+            this.range = range;
+        }
+
+        abstract T element(HashEntry<K, V> e);
+
+        abstract RangeSpliterator<T> newSpliterator(EntryRange<K, V> range);
+
+        public final boolean tryAdvance(Action<? super T> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            HashEntry<K, V> e = range.advance();
+            if (e == null) {
+                return false;
+            }
+            action.apply(element(e));
+            return true;
+        }
+
+        public final void forEachRemaining(Action<? super T> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            for (HashEntry<K, V> e; (e = range.advance()) != null; ) {
+                action.apply(element(e));
+            }
+        }
+
+        public final CusSpliterator<T> trySplit() {
+            EntryRange<K, V> r = range.trySplit();
+            return (r == null) ? null : newSpliterator(r);
+        }
+
+        public final long estimateSize() {
+            return range.estimateSize();
+        }
+    }
+
+    final class KeySpliterator extends RangeSpliterator<K> {
+        KeySpliterator(EntryRange<K, V> range) {
+            super(range);
+        }
+        K element(HashEntry<K, V> e) {
+            return e.key;
+        }
+        KeySpliterator newSpliterator(EntryRange<K, V> range) {
+            return new KeySpliterator(range);
+        }
+        public int characteristics() {
+            return DISTINCT | CONCURRENT | NONNULL;
+        }
+    }
+
+    final class ValueSpliterator extends RangeSpliterator<V> {
+        ValueSpliterator(EntryRange<K, V> range) {
+            super(range);
+        }
+        V element(HashEntry<K, V> e) {
+            return e.value;
+        }
+        ValueSpliterator newSpliterator(EntryRange<K, V> range) {
+            return new ValueSpliterator(range);
+        }
+        public int characteristics() {
+            return CONCURRENT | NONNULL;
+        }
+    }
+
+    final class EntrySpliterator extends RangeSpliterator<Map.Entry<K,V>> {
+        EntrySpliterator(EntryRange<K, V> range) {
+            super(range);
+        }
+        Map.Entry<K,V> element(HashEntry<K, V> e) {
+            return new WriteThroughEntry(e.key, e.value);
+        }
+        EntrySpliterator newSpliterator(EntryRange<K, V> range) {
+            return new EntrySpliterator(range);
+        }
+        public int characteristics() {
+            return DISTINCT | CONCURRENT | NONNULL;
+        }
+    }
+
+    /* ---------------- Parallel bulk operations -------------- */
+
+    /*
+     * The bulk operations split entryRange() into subranges and run
+     * them as fork/join tasks.  The parallelismThreshold argument is
+     * the (estimated) number of mappings below which an operation is
+     * run sequentially in the calling thread; Long.MAX_VALUE always
+     * runs sequentially, and 1 gives the most parallelism.  Tasks run
+     * in the pool of the calling thread if it is a fork/join worker,
+     * and otherwise in a shared pool with one thread per processor.
+     * Like iterators, the operations are weakly consistent: they see
+     * every mapping that is present for their whole duration, and may
+     * or may not see concurrent updates.  The functions must not
+     * depend on the order in which mappings are visited, and should
+     * not update this map.
+     */
+
+    /**
+     * An action on a key and value.
+     */
+    public interface BiAction<A, B> {
+        void apply(A a, B b);
+    }
+
+    /**
+     * A function from a key and value to a long.
+     */
+    public interface ObjectByObjectToLong<A, B> {
+        long apply(A a, B b);
+    }
+
+    /**
+     * A function combining two longs.
+     */
+    public interface LongByLongToLong {
+        long apply(long a, long b);
+    }
+
+    /**
+     * Holds the shared pool used when a bulk operation is not called
+     * from a fork/join task.  Java 7 has no common pool, so the pool
+     * is created, with daemon workers, on first parallel use.
+     */
+    private static final class BulkPool {
+        static final ForkJoinPool POOL = new ForkJoinPool(NCPU);
+    }
+
+    /**
+     * Computes initial batch value for bulk tasks.  The returned value
+     * is approximately exp2 of the number of times (minus one) to
+     * split task by two before executing leaf action.  This value is
+     * faster to compute and more convenient to use as a guide to
+     * splitting than is the depth, since it is used while dividing by
+     * two anyway.
+     */
+    final int batchFor(long b) {
+        long n;
+        if (b == Long.MAX_VALUE || (n = sumCount()) <= 1L || n < b) {
+            return 0;
+        }
+        int sp = (ForkJoinTask.inForkJoinPool() ?
+                ForkJoinTask.getPool().getParallelism() : NCPU) << 2; // slack of 4
+        return (b <= 0L || (n /= b) >= sp) ? sp : (int) n;
+    }
+
+    /**
+     * Runs a bulk task in the caller if it is sequential or the caller
+     * is a fork/join worker, and in the shared pool otherwise.
+     */
+    static <R> R invokeBulk(BulkTask<?, ?, R> task) {
+        if (task.batch == 0 || ForkJoinTask.inForkJoinPool()) {
+            return task.invoke();
+        }
+        return BulkPool.POOL.invoke(task);
+    }
+
+    /**
+     * Performs the given action for each (key, value).
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     *                             needed for this operation to be executed in parallel
+     * @param action               the action
+     * @throws NullPointerException if the action is null
+     */
+    public void forEach(long parallelismThreshold, BiAction<? super K, ? super V> action) {
+        if (action == null) {
+            throw new NullPointerException();
+        }
+        invokeBulk(new ForEachTask<K, V>(entryRange(), batchFor(parallelismThreshold), action));
+    }
+
+    /**
+     * Returns a non-null result from applying the given search
+     * function on each (key, value), or null if none.  Upon success,
+     * further element processing is suppressed and the results of
+     * any other parallel invocations of the search function are
+     * ignored.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     *                             needed for this operation to be executed in parallel
+     * @param searchFunction       a function returning a non-null
+     *                             result on success, else null
+     * @param <U>                  the return type of the search function
+     * @return a non-null result from applying the given search
+     * function on each (key, value), or null if none
+     * @throws NullPointerException if the search function is null
+     */
+    public <U> U search(long parallelismThreshold,
+                        BiFun<? super K, ? super V, ? extends U> searchFunction) {
+        if (searchFunction == null) {
+            throw new NullPointerException();
+        }
+        return invokeBulk(new SearchTask<K, V, U>(entryRange(), batchFor(parallelismThreshold),
+                searchFunction, new AtomicReference<U>()));
+    }
+
+    /**
+     * Returns the result of accumulating the given transformation
+     * of all (key, value) pairs using the given reducer to
+     * combine values, or null if none.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     *                             needed for this operation to be executed in parallel
+     * @param transformer          a function returning the transformation
+     *                             for an element, or null if there is no transformation (in
+     *                             which case it is not combined)
+     * @param reducer              a commutative associative combining function
+     * @param <U>                  the return type of the transformer
+     * @return the result of accumulating the given transformation
+     * of all (key, value) pairs
+     * @throws NullPointerException if the transformer or reducer is null
+     */
+    public <U> U reduce(long parallelismThreshold,
+                        BiFun<? super K, ? super V, ? extends U> transformer,
+                        BiFun<? super U, ? super U, ? extends U> reducer) {
+        if (transformer == null || reducer == null) {
+            throw new NullPointerException();
+        }
+        return invokeBulk(new ReduceTask<K, V, U>(entryRange(), batchFor(parallelismThreshold),
+                transformer, reducer));
+    }
+
+    /**
+     * Returns the result of accumulating the given transformation
+     * of all (key, value) pairs using the given reducer to
+     * combine values, and the given basis as an identity value.
+     *
+     * @param parallelismThreshold the (estimated) number of elements
+     *                             needed for this operation to be executed in parallel
+     * @param transformer          a function returning the transformation
+     *                             for an element
+     * @param basis                the identity (initial default value) for the reduction
+     * @param reducer              a commutative associative combining function
+     * @return the result of accumulating the given transformation
+     * of all (key, value) pairs
+     * @throws NullPointerException if the transformer or reducer is null
+     */
+    public long reduceToLong(long parallelismThreshold,
+                             ObjectByObjectToLong<? super K, ? super V> transformer,
+                             long basis, LongByLongToLong reducer) {
+        if (transformer == null || reducer == null) {
+            throw new NullPointerException();
+        }
+        return invokeBulk(new ReduceToLongTask<K, V>(entryRange(), batchFor(parallelismThreshold),
+                transformer, basis, reducer));
+    }
+
+    /**
+     * Base class for bulk tasks.  compute forks the upper halves of
+     * its range while batch allows, traverses what is left, then joins
+     * the forked tasks, which are linked through nextRight.
+     */
+    @SuppressWarnings("serial")
+    abstract static class BulkTask<K, V, R> extends RecursiveTask<R> {
+        final EntryRange<K, V> range;
+        int batch;                  // split control
+
+        BulkTask(EntryRange<K, V> range, int batch) {
+            this.range = range;
+            this.batch = batch;
+        }
+
+        /**
+         * Splits off the upper part of the range for a new subtask,
+         * or returns null when batch is exhausted or the range
+         * cannot be split.
+         */
+        final EntryRange<K, V> split() {
+            int b;
+            EntryRange<K, V> r;
+            if ((b = batch) > 0 && (r = range.trySplit()) != null) {
+                batch = b >>> 1;
+                return r;
+            }
+            return null;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class ForEachTask<K, V> extends BulkTask<K, V, Void> {
+        final BiAction<? super K, ? super V> action;
+        ForEachTask<K, V> nextRight;
+
+        ForEachTask(EntryRange<K, V> range, int batch, BiAction<? super K, ? super V> action) {
+            super(range, batch);
+            this.action = action;
+        }
+
+        protected Void compute() {
+            ForEachTask<K, V> rights = null;
+            for (EntryRange<K, V> r; (r = split()) != null; ) {
+                ForEachTask<K, V> t = new ForEachTask<K, V>(r, batch, action);
+                t.nextRight = rights;
+                (rights = t).fork();
+            }
+            for (HashEntry<K, V> e; (e = range.advance()) != null; ) {
+                action.apply(e.key, e.value);
+            }
+            for (; rights != null; rights = rights.nextRight) {
+                rights.join();
+            }
+            return null;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class SearchTask<K, V, U> extends BulkTask<K, V, U> {
+        final BiFun<? super K, ? super V, ? extends U> searchFunction;
+        final AtomicReference<U> result;
+        SearchTask<K, V, U> nextRight;
+
+        SearchTask(EntryRange<K, V> range, int batch,
+                   BiFun<? super K, ? super V, ? extends U> searchFunction, AtomicReference<U> result) {
+            super(range, batch);
+            this.searchFunction = searchFunction;
+            this.result = result;
+        }
+
+        protected U compute() {
+            SearchTask<K, V, U> rights = null;
+            for (EntryRange<K, V> r; result.get() == null && (r = split()) != null; ) {
+                SearchTask<K, V, U> t = new SearchTask<K, V, U>(r, batch, searchFunction, result);
+                t.nextRight = rights;
+                (rights = t).fork();
+            }
+            for (HashEntry<K, V> e; result.get() == null && (e = range.advance()) != null; ) {
+                U u;
+                if ((u = searchFunction.apply(e.key, e.value)) != null) {
+                    result.compareAndSet(null, u);
+                    break;
+                }
+            }
+            for (; rights != null; rights = rights.nextRight) {
+                rights.join();
+            }
+            return result.get();
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class ReduceTask<K, V, U> extends BulkTask<K, V, U> {
+        final BiFun<? super K, ? super V, ? extends U> transformer;
+        final BiFun<? super U, ? super U, ? extends U> reducer;
+        ReduceTask<K, V, U> nextRight;
+
+        ReduceTask(EntryRange<K, V> range, int batch,
+                   BiFun<? super K, ? super V, ? extends U> transformer,
+                   BiFun<? super U, ? super U, ? extends U> reducer) {
+            super(range, batch);
+            this.transformer = transformer;
+            this.reducer = reducer;
+        }
+
+        protected U compute() {
+            ReduceTask<K, V, U> rights = null;
+            for (EntryRange<K, V> r; (r = split()) != null; ) {
+                ReduceTask<K, V, U> t = new ReduceTask<K, V, U>(r, batch, transformer, reducer);
+                t.nextRight = rights;
+                (rights = t).fork();
+            }
+            U result = null;
+            for (HashEntry<K, V> e; (e = range.advance()) != null; ) {
+                U u;
+                if ((u = transformer.apply(e.key, e.value)) != null) {
+                    result = (result == null) ? u : reducer.apply(result, u);
+                }
+            }
+            for (; rights != null; rights = rights.nextRight) {
+                U u;
+                if ((u = rights.join()) != null) {
+                    result = (result == null) ? u : reducer.apply(result, u);
+                }
+            }
+            return result;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class ReduceToLongTask<K, V> extends BulkTask<K, V, Long> {
+        final ObjectByObjectToLong<? super K, ? super V> transformer;
+        final long basis;
+        final LongByLongToLong reducer;
+        ReduceToLongTask<K, V> nextRight;
+
+        ReduceToLongTask(EntryRange<K, V> range, int batch,
+                         ObjectByObjectToLong<? super K, ? super V> transformer,
+                         long basis, LongByLongToLong reducer) {
+            super(range, batch);
+            this.transformer = transformer;
+            this.basis = basis;
+            this.reducer = reducer;
+        }
+
+        protected Long compute() {
+            ReduceToLongTask<K, V> rights = null;
+            for (EntryRange<K, V> r; (r = split()) != null; ) {
+                ReduceToLongTask<K, V> t = new ReduceToLongTask<K, V>(r, batch, transformer, basis, reducer);
+                t.nextRight = rights;
+                (rights = t).fork();
+            }
+            long result = basis;
+            for (HashEntry<K, V> e; (e = range.advance()) != null; ) {
+                result = reducer.apply(result, transformer.apply(e.key, e.value));
+            }
+            for (; rights != null; rights = rights.nextRight) {
+                result = reducer.apply(result, rights.join());
+            }
+            return result;
+        }
+    }
+
     /* ---------------- Serialization Support -------------- */
     /**
      * Save the state of the <tt>ConcurrentHashMap</tt> instance to a
@@ -1493,10 +4419,24 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
      */
     private void writeObject(java.io.ObjectOutputStream s) throws IOException {
         // force all segments for serialization compatibility
-        for (int k = 0; k < segments.length; ++k)
-            ensureSegment(k);
+        final Segment<K,V>[] ss = this.segments;
+        for (int k = 0; k < ss.length; ++k)
+            ensureSegment(ss, k);
         s.defaultWriteObject();
 
+        if (binLocking) {
+            HashEntry<K, V>[] t = table;
+            int f = (t == null) ? 0 : t.length;
+            BinTraverser<K, V> it = new BinTraverser<K, V>(t, f, 0, f);
+            for (HashEntry<K, V> e; (e = it.advance()) != null; ) {
+                s.writeObject(e.key);
+                s.writeObject(e.value);
+            }
+            s.writeObject(null);
+            s.writeObject(null);
+            return;
+        }
+
         final Segment<K,V>[] segments = this.segments;
         for (int k = 0; k < segments.length; ++k) {
             Segment<K,V> seg = segmentAt(segments, k);
@@ -1543,9 +4483,18 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
         UNSAFE.putIntVolatile(this, SEGSHIFT_OFFSET, 32 - sshift);
         UNSAFE.putIntVolatile(this, SEGMASK_OFFSET, ssize - 1);
         UNSAFE.putObjectVolatile(this, SEGMENTS_OFFSET, oisSegments);
+        // absent from streams written before bin locking mode existed
+        UNSAFE.putBooleanVolatile(this, BINLOCKING_OFFSET, oisFields.get("binLocking", false));
+        // absent from streams written before segment scaling existed
+        int scale = oisFields.get("scaleQueueLength", 0);
+        if (scale < 0 || (scale != 0 && binLocking)) {
+            throw new java.io.InvalidObjectException("Bad scaleQueueLength: " + scale);
+        }
+        UNSAFE.putIntVolatile(this, SCALEQUEUELENGTH_OFFSET, scale);
 
         // set hashMask
         UNSAFE.putIntVolatile(this, HASHSEED_OFFSET, randomHashSeed(this));
+        UNSAFE.putObjectVolatile(this, BASECELL_OFFSET, new CounterCell(0L));
 
         // Re-initialize segments to be minimally sized, and let grow.
         int cap = MIN_SEGMENT_TABLE_CAPACITY;
@@ -1555,6 +4504,8 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
             if (seg != null) {
                 seg.threshold = (int)(cap * seg.loadFactor);
                 seg.table = (HashEntry<K,V>[]) new HashEntry[cap];
+                seg.spinLimit = Segment.MAX_SCAN_RETRIES;
+                seg.splitBit = splitBit(segments.length);
             }
         }
 
@@ -1571,6 +4522,41 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
     // Unsafe mechanics
     private static final sun.misc.Unsafe UNSAFE;
 
+    /**
+     * Returns a sun.misc.Unsafe.  Suitable for use in a 3rd party package.
+     * Replace with a simple call to Unsafe.getUnsafe when integrating
+     * into a jdk.
+     *
+     * @return a sun.misc.Unsafe
+     */
+    static sun.misc.Unsafe getUnsafe() {
+        try {
+            return sun.misc.Unsafe.getUnsafe();
+        } catch (SecurityException tryReflectionInstead) {
+            // 非启动类加载器加载时 getUnsafe 会拒绝，改为反射读取单例字段
+        }
+        try {
+            return java.security.AccessController.doPrivileged
+                    (new java.security.PrivilegedExceptionAction<sun.misc.Unsafe>() {
+                        @Override
+                        public sun.misc.Unsafe run() throws Exception {
+                            Class<sun.misc.Unsafe> k = sun.misc.Unsafe.class;
+                            for (java.lang.reflect.Field f : k.getDeclaredFields()) {
+                                f.setAccessible(true);
+                                Object x = f.get(null);
+                                if (k.isInstance(x)) {
+                                    return k.cast(x);
+                                }
+                            }
+                            throw new NoSuchFieldError("the Unsafe");
+                        }
+                    });
+        } catch (java.security.PrivilegedActionException e) {
+            throw new RuntimeException("Could not initialize intrinsics",
+                    e.getCause());
+        }
+    }
+
     private static final long SBASE;
     private static final long SSHIFT;
     private static final long TBASE;
@@ -1580,11 +4566,19 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
     private static final long SEGSHIFT_OFFSET;
     private static final long SEGMASK_OFFSET;
     private static final long SEGMENTS_OFFSET;
+    private static final long BINLOCKING_OFFSET;
+    private static final long SCALEQUEUELENGTH_OFFSET;
+    private static final long SEGMENTSBUSY_OFFSET;
+    private static final long SIZECTL_OFFSET;
+    private static final long BASECELL_OFFSET;
+    private static final long TRANSFERINDEX_OFFSET;
+    private static final long CELLSBUSY_OFFSET;
+    private static final long CELLVALUE_OFFSET;
 
     static {
         int ts, ss;
         try {
-            UNSAFE = sun.misc.Unsafe.getUnsafe();
+            UNSAFE = getUnsafe();
 
             Class tc = HashEntry[].class;
             Class sc = Segment[].class;
@@ -1595,13 +4589,29 @@ public class CusConcurrentHashMap<K, V> extends CusAbstractMap<K, V>
             ss = UNSAFE.arrayIndexScale(sc);
 
             HASHSEED_OFFSET = UNSAFE.objectFieldOffset(
-                    ConcurrentHashMap.class.getDeclaredField("hashSeed"));
+                    CusConcurrentHashMap.class.getDeclaredField("hashSeed"));
             SEGSHIFT_OFFSET = UNSAFE.objectFieldOffset(
-                    ConcurrentHashMap.class.getDeclaredField("segmentShift"));
+                    CusConcurrentHashMap.class.getDeclaredField("segmentShift"));
             SEGMASK_OFFSET = UNSAFE.objectFieldOffset(
-                    ConcurrentHashMap.class.getDeclaredField("segmentMask"));
+                    CusConcurrentHashMap.class.getDeclaredField("segmentMask"));
             SEGMENTS_OFFSET = UNSAFE.objectFieldOffset(
-                    ConcurrentHashMap.class.getDeclaredField("segments"));
+                    CusConcurrentHashMap.class.getDeclaredField("segments"));
+            BINLOCKING_OFFSET = UNSAFE.objectFieldOffset(
+                    CusConcurrentHashMap.class.getDeclaredField("binLocking"));
+            SCALEQUEUELENGTH_OFFSET = UNSAFE.objectFieldOffset(
+                    CusConcurrentHashMap.class.getDeclaredField("scaleQueueLength"));
+            SEGMENTSBUSY_OFFSET = UNSAFE.objectFieldOffset(
+                    CusConcurrentHashMap.class.getDeclaredField("segmentsBusy"));
+            SIZECTL_OFFSET = UNSAFE.objectFieldOffset(
+                    CusConcurrentHashMap.class.getDeclaredField("sizeCtl"));
+            BASECELL_OFFSET = UNSAFE.objectFieldOffset(
+                    CusConcurrentHashMap.class.getDeclaredField("baseCell"));
+            TRANSFERINDEX_OFFSET = UNSAFE.objectFieldOffset(
+                    CusConcurrentHashMap.class.getDeclaredField("transferIndex"));
+            CELLSBUSY_OFFSET = UNSAFE.objectFieldOffset(
+                    CusConcurrentHashMap.class.getDeclaredField("cellsBusy"));
+            CELLVALUE_OFFSET = UNSAFE.objectFieldOffset(
+                    CounterCell.class.getDeclaredField("value"));
 
         } catch (Exception e) {
             throw new Error(e);
@@ -0,0 +1,307 @@
+package map;
+
+import map.CusConcurrentHashMap.Segment;
+import map.CusConcurrentHashMap.SegmentStats;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Statistics of one {@link CusConcurrentHashMap}, collected while its
+ * statistics mode is on (see {@link CusConcurrentHashMap#enableStats}).
+ * A map without statistics pays one volatile null check per locked
+ * operation.
+ *
+ * <p>The counters are kept per segment and cover
+ * <ul>
+ * <li>lock acquisitions by updating operations;
+ * <li>contended acquisitions, whose first <tt>tryLock</tt> failed, in
+ *     <tt>put</tt> as in the other updates ({@code tryLockFailures}),
+ *     the <tt>tryLock</tt> retries made while scanning for the key
+ *     ({@code scanRetries}), how many of those acquisitions succeeded
+ *     while spinning or blocked, and the total time they waited;
+ * <li>the number and total duration of segment table rehashes.
+ * </ul>
+ * The totals also include the segments that were replaced when the
+ * segments grew; the per-segment arrays follow the current segments.
+ * The skew score tells whether the load is spread over the segments.
+ *
+ * <p>The counters are written by lock holders and read here without
+ * locking, so a reading may be slightly stale.
+ *
+ * <p>分段统计：加锁次数、tryLock 失败、扫描重试、自旋/阻塞、等待耗时、rehash 次数和耗时</p>
+ */
+public class CusConcurrentHashMapStats implements CusConcurrentHashMapStatsMBean {
+
+    // 计数项编号，见 value
+    private static final int ACQUISITIONS = 0;
+    private static final int TRY_LOCK_FAILURES = 1;
+    private static final int SCAN_RETRIES = 2;
+    private static final int SPINS = 3;
+    private static final int PARKS = 4;
+    private static final int LOCK_WAIT_NANOS = 5;
+    private static final int REHASH_COUNT = 6;
+    private static final int REHASH_NANOS = 7;
+
+    private final CusConcurrentHashMap<?, ?> map;
+
+    // 因 segment 扩展而退役的 segment 的累计计数
+    private volatile SegmentStats retired = new SegmentStats();
+
+    private ObjectName objectName;
+
+    CusConcurrentHashMapStats(CusConcurrentHashMap<?, ?> map) {
+        this.map = map;
+    }
+
+    // 累加一个退役 segment 的计数，由扩展线程在持有全部旧 segment 锁时调用
+    final void retire(SegmentStats st) {
+        retired.add(st);
+    }
+
+    @Override
+    public long getSize() {
+        return map.mappingCount();
+    }
+
+    @Override
+    public int getSegmentCount() {
+        return map.segments.length;
+    }
+
+    @Override
+    public long getAcquisitions() {
+        return total(ACQUISITIONS);
+    }
+
+    @Override
+    public long getTryLockFailures() {
+        return total(TRY_LOCK_FAILURES);
+    }
+
+    @Override
+    public long getScanRetries() {
+        return total(SCAN_RETRIES);
+    }
+
+    @Override
+    public long getSpins() {
+        return total(SPINS);
+    }
+
+    @Override
+    public long getParks() {
+        return total(PARKS);
+    }
+
+    @Override
+    public long getLockWaitNanos() {
+        return total(LOCK_WAIT_NANOS);
+    }
+
+    @Override
+    public long getRehashCount() {
+        return total(REHASH_COUNT);
+    }
+
+    @Override
+    public long getRehashNanos() {
+        return total(REHASH_NANOS);
+    }
+
+    @Override
+    public long[] getSegmentAcquisitions() {
+        return perSegment(map, ACQUISITIONS);
+    }
+
+    @Override
+    public long[] getSegmentTryLockFailures() {
+        return perSegment(map, TRY_LOCK_FAILURES);
+    }
+
+    @Override
+    public long[] getSegmentScanRetries() {
+        return perSegment(map, SCAN_RETRIES);
+    }
+
+    @Override
+    public long[] getSegmentSpins() {
+        return perSegment(map, SPINS);
+    }
+
+    @Override
+    public long[] getSegmentParks() {
+        return perSegment(map, PARKS);
+    }
+
+    @Override
+    public long[] getSegmentLockWaitNanos() {
+        return perSegment(map, LOCK_WAIT_NANOS);
+    }
+
+    @Override
+    public long[] getSegmentRehashCounts() {
+        return perSegment(map, REHASH_COUNT);
+    }
+
+    @Override
+    public long[] getSegmentRehashNanos() {
+        return perSegment(map, REHASH_NANOS);
+    }
+
+    /**
+     * Returns the number of entries of each segment; segments not
+     * created yet count 0.
+     */
+    @Override
+    public int[] getSegmentSizes() {
+        return segmentSizes(map);
+    }
+
+    /**
+     * Returns the acquisitions of the busiest segment divided by the
+     * mean over all segments: 1 when the load is spread evenly, up to
+     * the number of segments when a single segment takes it all.  A
+     * high score with few segments points at hot keys or a poor hash.
+     * NaN if no acquisition has been counted yet.
+     */
+    @Override
+    public double getSkew() {
+        long[] a = getSegmentAcquisitions();
+        long max = 0L;
+        long sum = 0L;
+        for (long v : a) {
+            max = Math.max(max, v);
+            sum += v;
+        }
+        return sum == 0L ? Double.NaN : (double) max * a.length / sum;
+    }
+
+    /**
+     * Returns the index of the segment with the most acquisitions, or
+     * -1 if no acquisition has been counted yet.
+     */
+    @Override
+    public int getHottestSegment() {
+        long[] a = getSegmentAcquisitions();
+        int hot = -1;
+        long max = 0L;
+        for (int j = 0; j < a.length; j++) {
+            if (a[j] > max) {
+                max = a[j];
+                hot = j;
+            }
+        }
+        return hot;
+    }
+
+    /**
+     * Sets all counters back to zero.
+     */
+    @Override
+    public void reset() {
+        retired = new SegmentStats();
+        map.resetStats(this);
+    }
+
+    /**
+     * Registers these statistics with the platform MBean server under
+     * {@code map:type=CusConcurrentHashMap,name=<name>}, replacing any
+     * previous registration of this object.
+     *
+     * @return the name the MBean was registered under
+     * @throws JMException if the name is malformed or already in use
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        unregister();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName on = new ObjectName("map:type=CusConcurrentHashMap,name=" + ObjectName.quote(name));
+        server.registerMBean(this, on);
+        objectName = on;
+        return on;
+    }
+
+    /**
+     * Removes the MBean registered by {@link #register}, if any.
+     */
+    public synchronized void unregister() throws JMException {
+        if (objectName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            objectName = null;
+        }
+    }
+
+    // 退役计数加上当前各 segment 的计数
+    private long total(int metric) {
+        long n = value(retired, metric);
+        for (long v : perSegment(map, metric)) {
+            n += v;
+        }
+        return n;
+    }
+
+    // 当前 segment 数组上各 segment 的某项计数；未创建或未计数的 segment 为 0
+    private static <K, V> long[] perSegment(CusConcurrentHashMap<K, V> m, int metric) {
+        Segment<K, V>[] ss = m.segments;
+        long[] a = new long[ss.length];
+        for (int j = 0; j < ss.length; j++) {
+            Segment<K, V> s = CusConcurrentHashMap.segmentAt(ss, j);
+            SegmentStats st;
+            if (s != null && (st = s.stats) != null) {
+                a[j] = value(st, metric);
+            }
+        }
+        return a;
+    }
+
+    private static <K, V> int[] segmentSizes(CusConcurrentHashMap<K, V> m) {
+        Segment<K, V>[] ss = m.segments;
+        int[] a = new int[ss.length];
+        for (int j = 0; j < ss.length; j++) {
+            Segment<K, V> s = CusConcurrentHashMap.segmentAt(ss, j);
+            if (s != null) {
+                a[j] = s.count;
+            }
+        }
+        return a;
+    }
+
+    private static long value(SegmentStats st, int metric) {
+        switch (metric) {
+            case ACQUISITIONS:
+                return st.acquisitions;
+            case TRY_LOCK_FAILURES:
+                return st.tryLockFailures;
+            case SCAN_RETRIES:
+                return st.scanRetries;
+            case SPINS:
+                return st.spins;
+            case PARKS:
+                return st.parks;
+            case LOCK_WAIT_NANOS:
+                return st.lockWaitNanos;
+            case REHASH_COUNT:
+                return st.rehashCount;
+            default:
+                return st.rehashNanos;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CusConcurrentHashMapStats{size=" + getSize()
+                + ", segments=" + getSegmentCount()
+                + ", acquisitions=" + getAcquisitions()
+                + ", tryLockFailures=" + getTryLockFailures()
+                + ", scanRetries=" + getScanRetries()
+                + ", spins=" + getSpins()
+                + ", parks=" + getParks()
+                + ", lockWait=" + getLockWaitNanos() + " ns"
+                + ", rehashes=" + getRehashCount() + " (" + getRehashNanos() + " ns)"
+                + ", skew=" + getSkew()
+                + ", hottestSegment=" + getHottestSegment()
+                + '}';
+    }
+}
@@ -0,0 +1,56 @@
+package map;
+
+/**
+ * Management interface of {@link CusConcurrentHashMapStats}, through which
+ * the statistics of a {@link CusConcurrentHashMap} are published as a JMX
+ * MBean.  The <tt>Segment...</tt> attributes hold one value per segment of
+ * the current segments array.
+ *
+ * <p>JMX 管理接口：通过 MBean 暴露 CusConcurrentHashMap 的分段统计信息</p>
+ */
+public interface CusConcurrentHashMapStatsMBean {
+
+    long getSize();
+
+    int getSegmentCount();
+
+    long getAcquisitions();
+
+    long getTryLockFailures();
+
+    long getScanRetries();
+
+    long getSpins();
+
+    long getParks();
+
+    long getLockWaitNanos();
+
+    long getRehashCount();
+
+    long getRehashNanos();
+
+    long[] getSegmentAcquisitions();
+
+    long[] getSegmentTryLockFailures();
+
+    long[] getSegmentScanRetries();
+
+    long[] getSegmentSpins();
+
+    long[] getSegmentParks();
+
+    long[] getSegmentLockWaitNanos();
+
+    long[] getSegmentRehashCounts();
+
+    long[] getSegmentRehashNanos();
+
+    int[] getSegmentSizes();
+
+    double getSkew();
+
+    int getHottestSegment();
+
+    void reset();
+}
@@ -24,6 +24,24 @@ import java.util.Map;
  */
 public interface CusConcurrentMap<K, V> extends Map<K, V> {
 
+    /**
+     * A function of one argument, as used by {@link #computeIfAbsent}.
+     * On Java 8 and later, where {@code Map} has methods of the same
+     * names taking {@code java.util.function} types, lambdas passed
+     * to these methods must be cast to {@code Fun} or {@code BiFun}.
+     */
+    interface Fun<A, T> {
+        T apply(A a);
+    }
+
+    /**
+     * A function of two arguments, as used by {@link #compute},
+     * {@link #computeIfPresent} and {@link #merge}.
+     */
+    interface BiFun<A, B, T> {
+        T apply(A a, B b);
+    }
+
     /**
      * If the specified key is not already associated
      * with a value, associate it with the given value.
@@ -130,4 +148,99 @@ public interface CusConcurrentMap<K, V> extends Map<K, V> {
      */
     V replace(K key, V value);
 
+    /**
+     * If the specified key is not already associated with a value,
+     * attempts to compute its value using the given mapping function
+     * and enters it into this map unless <tt>null</tt>.  This is
+     * equivalent to
+     * <pre>
+     *   V v = map.get(key);
+     *   if (v == null &amp;&amp; (v = mappingFunction.apply(key)) != null)
+     *       map.put(key, v);
+     *   return v;</pre>
+     * except that the action is performed atomically: the function is
+     * applied at most once per invocation, and never while another
+     * thread is computing or updating the same key, so it is suitable
+     * for memoizing expensive values.  Some attempted updates on this
+     * map by other threads may be blocked while the computation is in
+     * progress, so the computation should be short and simple, and
+     * must not attempt to update any other mappings of this map.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param mappingFunction the function to compute a value
+     * @return the current (existing or computed) value associated with
+     *         the specified key, or null if the computed value is null
+     * @throws NullPointerException if the specified key or
+     *         mappingFunction is null
+     * @throws IllegalStateException if the computation detectably
+     *         attempts a recursive update to this map that would
+     *         otherwise never complete
+     * @throws RuntimeException or Error if the mappingFunction does so,
+     *         in which case the mapping is left unestablished
+     */
+    V computeIfAbsent(K key, Fun<? super K, ? extends V> mappingFunction);
+
+    /**
+     * If the value for the specified key is present, attempts to
+     * compute a new mapping given the key and its current mapped
+     * value.  The entire method invocation is performed atomically;
+     * a <tt>null</tt> result removes the mapping.  The same
+     * restrictions on the function apply as for {@link #computeIfAbsent}.
+     *
+     * @param key key with which a value may be associated
+     * @param remappingFunction the function to compute a value
+     * @return the new value associated with the specified key, or null if none
+     * @throws NullPointerException if the specified key or
+     *         remappingFunction is null
+     * @throws IllegalStateException if the computation detectably
+     *         attempts a recursive update to this map that would
+     *         otherwise never complete
+     * @throws RuntimeException or Error if the remappingFunction does so,
+     *         in which case the mapping is unchanged
+     */
+    V computeIfPresent(K key, BiFun<? super K, ? super V, ? extends V> remappingFunction);
+
+    /**
+     * Attempts to compute a mapping for the specified key and its
+     * current mapped value (or <tt>null</tt> if there is no current
+     * mapping).  The entire method invocation is performed
+     * atomically; a <tt>null</tt> result removes the mapping (or
+     * leaves it absent).  The same restrictions on the function apply
+     * as for {@link #computeIfAbsent}.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param remappingFunction the function to compute a value
+     * @return the new value associated with the specified key, or null if none
+     * @throws NullPointerException if the specified key or
+     *         remappingFunction is null
+     * @throws IllegalStateException if the computation detectably
+     *         attempts a recursive update to this map that would
+     *         otherwise never complete
+     * @throws RuntimeException or Error if the remappingFunction does so,
+     *         in which case the mapping is unchanged
+     */
+    V compute(K key, BiFun<? super K, ? super V, ? extends V> remappingFunction);
+
+    /**
+     * If the specified key is not already associated with a value,
+     * associates it with the given value.  Otherwise, replaces the
+     * value with the result of the given remapping function, or
+     * removes it if the result is <tt>null</tt>.  The entire method
+     * invocation is performed atomically, and the function is only
+     * called when the key was present.
+     *
+     * @param key key with which the specified value is to be associated
+     * @param value the value to use if absent
+     * @param remappingFunction the function to recompute a value if present
+     * @return the new value associated with the specified key, or null if none
+     * @throws NullPointerException if the specified key, value or
+     *         remappingFunction is null
+     * @throws IllegalStateException if the computation detectably
+     *         attempts a recursive update to this map that would
+     *         otherwise never complete
+     * @throws RuntimeException or Error if the remappingFunction does so,
+     *         in which case the mapping is unchanged
+     */
+    V merge(K key, V value, BiFun<? super V, ? super V, ? extends V> remappingFunction);
+
 }
@@ -1,8 +1,16 @@
 package map;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InvalidObjectException;
 import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
 import java.util.Map.Entry;
 
@@ -16,12 +24,149 @@ public class CusHashMap<K, V>
 
     static final float DEFAULT_LOAD_FACTOR = 0.75f;
 
+    /**
+     * The bin count threshold for using a tree rather than list for a
+     * bin.  Bins are converted to trees when adding an element to a
+     * bin with at least this many nodes. The value must be greater
+     * than 2 and should be at least 8 to mesh with assumptions in
+     * tree removal about conversion back to plain bins upon
+     * shrinkage.
+     *
+     * <p>链表长度达到该值时，转换为红黑树</p>
+     */
+    static final int TREEIFY_THRESHOLD = 8;
+
+    /**
+     * The bin count threshold for untreeifying a (split) bin during a
+     * resize operation. Should be less than TREEIFY_THRESHOLD, and at
+     * most 6 to mesh with shrinkage detection under removal.
+     *
+     * <p>扩容拆分后，树节点数量不大于该值时，退化为链表</p>
+     */
+    static final int UNTREEIFY_THRESHOLD = 6;
+
+    /**
+     * The smallest table capacity for which bins may be treeified.
+     * (Otherwise the table is resized if too many nodes in a bin.)
+     * Should be at least 4 * TREEIFY_THRESHOLD to avoid conflicts
+     * between resizing and treeification thresholds.
+     *
+     * <p>table 长度小于该值时，优先扩容而不是树化</p>
+     */
+    static final int MIN_TREEIFY_CAPACITY = 64;
+
+    /**
+     * The default threshold of map capacity above which alternative hashing is
+     * used for String keys. Alternative hashing reduces the incidence of
+     * collisions due to weak hash code calculation for String keys.
+     * <p/>
+     * This value may be overridden by defining the system property
+     * {@code jdk.map.althashing.threshold}. A property value of {@code 1}
+     * forces alternative hashing to be used at all times whereas
+     * {@code -1} value ensures that alternative hashing is never used.
+     *
+     * <p>容量达到该阈值后，String 类型的 key 改用随机种子的替代哈希，防御哈希碰撞攻击</p>
+     */
+    static final int ALTERNATIVE_HASHING_THRESHOLD_DEFAULT = Integer.MAX_VALUE;
+
+    /**
+     * The number of old-table buckets migrated by each insertion while an
+     * incremental resize is in progress.  A doubling leaves
+     * {@code oldCapacity * loadFactor} insertions before the next resize,
+     * which with the default load factor is plenty to drain the old table;
+     * a migration still pending at the next resize is finished there.
+     *
+     * <p>渐进式扩容时，每次插入顺带迁移的旧桶数量</p>
+     */
+    static final int INCREMENTAL_RESIZE_STEP = 16;
+
+    /**
+     * holds values which can't be initialized until after VM is booted.
+     */
+    private static class Holder {
+
+        /**
+         * Table capacity above which to switch to use alternative hashing.
+         */
+        static final int ALTERNATIVE_HASHING_THRESHOLD;
+
+        static {
+            String altThreshold = java.security.AccessController.doPrivileged(
+                    new sun.security.action.GetPropertyAction(
+                            "jdk.map.althashing.threshold"));
+
+            int threshold;
+            try {
+                threshold = (null != altThreshold)
+                        ? Integer.parseInt(altThreshold)
+                        : ALTERNATIVE_HASHING_THRESHOLD_DEFAULT;
+
+                // disable alternative hashing if -1
+                if (threshold == -1) {
+                    threshold = Integer.MAX_VALUE;
+                }
+
+                if (threshold < 0) {
+                    throw new IllegalArgumentException("value must be positive integer.");
+                }
+            } catch (IllegalArgumentException failed) {
+                throw new Error("Illegal value for 'jdk.map.althashing.threshold'", failed);
+            }
+
+            ALTERNATIVE_HASHING_THRESHOLD = threshold;
+        }
+    }
+
     // 所有空 Map 之间，共享一个空数组
     static final Entry<?, ?>[] EMPTY_TABLE = {};
 
     // 哈希表数组，长度必须为 2 的次幂，需要时会进行扩容
     transient Entry<K, V>[] table = (Entry<K, V>[]) EMPTY_TABLE;
 
+    /**
+     * All entries packed into the slots [0, size), in no particular order.
+     * Each entry records its slot in {@link Entry#denseIndex}; a removal
+     * moves the last entry into the freed slot.  Iteration, containsValue
+     * and writeObject walk this array, so their cost is proportional to
+     * size rather than to the capacity of {@link #table}.
+     *
+     * <p>紧凑的 entry 数组，遍历不再扫描稀疏的哈希表</p>
+     */
+    transient Entry<K, V>[] dense = (Entry<K, V>[]) EMPTY_TABLE;
+
+    /**
+     * The table being drained by an incremental resize, or null.  While it
+     * is set, each old bucket is either still intact here or has been moved
+     * as a whole into {@link #table}; an emptied bucket is nulled out.
+     *
+     * <p>渐进式扩容中的旧表：某个旧桶要么完整保留在这里，要么已整体迁移到新表</p>
+     */
+    transient Entry<K, V>[] oldTable;
+
+    // 旧表中下一个待顺序迁移的桶下标
+    transient int transferIndex;
+
+    /**
+     * If true, growing the table allocates the new table but moves only
+     * a bounded number of buckets per later insertion instead of all of
+     * them at once.
+     *
+     * @serial
+     */
+    final boolean incrementalResize;
+
+    /**
+     * The load below which a removal halves the table, or 0 if the table
+     * never shrinks by itself.  It is at most a quarter of the load factor,
+     * so a halved table is at most half full and the grow and shrink
+     * thresholds never meet.
+     *
+     * @serial
+     */
+    final float shrinkLoadFactor;
+
+    // 缩容阈值：size 低于该值时删除操作会将容量减半，为 capacity * shrinkLoadFactor
+    transient int shrinkThreshold;
 
     /**
      * The number of key-value mappings contained in this map.
@@ -46,7 +191,32 @@ public class CusHashMap<K, V>
      */
     transient int hashSeed = 0;
 
-    public CusHashMap(int initialCapacity, float loadFactor) {
+    /**
+     * The statistics collected while statistics mode is on, otherwise null.
+     */
+    transient CusHashMapStats stats;
+
+    /**
+     * Constructs an empty map with the specified initial capacity, load
+     * factor, resize mode and low-water mark.
+     *
+     * @param incrementalResize if true, the table grows incrementally:
+     *                          a resize only allocates the larger table
+     *                          and later insertions each migrate
+     *                          {@value #INCREMENTAL_RESIZE_STEP} buckets,
+     *                          which bounds the latency of every put at
+     *                          the cost of checking both tables on lookups
+     *                          while a migration is pending
+     * @param shrinkLoadFactor  once a removal leaves fewer than
+     *                          {@code capacity * shrinkLoadFactor} mappings
+     *                          the table is halved, down to
+     *                          {@value #DEFAULT_INITIAL_CAPACITY} buckets;
+     *                          0 disables automatic shrinking
+     * @throws IllegalArgumentException if shrinkLoadFactor is negative or
+     *                                  greater than {@code loadFactor / 4}
+     */
+    public CusHashMap(int initialCapacity, float loadFactor, boolean incrementalResize,
+                      float shrinkLoadFactor) {
         if (initialCapacity < 0) {
             throw new IllegalArgumentException("Illegal initial capacity: " +
                     initialCapacity);
@@ -61,11 +231,27 @@ public class CusHashMap<K, V>
                     loadFactor);
         }
 
+        // 低水位不超过 loadFactor / 4，缩容后负载至多为 loadFactor / 2，避免扩容、缩容来回抖动
+        if (shrinkLoadFactor < 0 || shrinkLoadFactor > loadFactor / 4 || Float.isNaN(shrinkLoadFactor)) {
+            throw new IllegalArgumentException("Illegal shrink load factor: " +
+                    shrinkLoadFactor);
+        }
+
         this.loadFactor = loadFactor;
+        this.incrementalResize = incrementalResize;
+        this.shrinkLoadFactor = shrinkLoadFactor;
         threshold = initialCapacity;
         init();
     }
 
+    public CusHashMap(int initialCapacity, float loadFactor, boolean incrementalResize) {
+        this(initialCapacity, loadFactor, incrementalResize, 0);
+    }
+
+    public CusHashMap(int initialCapacity, float loadFactor) {
+        this(initialCapacity, loadFactor, false);
+    }
+
     public CusHashMap(int initialCapacity) {
         this(initialCapacity, DEFAULT_LOAD_FACTOR);
     }
@@ -88,7 +274,7 @@ public class CusHashMap<K, V>
 
     }
 
-    private static int roundUpToPowerOf2(int number) {
+    static int roundUpToPowerOf2(int number) {
         // assert number >= 0 : "number must be non-negative";
         // 假设 number >= 0, number 必须为非负数
 
@@ -108,10 +294,11 @@ public class CusHashMap<K, V>
 
         // 容量为 MAXIMUM_CAPACITY 时候，threshold 直接 + 1，大于容量，意为永远不需要再扩容
         threshold = (int) Math.min(capacity * loadFactor, MAXIMUM_CAPACITY + 1);
+        shrinkThreshold = (int) (capacity * shrinkLoadFactor);
         table = new Entry[capacity];
 
-        // todo initHashSeedAsNeeded
-
+        // 根据容量决定是否启用替代哈希
+        initHashSeedAsNeeded(capacity);
     }
 
     /**
@@ -130,10 +317,18 @@ public class CusHashMap<K, V>
      * really need it.
      */
     final boolean initHashSeedAsNeeded(int capacity) {
-
-        // todo rehash
-
-        return false;
+        boolean currentAltHashing = hashSeed != 0;
+        boolean useAltHashing = sun.misc.VM.isBooted() &&
+                (capacity >= Holder.ALTERNATIVE_HASHING_THRESHOLD);
+
+        // 状态发生切换（开启 <-> 关闭）时，才需要重新计算 hash
+        boolean switching = currentAltHashing ^ useAltHashing;
+        if (switching) {
+            hashSeed = useAltHashing
+                    ? sun.misc.Hashing.randomHashSeed(this)
+                    : 0;
+        }
+        return switching;
     }
 
 
@@ -161,7 +356,7 @@ public class CusHashMap<K, V>
 
     // 指定 hash，数组长度，返回 存放 index
     // & 操作实现取模：length 长度必须为 2 的次幂
-    private int indexFor(int h, int length) {
+    static int indexFor(int h, int length) {
         // assert Integer.bitCount(length) == 1 : "length must be a non-zero power of 2";
         return h & (length - 1);
     }
@@ -182,6 +377,11 @@ public class CusHashMap<K, V>
 
     @Override
     public V get(Object key) {
+        if (stats != null) {
+            Entry<K, V> entry = getEntryCounted(key);
+            return entry == null ? null : entry.value;
+        }
+
         if (key == null) {
             return getForNullKey();
         }
@@ -201,12 +401,8 @@ public class CusHashMap<K, V>
         if (size == 0) {
             return null;
         }
-        for (Entry<K, V> e = table[0]; e != null; e = e.next) {
-            if (e.key == null) {
-                return e.value;
-            }
-        }
-        return null;
+        Entry<K, V> e = findEntry(0, null);
+        return e == null ? null : e.value;
     }
 
     /**
@@ -227,14 +423,72 @@ public class CusHashMap<K, V>
      * HashMap.  Returns null if the HashMap contains no mapping
      * for the key.
      */
-    private Entry<K, V> getEntry(Object key) {
+    final Entry<K, V> getEntry(Object key) {
         if (size == 0) {
             return null;
         }
 
         int hash = key == null ? 0 : hash(key);
-        int i = indexFor(hash, table.length);
-        for (Entry<K, V> e = table[i]; e != null; e = e.next) {
+        return findEntry(hash, key);
+    }
+
+    /**
+     * Like getEntry, but records the lookup in the statistics.
+     */
+    final Entry<K, V> getEntryCounted(Object key) {
+        if (size == 0) {
+            stats.recordGet(false, 0);
+            return null;
+        }
+
+        int hash = key == null ? 0 : hash(key);
+        Entry<K, V>[] tab = tableFor(hash);
+        Entry<K, V> first = tab[indexFor(hash, tab.length)];
+        if (first instanceof TreeNode) {
+            Entry<K, V> e = ((TreeNode<K, V>) first).getTreeNode(hash, key);
+            stats.recordTreeGet(e != null);
+            return e;
+        }
+
+        int probes = 0;
+        for (Entry<K, V> e = first; e != null; e = e.next) {
+            probes++;
+            Object k;
+            if (e.hash == hash &&
+                    ((k = e.key) == key || (key != null && key.equals(k)))) {
+                stats.recordGet(true, probes);
+                return e;
+            }
+        }
+        stats.recordGet(false, probes);
+        return null;
+    }
+
+    /**
+     * Returns the table currently holding the bucket for the given hash:
+     * the old table while an incremental resize has not yet migrated that
+     * bucket, otherwise the current table.
+     */
+    final Entry<K, V>[] tableFor(int hash) {
+        Entry<K, V>[] old = oldTable;
+        if (old != null && old[indexFor(hash, old.length)] != null) {
+            return old;
+        }
+        return table;
+    }
+
+    /**
+     * Looks up the entry for key in its bucket, searching the
+     * red-black tree when the bin has been treeified and walking the
+     * list otherwise.
+     */
+    final Entry<K, V> findEntry(int hash, Object key) {
+        Entry<K, V>[] tab = tableFor(hash);
+        Entry<K, V> first = tab[indexFor(hash, tab.length)];
+        if (first instanceof TreeNode) {
+            return ((TreeNode<K, V>) first).getTreeNode(hash, key);
+        }
+        for (Entry<K, V> e = first; e != null; e = e.next) {
             Object k;
             if (e.hash == hash &&
                     ((k = e.key) == key || (key != null && key.equals(k)))) {
@@ -271,20 +525,17 @@ public class CusHashMap<K, V>
 
         // 3. 查找已存在数据
         int hash = hash(key);
-        int i = indexFor(hash, table.length);
 
-        for (Entry<K, V> e = table[i]; e != null; e = e.next) {
-            Object k;
-            if (e.hash == hash && ((k = e.key) == key || key.equals(k))) {
-                V oldValue = e.value;
-                e.value = value;
-                e.recordAccess(this);
-                return oldValue;
-            }
+        Entry<K, V> e = findEntry(hash, key);
+        if (e != null) {
+            V oldValue = e.value;
+            e.value = value;
+            e.recordAccess(this);
+            return oldValue;
         }
 
         modCount++;
-        addEntry(hash, key, value, i);
+        addEntry(hash, key, value, indexFor(hash, table.length));
         return null;
     }
 
@@ -292,16 +543,15 @@ public class CusHashMap<K, V>
      * Offloaded version of put for null keys
      */
     private V putForNullKey(V value) {
-        // 1. 遍历链表, 寻找是否存在旧值
-        for (Entry<K, V> e = table[0]; e != null; e = e.next) {
-            if (e.key == null) {
-                // 找到已经存在 key 为 null，替换
-                // 没有对结构造成修改，可直接返回 oldValue
-                V oldValue = e.value;
-                e.setValue(value);
-                e.recordAccess(this);
-                return oldValue;
-            }
+        // 1. 遍历链表（或红黑树）, 寻找是否存在旧值
+        Entry<K, V> e = findEntry(0, null);
+        if (e != null) {
+            // 找到已经存在 key 为 null，替换
+            // 没有对结构造成修改，可直接返回 oldValue
+            V oldValue = e.value;
+            e.setValue(value);
+            e.recordAccess(this);
+            return oldValue;
         }
 
         // 2.不存在旧值，先更新修改次数
@@ -318,10 +568,14 @@ public class CusHashMap<K, V>
      * This method is used instead of put by constructors and
      * pseudoconstructors (clone, readObject).  It does not resize the table,
      * check for comodification, etc.  It calls createEntry rather than
-     * addEntry.
+     * addEntry.  A resize started by treeifyBin, from createEntry, is
+     * completed here, as entries are only linked into the current table.
      */
     private void putForCreate(K key, V value) {
-        // 直接put，无需扩容
+        // 直接put，无需扩容；createEntry 经 treeifyBin 触发的渐进式扩容需先迁移完
+        if (oldTable != null) {
+            finishTransfer();
+        }
 
         // 1. hash, index 计算
         int hash = key == null ? 0 : hash(key);
@@ -333,13 +587,10 @@ public class CusHashMap<K, V>
          * input Map is a sorted map whose ordering is inconsistent w/ equals.
          */
         // 2. 寻找是否已存在，存在则替换
-        for (Entry<K, V> e = table[i]; e != null; e = e.next) {
-            Object k;
-            if (e.hash == hash &&
-                    ((k = e.key) == key || (key != null && key.equals(k)))) {
-                e.value = value;
-                return;
-            }
+        Entry<K, V> e = findEntry(hash, key);
+        if (e != null) {
+            e.value = value;
+            return;
         }
 
         // 3.无需判断扩容，则直接 create
@@ -373,8 +624,12 @@ public class CusHashMap<K, V>
      *                    is irrelevant).
      */
     private void resize(int newCapacity) {
-        Entry[] oldTable = table;
-        int oldCapacity = oldTable.length;
+        // 0. 上一次渐进式扩容尚未完成，先一次性迁移完
+        if (oldTable != null) {
+            finishTransfer();
+        }
+
+        int oldCapacity = table.length;
 
         // 1. 容量达到最大，不再进行扩容，以后再不再进入 resize 方法
         if (oldCapacity == MAXIMUM_CAPACITY) {
@@ -383,33 +638,212 @@ public class CusHashMap<K, V>
         }
 
         // 2. 实际扩容并转移数据
+        long start = stats != null ? System.nanoTime() : 0L;
         Entry[] newTable = new Entry[newCapacity];
-        transfer(newTable, initHashSeedAsNeeded(newCapacity));
+        boolean rehash = initHashSeedAsNeeded(newCapacity);
+        if (incrementalResize && !rehash) {
+            // 渐进式：只分配新表，旧桶在后续插入时逐步迁移
+            // hashSeed 变化时所有 hash 都要重算，仍然一次性转移
+            oldTable = table;
+            transferIndex = 0;
+        } else {
+            transfer(newTable, rehash);
+        }
         table = newTable;
 
         // 3. 扩容后再次进行容量判断
         threshold = (int) Math.min(newCapacity * loadFactor, MAXIMUM_CAPACITY + 1);
+        shrinkThreshold = (int) (newCapacity * shrinkLoadFactor);
+
+        if (stats != null) {
+            stats.resizeCount++;
+            stats.resizeNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Rehashes the contents of this map into a smaller array.  Buckets of
+     * the old table merge pairwise, so the move is always done in one go,
+     * even in incremental resize mode.
+     *
+     * <p> 缩容：多个旧桶合并到同一个新桶，红黑树先退化为链表，转移后再按长度重新树化 <p/>
+     *
+     * @param newCapacity the new capacity, MUST be a power of two smaller
+     *                    than the current capacity
+     */
+    private void shrink(int newCapacity) {
+        if (oldTable != null) {
+            finishTransfer();
+        }
+
+        long start = stats != null ? System.nanoTime() : 0L;
+        Entry[] newTable = new Entry[newCapacity];
+        transfer(newTable, initHashSeedAsNeeded(newCapacity));
+        table = newTable;
+
+        // dense 数组同样归还多余空间
+        if (dense.length > DEFAULT_INITIAL_CAPACITY && dense.length > size << 1) {
+            dense = Arrays.copyOf(dense, Math.max(size, DEFAULT_INITIAL_CAPACITY));
+        }
+
+        threshold = (int) Math.min(newCapacity * loadFactor, MAXIMUM_CAPACITY + 1);
+        shrinkThreshold = (int) (newCapacity * shrinkLoadFactor);
+
+        if (stats != null) {
+            stats.shrinkCount++;
+            stats.shrinkNanos += System.nanoTime() - start;
+        }
+    }
+
+    // 删除后 size 低于低水位时容量减半，最小不低于 DEFAULT_INITIAL_CAPACITY
+    // 迭代器删除不触发缩容，积累下来的可能需要连续减半多次，一次转移完成
+    private void shrinkIfNeeded() {
+        if (size < shrinkThreshold && table.length > DEFAULT_INITIAL_CAPACITY) {
+            int newCapacity = table.length >>> 1;
+            while (newCapacity > DEFAULT_INITIAL_CAPACITY && size < (int) (newCapacity * shrinkLoadFactor)) {
+                newCapacity >>>= 1;
+            }
+            shrink(newCapacity);
+        }
+    }
+
+    /**
+     * Shrinks the table to the smallest capacity that holds the current
+     * mappings within the load factor, so that a map which has shrunk
+     * after a burst of insertions gives the memory of its table back.
+     * Like shrinking on removal, never goes below the default initial
+     * capacity.  Does nothing if the table is already that small.
+     *
+     * <p> 按当前 size 将容量收缩到满足负载因子的最小 2 的幂次方，不低于 DEFAULT_INITIAL_CAPACITY <p/>
+     */
+    public void trimToSize() {
+        if (table == EMPTY_TABLE) {
+            return;
+        }
+
+        int capacity = Math.max(DEFAULT_INITIAL_CAPACITY,
+                roundUpToPowerOf2((int) Math.min(size / loadFactor + 1, MAXIMUM_CAPACITY)));
+        if (capacity < table.length) {
+            modCount++;
+            shrink(capacity);
+        }
+        if (dense.length > size) {
+            dense = Arrays.copyOf(dense, size);
+        }
     }
 
     // 将所有数据从老数组转移到新数组中
+    // rehash 为 true 时，hashSeed 已变化，需要重新计算每个 entry 的 hash
     private void transfer(Entry[] newTable, boolean rehash) {
+        long start = stats != null ? System.nanoTime() : 0L;
 
         int newCapacity = newTable.length;
-        for (Entry<K, V> e : table) {
-            while (e != null) {
-                Entry<K, V> next = e.next;
-
-                // todo rehash判断
-                if (rehash) {
+        Entry<K, V>[] src = table;
+        for (int j = 0; j < src.length; j++) {
+            transferBucket(src, j, newTable, rehash);
+        }
 
+        // rehash 或缩容后重新检查链表长度，过长的桶重新树化
+        if ((rehash || newCapacity < src.length) && newCapacity >= MIN_TREEIFY_CAPACITY) {
+            for (int i = 0; i < newCapacity; i++) {
+                int binCount = 0;
+                for (Entry<K, V> e = newTable[i]; e != null && binCount < TREEIFY_THRESHOLD; e = e.next) {
+                    binCount++;
+                }
+                if (binCount >= TREEIFY_THRESHOLD) {
+                    treeifyBin(newTable, i);
                 }
-                int i = indexFor(e.hash, newCapacity);
-                e.next = newTable[i];
-                newTable[i] = e;
+            }
+        }
+
+        if (stats != null) {
+            stats.transferCount++;
+            stats.transferNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Moves every entry of bucket j of src into dest, leaving src[j] empty.
+     */
+    private void transferBucket(Entry<K, V>[] src, int j, Entry<K, V>[] dest, boolean rehash) {
+        Entry<K, V> e = src[j];
+        src[j] = null;
+
+        if (e instanceof TreeNode) {
+            if (!rehash && dest.length > src.length) {
+                // 树节点：按新下标拆分，再根据拆分后的长度决定树化或退化
+                ((TreeNode<K, V>) e).split(this, dest, j, src.length);
+                return;
+            }
+            // hash 改变后节点去向不再局限于 j + k * oldCapacity，缩容时多个桶会合并，
+            // 均先退化为链表统一转移
+            e = ((TreeNode<K, V>) e).untreeify(this);
+        }
+
+        int newCapacity = dest.length;
+        while (e != null) {
+            Entry<K, V> next = e.next;
+
+            if (rehash) {
+                e.hash = null == e.key ? 0 : hash(e.key);
+            }
+            int i = indexFor(e.hash, newCapacity);
+            e.next = dest[i];
+            dest[i] = e;
+
+            e = next;
+        }
+    }
+
+    /**
+     * One step of an incremental resize: migrates the old bucket that
+     * hash maps to, so that an entry about to be added for it can go
+     * straight into the new table, then migrates up to
+     * INCREMENTAL_RESIZE_STEP further buckets in index order.
+     */
+    private void transferStep(int hash) {
+        long start = stats != null ? System.nanoTime() : 0L;
+        Entry<K, V>[] old = oldTable;
+
+        int j = indexFor(hash, old.length);
+        if (old[j] != null) {
+            transferBucket(old, j, table, false);
+        }
+
+        for (int n = 0; n < INCREMENTAL_RESIZE_STEP && transferIndex < old.length; n++) {
+            int i = transferIndex++;
+            if (old[i] != null) {
+                transferBucket(old, i, table, false);
+            }
+        }
+
+        if (transferIndex == old.length) {
+            oldTable = null;
+        }
+
+        if (stats != null) {
+            stats.transferStepCount++;
+            stats.transferStepNanos += System.nanoTime() - start;
+        }
+    }
 
-                e = next;
+    /**
+     * Completes a pending incremental resize in one go.
+     */
+    private void finishTransfer() {
+        long start = stats != null ? System.nanoTime() : 0L;
+        Entry<K, V>[] old = oldTable;
+        for (int j = transferIndex; j < old.length; j++) {
+            if (old[j] != null) {
+                transferBucket(old, j, table, false);
             }
         }
+        oldTable = null;
+
+        if (stats != null) {
+            stats.transferStepCount++;
+            stats.transferStepNanos += System.nanoTime() - start;
+        }
     }
 
     /**
@@ -489,16 +923,44 @@ public class CusHashMap<K, V>
      * in the HashMap.  Returns null if the HashMap contains no mapping
      * for this key.
      */
-    private Entry<K, V> removeEntryForKey(Object key) {
+    final Entry<K, V> removeEntryForKey(Object key) {
+        Entry<K, V> e = removeEntryForKey(key, true);
+        if (e != null) {
+            shrinkIfNeeded();
+        }
+        return e;
+    }
+
+    /**
+     * Implements removeEntryForKey.  If movable is false, tree bins are
+     * neither restructured into lists nor have their root moved to the
+     * front of the bin, so that an iterator positioned on the bin keeps
+     * walking live nodes.
+     */
+    final Entry<K, V> removeEntryForKey(Object key, boolean movable) {
         if (size == 0) {
             return null;
         }
 
-        int hash = key == null ? null : hash(key);
-        int i = indexFor(hash, table.length);
+        int hash = key == null ? 0 : hash(key);
+        Entry<K, V>[] tab = tableFor(hash);
+        int i = indexFor(hash, tab.length);
+
+        Entry<K, V> prev = tab[i];
+        Entry<K, V> e = tab[i];
 
-        Entry<K, V> prev = table[i];
-        Entry<K, V> e = table[i];
+        // 红黑树：树内查找并删除
+        if (e instanceof TreeNode) {
+            TreeNode<K, V> node = ((TreeNode<K, V>) e).getTreeNode(hash, key);
+            if (node != null) {
+                modCount++;
+                size--;
+                node.removeTreeNode(this, tab, movable);
+                removeDense(node);
+                node.recordRemoval(this);
+            }
+            return node;
+        }
 
         while (e != null) {
             Entry<K, V> next = e.next;
@@ -510,11 +972,12 @@ public class CusHashMap<K, V>
                 size--;
 
                 if (prev == e) {
-                    table[i] = next;
+                    tab[i] = next;
                 } else {
                     prev.next = next;
                 }
 
+                removeDense(e);
                 e.recordRemoval(this);
                 return e;
             }
@@ -531,7 +994,7 @@ public class CusHashMap<K, V>
      * for matching.
      */
     final Entry<K, V> removeMapping(Object o) {
-        if (size == 0 || !(o instanceof Map)) {
+        if (size == 0 || !(o instanceof Map.Entry)) {
             return null;
         }
 
@@ -539,11 +1002,27 @@ public class CusHashMap<K, V>
         K key = entry.getKey();
 
         int hash = key == null ? 0 : hash(key);
-        int i = indexFor(hash, table.length);
+        Entry<K, V>[] tab = tableFor(hash);
+        int i = indexFor(hash, tab.length);
 
-        Entry<K, V> prev = table[i];
+        Entry<K, V> prev = tab[i];
         Entry<K, V> e = prev;
 
+        // 红黑树：按 key 定位，再比较 value
+        if (e instanceof TreeNode) {
+            TreeNode<K, V> node = ((TreeNode<K, V>) e).getTreeNode(hash, key);
+            if (node == null || !node.equals(entry)) {
+                return null;
+            }
+            modCount++;
+            size--;
+            node.removeTreeNode(this, tab, true);
+            removeDense(node);
+            node.recordRemoval(this);
+            shrinkIfNeeded();
+            return node;
+        }
+
         while (e != null) {
             Entry<K, V> next = e.next;
 
@@ -556,12 +1035,14 @@ public class CusHashMap<K, V>
                 size--;
 
                 if (prev == e){
-                    table[i] = next;
+                    tab[i] = next;
                 }else {
                     prev.next = next;
                 }
 
+                removeDense(e);
                 e.recordRemoval(this);
+                shrinkIfNeeded();
 
                 return e;
             }
@@ -580,7 +1061,15 @@ public class CusHashMap<K, V>
     @Override
     public void clear() {
         modCount++;
-        Arrays.fill(table, null);
+        // 开启自动缩容时，直接换回初始大小的表
+        if (shrinkLoadFactor > 0 && table.length > DEFAULT_INITIAL_CAPACITY) {
+            inflateTable(DEFAULT_INITIAL_CAPACITY);
+            dense = (Entry<K, V>[]) EMPTY_TABLE;
+        } else {
+            Arrays.fill(table, null);
+            Arrays.fill(dense, 0, size, null);
+        }
+        oldTable = null;
         size = 0;
     }
 
@@ -594,16 +1083,15 @@ public class CusHashMap<K, V>
      */
     @Override
     public boolean containsValue(Object value) {
+        // 遍历紧凑的 dense 数组，与容量无关
+        Entry<K, V>[] d = dense;
         if (value == null) {
-            return containsNullValue();
+            return containsNullValue(d);
         }
 
-        Entry<K, V>[] tab = table;
-        for (int i = 0; i < tab.length; i++) {
-            for (Entry<K, V> e = tab[i]; e != null; e = e.next) {
-                if (value.equals(e.value)){
-                    return true;
-                }
+        for (int i = 0; i < size; i++) {
+            if (value.equals(d[i].value)){
+                return true;
             }
         }
 
@@ -613,15 +1101,11 @@ public class CusHashMap<K, V>
     /**
      * Special-case code for containsValue with null argument
      */
-    private boolean containsNullValue() {
+    private boolean containsNullValue(Entry<K, V>[] d) {
 
-        Entry<K, V>[] tab = this.table;
-
-        for (int i = 0; i < tab.length; i++) {
-            for(Entry<K, V> e = tab[i]; e != null; e = e.next){
-                if (e.value == null){
-                    return true;
-                }
+        for (int i = 0; i < size; i++) {
+            if (d[i].value == null){
+                return true;
             }
         }
 
@@ -641,6 +1125,9 @@ public class CusHashMap<K, V>
         } catch (CloneNotSupportedException e) {
             // assert false;
         }
+        result.oldTable = null;
+        result.stats = null;
+        result.dense = (Entry<K, V>[]) EMPTY_TABLE;
         if (result.table != EMPTY_TABLE) {
             result.inflateTable(Math.min(
                     (int) Math.min(
@@ -664,6 +1151,7 @@ public class CusHashMap<K, V>
         V value;
         Entry<K, V> next;
         int hash;
+        int denseIndex;     // slot in the map's dense array
 
         public Entry(int h, K k, V v, Entry<K, V> n) {
             this.key = k;
@@ -745,7 +1233,12 @@ public class CusHashMap<K, V>
      */
     // 添加实际 entry 对象
     // 同时判断是否需要扩容
-    private void addEntry(int hash, K key, V value, int bucketIndex) {
+    void addEntry(int hash, K key, V value, int bucketIndex) {
+        // 0. 渐进式扩容进行中：先迁移该 key 所在的旧桶，再顺带迁移一批
+        if (oldTable != null) {
+            transferStep(hash);
+        }
+
         // 1. 扩容判断
         // 1.1 容量大小达到； 1.2 table[index]!=null, 哈希表不平衡
         if ((size >= threshold) && table[bucketIndex] != null) {
@@ -756,6 +1249,9 @@ public class CusHashMap<K, V>
             hash = key == null ? 0 : hash(key);
             bucketIndex = indexFor(hash, table.length);
 
+            if (oldTable != null) {
+                transferStep(hash);
+            }
         }
 
         createEntry(hash, key, value, bucketIndex);
@@ -769,57 +1265,799 @@ public class CusHashMap<K, V>
      * Subclass overrides this to alter the behavior of HashMap(Map),
      * clone, and readObject.
      */
-    private void createEntry(int hash, K key, V value, int bucketIndex) {
-        // 1. 头插法
+    void createEntry(int hash, K key, V value, int bucketIndex) {
         Entry<K, V> e = table[bucketIndex];
-        table[bucketIndex] = new Entry<>(hash, key, value, e);
-
-        // 2. 添加完成后 size++
-        size++;
-    }
 
+        // 1. 已树化的桶，插入红黑树（新节点在 putTreeVal 中加入 dense）
+        if (e instanceof TreeNode) {
+            ((TreeNode<K, V>) e).putTreeVal(this, table, hash, key, value);
+            size++;
+            return;
+        }
 
-    private abstract class HashIterator<E> implements Iterator<E>{
+        // 2. 头插法
+        Entry<K, V> added = newEntry(hash, key, value, e);
+        table[bucketIndex] = added;
+        addDense(added);
 
-        Entry<K,V> next;        // next entry to return
-        int expectedModCount;   // For fast-fail
-        int index;              // current slot
-        Entry<K,V> current;     // current entry
+        // 3. 添加完成后 size++
+        size++;
 
-        HashIterator(){
-            expectedModCount = modCount;
-            if (size > 0) {
-                Entry[] t = table;
-                while (index < t.length && (next = t[index++]) == null)
-                    ;
-            }
+        // 4. 原链表长度达到 TREEIFY_THRESHOLD，树化（或扩容）
+        int binCount = 0;
+        for (; e != null && binCount < TREEIFY_THRESHOLD; e = e.next) {
+            binCount++;
         }
-
-        @Override
-        public boolean hasNext() {
-            return next != null;
+        if (binCount >= TREEIFY_THRESHOLD) {
+            treeifyBin(table, bucketIndex);
         }
+    }
 
-        final Entry<K, V> nextEntry(){
-            if (modCount != expectedModCount) {
-                throw new ConcurrentModificationException();
-            }
-            Entry<K, V> e = next;
-            if (e == null){
-                throw new NoSuchElementException();
-            }
+    /**
+     * Replaces all linked nodes in bin at given index unless table is
+     * too small, in which case resizes instead.
+     */
+    final void treeifyBin(Entry<K, V>[] tab, int index) {
+        if (tab.length < MIN_TREEIFY_CAPACITY) {
+            // 表太小时，冲突多半来自容量不足，扩容即可
+            resize(tab.length * 2);
+            return;
+        }
 
-            if ((next = e.next) == null){
-                Entry[] t = table;
-                while (index < t.length && (next = t[index++]) == null)
-                    ;
+        TreeNode<K, V> hd = null, tl = null;
+        for (Entry<K, V> e = tab[index]; e != null; e = e.next) {
+            TreeNode<K, V> p = replacementTreeNode(e, null);
+            replaceDense(e, p);
+            if (tl == null) {
+                hd = p;
+            } else {
+                p.prev = tl;
+                tl.next = p;
             }
-            current = e;
-            return e;
+            tl = p;
         }
+        if ((tab[index] = hd) != null) {
+            hd.treeify(tab);
+        }
+    }
 
-        @Override
-        public void remove() {
+    /**
+     * Appends a new entry to the dense array.  Must be called before size
+     * is incremented.
+     */
+    final void addDense(Entry<K, V> e) {
+        if (size == dense.length) {
+            // 与 ArrayList 相同，按 1.5 倍增长
+            int newLength = size + (size >> 1);
+            dense = Arrays.copyOf(dense, Math.max(newLength, DEFAULT_INITIAL_CAPACITY));
+        }
+        e.denseIndex = size;
+        dense[size] = e;
+    }
+
+    /**
+     * Removes an entry from the dense array by moving the last entry into
+     * its slot.  Must be called after size is decremented.
+     */
+    private void removeDense(Entry<K, V> e) {
+        int i = e.denseIndex;
+        Entry<K, V> last = dense[size];
+        dense[i] = last;
+        last.denseIndex = i;
+        dense[size] = null;
+    }
+
+    // 树化、退化时新节点替换旧节点，沿用其在 dense 中的位置
+    final void replaceDense(Entry<K, V> old, Entry<K, V> e) {
+        e.denseIndex = old.denseIndex;
+        dense[e.denseIndex] = e;
+    }
+
+    // Subclass overrides these to alter the node types used by tree bins
+
+    // Create a regular (non-tree) node
+    Entry<K, V> newEntry(int hash, K key, V value, Entry<K, V> next) {
+        return new Entry<>(hash, key, value, next);
+    }
+
+    // Create a tree bin node
+    TreeNode<K, V> newTreeNode(int hash, K key, V value, Entry<K, V> next) {
+        return new TreeNode<>(hash, key, value, next);
+    }
+
+    // For treeifyBin
+    TreeNode<K, V> replacementTreeNode(Entry<K, V> p, Entry<K, V> next) {
+        return new TreeNode<>(p.hash, p.key, p.value, next);
+    }
+
+    // For conversion from TreeNodes to plain nodes
+    Entry<K, V> replacementEntry(Entry<K, V> p, Entry<K, V> next) {
+        return new Entry<>(p.hash, p.key, p.value, next);
+    }
+
+    /* ---------------- Tree bins -------------- */
+
+    /**
+     * Returns x's Class if it is of the form "class C implements
+     * Comparable<C>", else null.
+     */
+    static Class<?> comparableClassFor(Object x) {
+        if (x instanceof Comparable) {
+            Class<?> c;
+            Type[] ts, as;
+            Type t;
+            ParameterizedType p;
+            if ((c = x.getClass()) == String.class) { // bypass checks
+                return c;
+            }
+            if ((ts = c.getGenericInterfaces()) != null) {
+                for (int i = 0; i < ts.length; ++i) {
+                    if (((t = ts[i]) instanceof ParameterizedType) &&
+                            ((p = (ParameterizedType) t).getRawType() ==
+                                    Comparable.class) &&
+                            (as = p.getActualTypeArguments()) != null &&
+                            as.length == 1 && as[0] == c) { // type arg is c
+                        return c;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns k.compareTo(x) if x matches kc (k's screened comparable
+     * class), else 0.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"}) // for cast to Comparable
+    static int compareComparables(Class<?> kc, Object k, Object x) {
+        return (x == null || x.getClass() != kc ? 0 :
+                ((Comparable) k).compareTo(x));
+    }
+
+    /**
+     * Entry for Tree bins. Bins holding more than TREEIFY_THRESHOLD
+     * entries are kept as red-black trees ordered primarily by hash,
+     * then by Comparable key when the keys share a comparable class,
+     * and finally by a tie-breaking order.  The nodes still keep their
+     * {@code next} links in bin order, so iteration, transfer and
+     * serialization can walk a tree bin exactly like a list bin.
+     * Extends {@link CusLinkedHashMap.Entry} so that the same node class
+     * serves both maps; in a plain CusHashMap the before/after links are
+     * simply left unset.
+     *
+     * <p>红黑树节点：同时维护树结构与 next 链表，链表头即为树根</p>
+     */
+    static final class TreeNode<K, V> extends CusLinkedHashMap.Entry<K, V> {
+        TreeNode<K, V> parent;  // red-black tree links
+        TreeNode<K, V> left;
+        TreeNode<K, V> right;
+        TreeNode<K, V> prev;    // needed to unlink next upon deletion
+        boolean red;
+
+        TreeNode(int hash, K key, V val, Entry<K, V> next) {
+            super(hash, key, val, next);
+        }
+
+        /**
+         * Returns root of tree containing this node.
+         */
+        final TreeNode<K, V> root() {
+            for (TreeNode<K, V> r = this, p; ; ) {
+                if ((p = r.parent) == null) {
+                    return r;
+                }
+                r = p;
+            }
+        }
+
+        /**
+         * Ensures that the given root is the first node of its bin.
+         */
+        static <K, V> void moveRootToFront(Entry<K, V>[] tab, TreeNode<K, V> root) {
+            int n;
+            if (root != null && tab != null && (n = tab.length) > 0) {
+                int index = (n - 1) & root.hash;
+                TreeNode<K, V> first = (TreeNode<K, V>) tab[index];
+                if (root != first) {
+                    Entry<K, V> rn;
+                    tab[index] = root;
+                    TreeNode<K, V> rp = root.prev;
+                    if ((rn = root.next) != null) {
+                        ((TreeNode<K, V>) rn).prev = rp;
+                    }
+                    if (rp != null) {
+                        rp.next = rn;
+                    }
+                    if (first != null) {
+                        first.prev = root;
+                    }
+                    root.next = first;
+                    root.prev = null;
+                }
+            }
+        }
+
+        /**
+         * Finds the node starting at root p with the given hash and key.
+         * The kc argument caches comparableClassFor(key) upon first use
+         * comparing keys.
+         */
+        final TreeNode<K, V> find(int h, Object k, Class<?> kc) {
+            TreeNode<K, V> p = this;
+            do {
+                int ph, dir;
+                K pk;
+                TreeNode<K, V> pl = p.left, pr = p.right, q;
+                if ((ph = p.hash) > h) {
+                    p = pl;
+                } else if (ph < h) {
+                    p = pr;
+                } else if ((pk = p.key) == k || (k != null && k.equals(pk))) {
+                    return p;
+                } else if (pl == null) {
+                    p = pr;
+                } else if (pr == null) {
+                    p = pl;
+                } else if ((kc != null ||
+                        (kc = comparableClassFor(k)) != null) &&
+                        (dir = compareComparables(kc, k, pk)) != 0) {
+                    p = (dir < 0) ? pl : pr;
+                } else if ((q = pr.find(h, k, kc)) != null) {
+                    return q;
+                } else {
+                    p = pl;
+                }
+            } while (p != null);
+            return null;
+        }
+
+        /**
+         * Calls find for root node.
+         */
+        final TreeNode<K, V> getTreeNode(int h, Object k) {
+            return ((parent != null) ? root() : this).find(h, k, null);
+        }
+
+        /**
+         * Tie-breaking utility for ordering insertions when equal
+         * hashCodes and non-comparable. We don't require a total
+         * order, just a consistent insertion rule to maintain
+         * equivalence across rebalancings. Tie-breaking further than
+         * necessary simplifies testing a bit.
+         */
+        static int tieBreakOrder(Object a, Object b) {
+            int d;
+            if (a == null || b == null ||
+                    (d = a.getClass().getName().
+                            compareTo(b.getClass().getName())) == 0) {
+                d = (System.identityHashCode(a) <= System.identityHashCode(b) ?
+                        -1 : 1);
+            }
+            return d;
+        }
+
+        /**
+         * Forms tree of the nodes linked from this node.
+         */
+        final void treeify(Entry<K, V>[] tab) {
+            TreeNode<K, V> root = null;
+            for (TreeNode<K, V> x = this, next; x != null; x = next) {
+                next = (TreeNode<K, V>) x.next;
+                x.left = x.right = null;
+                if (root == null) {
+                    x.parent = null;
+                    x.red = false;
+                    root = x;
+                } else {
+                    K k = x.key;
+                    int h = x.hash;
+                    Class<?> kc = null;
+                    for (TreeNode<K, V> p = root; ; ) {
+                        int dir, ph;
+                        K pk = p.key;
+                        if ((ph = p.hash) > h) {
+                            dir = -1;
+                        } else if (ph < h) {
+                            dir = 1;
+                        } else if ((kc == null &&
+                                (kc = comparableClassFor(k)) == null) ||
+                                (dir = compareComparables(kc, k, pk)) == 0) {
+                            dir = tieBreakOrder(k, pk);
+                        }
+
+                        TreeNode<K, V> xp = p;
+                        if ((p = (dir <= 0) ? p.left : p.right) == null) {
+                            x.parent = xp;
+                            if (dir <= 0) {
+                                xp.left = x;
+                            } else {
+                                xp.right = x;
+                            }
+                            root = balanceInsertion(root, x);
+                            break;
+                        }
+                    }
+                }
+            }
+            moveRootToFront(tab, root);
+        }
+
+        /**
+         * Returns a list of non-TreeNodes replacing those linked from
+         * this node.
+         */
+        final Entry<K, V> untreeify(CusHashMap<K, V> map) {
+            Entry<K, V> hd = null, tl = null;
+            for (Entry<K, V> q = this; q != null; q = q.next) {
+                Entry<K, V> p = map.replacementEntry(q, null);
+                map.replaceDense(q, p);
+                if (tl == null) {
+                    hd = p;
+                } else {
+                    tl.next = p;
+                }
+                tl = p;
+            }
+            return hd;
+        }
+
+        /**
+         * Tree version of putVal.  Callers have already searched the bin,
+         * so this normally inserts; an existing node is still returned
+         * (without modification) if one is found along the way.
+         */
+        final TreeNode<K, V> putTreeVal(CusHashMap<K, V> map, Entry<K, V>[] tab,
+                                        int h, K k, V v) {
+            Class<?> kc = null;
+            boolean searched = false;
+            TreeNode<K, V> root = (parent != null) ? root() : this;
+            for (TreeNode<K, V> p = root; ; ) {
+                int dir, ph;
+                K pk;
+                if ((ph = p.hash) > h) {
+                    dir = -1;
+                } else if (ph < h) {
+                    dir = 1;
+                } else if ((pk = p.key) == k || (k != null && k.equals(pk))) {
+                    return p;
+                } else if ((kc == null &&
+                        (kc = comparableClassFor(k)) == null) ||
+                        (dir = compareComparables(kc, k, pk)) == 0) {
+                    if (!searched) {
+                        TreeNode<K, V> q, ch;
+                        searched = true;
+                        if (((ch = p.left) != null &&
+                                (q = ch.find(h, k, kc)) != null) ||
+                                ((ch = p.right) != null &&
+                                        (q = ch.find(h, k, kc)) != null)) {
+                            return q;
+                        }
+                    }
+                    dir = tieBreakOrder(k, pk);
+                }
+
+                TreeNode<K, V> xp = p;
+                if ((p = (dir <= 0) ? p.left : p.right) == null) {
+                    Entry<K, V> xpn = xp.next;
+                    TreeNode<K, V> x = map.newTreeNode(h, k, v, xpn);
+                    map.addDense(x);
+                    if (dir <= 0) {
+                        xp.left = x;
+                    } else {
+                        xp.right = x;
+                    }
+                    xp.next = x;
+                    x.parent = x.prev = xp;
+                    if (xpn != null) {
+                        ((TreeNode<K, V>) xpn).prev = x;
+                    }
+                    moveRootToFront(tab, balanceInsertion(root, x));
+                    return null;
+                }
+            }
+        }
+
+        /**
+         * Removes the given node, that must be present before this call.
+         * This is messier than typical red-black deletion code because we
+         * cannot swap the contents of an interior node with a leaf
+         * successor that is pinned by "next" pointers that are accessible
+         * independently during traversal. So instead we swap the tree
+         * linkages. If the current tree appears to have too few nodes,
+         * the bin is converted back to a plain bin. (The test triggers
+         * somewhere between 2 and 6 nodes, depending on tree structure).
+         */
+        final void removeTreeNode(CusHashMap<K, V> map, Entry<K, V>[] tab,
+                                  boolean movable) {
+            int n;
+            if (tab == null || (n = tab.length) == 0) {
+                return;
+            }
+            int index = (n - 1) & hash;
+            TreeNode<K, V> first = (TreeNode<K, V>) tab[index], root = first, rl;
+            TreeNode<K, V> succ = (TreeNode<K, V>) next, pred = prev;
+            if (pred == null) {
+                tab[index] = first = succ;
+            } else {
+                pred.next = succ;
+            }
+            if (succ != null) {
+                succ.prev = pred;
+            }
+            if (first == null) {
+                return;
+            }
+            if (root.parent != null) {
+                root = root.root();
+            }
+            if (root == null
+                    || (movable
+                    && (root.right == null
+                    || (rl = root.left) == null
+                    || rl.left == null))) {
+                tab[index] = first.untreeify(map);  // too small
+                return;
+            }
+            TreeNode<K, V> p = this, pl = left, pr = right, replacement;
+            if (pl != null && pr != null) {
+                TreeNode<K, V> s = pr, sl;
+                while ((sl = s.left) != null) { // find successor
+                    s = sl;
+                }
+                boolean c = s.red;
+                s.red = p.red;
+                p.red = c; // swap colors
+                TreeNode<K, V> sr = s.right;
+                TreeNode<K, V> pp = p.parent;
+                if (s == pr) { // p was s's direct parent
+                    p.parent = s;
+                    s.right = p;
+                } else {
+                    TreeNode<K, V> sp = s.parent;
+                    if ((p.parent = sp) != null) {
+                        if (s == sp.left) {
+                            sp.left = p;
+                        } else {
+                            sp.right = p;
+                        }
+                    }
+                    if ((s.right = pr) != null) {
+                        pr.parent = s;
+                    }
+                }
+                p.left = null;
+                if ((p.right = sr) != null) {
+                    sr.parent = p;
+                }
+                if ((s.left = pl) != null) {
+                    pl.parent = s;
+                }
+                if ((s.parent = pp) == null) {
+                    root = s;
+                } else if (p == pp.left) {
+                    pp.left = s;
+                } else {
+                    pp.right = s;
+                }
+                if (sr != null) {
+                    replacement = sr;
+                } else {
+                    replacement = p;
+                }
+            } else if (pl != null) {
+                replacement = pl;
+            } else if (pr != null) {
+                replacement = pr;
+            } else {
+                replacement = p;
+            }
+            if (replacement != p) {
+                TreeNode<K, V> pp = replacement.parent = p.parent;
+                if (pp == null) {
+                    (root = replacement).red = false;
+                } else if (p == pp.left) {
+                    pp.left = replacement;
+                } else {
+                    pp.right = replacement;
+                }
+                p.left = p.right = p.parent = null;
+            }
+
+            TreeNode<K, V> r = p.red ? root : balanceDeletion(root, replacement);
+
+            if (replacement == p) {  // detach
+                TreeNode<K, V> pp = p.parent;
+                p.parent = null;
+                if (pp != null) {
+                    if (p == pp.left) {
+                        pp.left = null;
+                    } else if (p == pp.right) {
+                        pp.right = null;
+                    }
+                }
+            }
+            if (movable) {
+                moveRootToFront(tab, r);
+            }
+        }
+
+        /**
+         * Splits nodes in a tree bin into the bins of a larger table,
+         * or untreeifies them if now too small.  Called from transfer;
+         * because capacities are powers of two, nodes of old bin
+         * {@code index} can only land in bins {@code index + k * oldCap}
+         * of the new table, none of which receive nodes from any other
+         * old bin.
+         *
+         * @param map the map
+         * @param tab the new table being filled
+         * @param index the index of the old bin being split
+         * @param oldCap the capacity of the old table
+         */
+        final void split(CusHashMap<K, V> map, Entry<K, V>[] tab, int index, int oldCap) {
+            int mask = tab.length - 1;
+
+            // 1. 按新下标重新分配节点（尾插，保持原有相对顺序）
+            //    每个新桶的尾节点暂存在 parent 字段，分配完成后由 treeify 重建
+            for (TreeNode<K, V> e = this, next; e != null; e = next) {
+                next = (TreeNode<K, V>) e.next;
+                e.next = null;
+                e.left = e.right = null;
+                int i = e.hash & mask;
+                TreeNode<K, V> hd = (TreeNode<K, V>) tab[i];
+                if (hd == null) {
+                    e.prev = null;
+                    e.parent = e;
+                    tab[i] = e;
+                } else {
+                    TreeNode<K, V> tl = hd.parent;
+                    tl.next = e;
+                    e.prev = tl;
+                    hd.parent = e;
+                }
+            }
+
+            // 2. 逐个目标桶：长度小则退化为链表，否则重新树化
+            for (int i = index; i < tab.length; i += oldCap) {
+                TreeNode<K, V> hd = (TreeNode<K, V>) tab[i];
+                if (hd == null) {
+                    continue;
+                }
+                hd.parent = null;
+                int count = 0;
+                for (Entry<K, V> e = hd; e != null; e = e.next) {
+                    ++count;
+                }
+                if (count <= UNTREEIFY_THRESHOLD) {
+                    tab[i] = hd.untreeify(map);
+                } else {
+                    hd.treeify(tab);
+                }
+            }
+        }
+
+        /* ------------------------------------------------------------ */
+        // Red-black tree methods, all adapted from CLR
+
+        static <K, V> TreeNode<K, V> rotateLeft(TreeNode<K, V> root,
+                                                TreeNode<K, V> p) {
+            TreeNode<K, V> r, pp, rl;
+            if (p != null && (r = p.right) != null) {
+                if ((rl = p.right = r.left) != null) {
+                    rl.parent = p;
+                }
+                if ((pp = r.parent = p.parent) == null) {
+                    (root = r).red = false;
+                } else if (pp.left == p) {
+                    pp.left = r;
+                } else {
+                    pp.right = r;
+                }
+                r.left = p;
+                p.parent = r;
+            }
+            return root;
+        }
+
+        static <K, V> TreeNode<K, V> rotateRight(TreeNode<K, V> root,
+                                                 TreeNode<K, V> p) {
+            TreeNode<K, V> l, pp, lr;
+            if (p != null && (l = p.left) != null) {
+                if ((lr = p.left = l.right) != null) {
+                    lr.parent = p;
+                }
+                if ((pp = l.parent = p.parent) == null) {
+                    (root = l).red = false;
+                } else if (pp.right == p) {
+                    pp.right = l;
+                } else {
+                    pp.left = l;
+                }
+                l.right = p;
+                p.parent = l;
+            }
+            return root;
+        }
+
+        static <K, V> TreeNode<K, V> balanceInsertion(TreeNode<K, V> root,
+                                                      TreeNode<K, V> x) {
+            x.red = true;
+            for (TreeNode<K, V> xp, xpp, xppl, xppr; ; ) {
+                if ((xp = x.parent) == null) {
+                    x.red = false;
+                    return x;
+                } else if (!xp.red || (xpp = xp.parent) == null) {
+                    return root;
+                }
+                if (xp == (xppl = xpp.left)) {
+                    if ((xppr = xpp.right) != null && xppr.red) {
+                        xppr.red = false;
+                        xp.red = false;
+                        xpp.red = true;
+                        x = xpp;
+                    } else {
+                        if (x == xp.right) {
+                            root = rotateLeft(root, x = xp);
+                            xpp = (xp = x.parent) == null ? null : xp.parent;
+                        }
+                        if (xp != null) {
+                            xp.red = false;
+                            if (xpp != null) {
+                                xpp.red = true;
+                                root = rotateRight(root, xpp);
+                            }
+                        }
+                    }
+                } else {
+                    if (xppl != null && xppl.red) {
+                        xppl.red = false;
+                        xp.red = false;
+                        xpp.red = true;
+                        x = xpp;
+                    } else {
+                        if (x == xp.left) {
+                            root = rotateRight(root, x = xp);
+                            xpp = (xp = x.parent) == null ? null : xp.parent;
+                        }
+                        if (xp != null) {
+                            xp.red = false;
+                            if (xpp != null) {
+                                xpp.red = true;
+                                root = rotateLeft(root, xpp);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        static <K, V> TreeNode<K, V> balanceDeletion(TreeNode<K, V> root,
+                                                     TreeNode<K, V> x) {
+            for (TreeNode<K, V> xp, xpl, xpr; ; ) {
+                if (x == null || x == root) {
+                    return root;
+                } else if ((xp = x.parent) == null) {
+                    x.red = false;
+                    return x;
+                } else if (x.red) {
+                    x.red = false;
+                    return root;
+                } else if ((xpl = xp.left) == x) {
+                    if ((xpr = xp.right) != null && xpr.red) {
+                        xpr.red = false;
+                        xp.red = true;
+                        root = rotateLeft(root, xp);
+                        xpr = (xp = x.parent) == null ? null : xp.right;
+                    }
+                    if (xpr == null) {
+                        x = xp;
+                    } else {
+                        TreeNode<K, V> sl = xpr.left, sr = xpr.right;
+                        if ((sr == null || !sr.red) &&
+                                (sl == null || !sl.red)) {
+                            xpr.red = true;
+                            x = xp;
+                        } else {
+                            if (sr == null || !sr.red) {
+                                if (sl != null) {
+                                    sl.red = false;
+                                }
+                                xpr.red = true;
+                                root = rotateRight(root, xpr);
+                                xpr = (xp = x.parent) == null ?
+                                        null : xp.right;
+                            }
+                            if (xpr != null) {
+                                xpr.red = (xp == null) ? false : xp.red;
+                                if ((sr = xpr.right) != null) {
+                                    sr.red = false;
+                                }
+                            }
+                            if (xp != null) {
+                                xp.red = false;
+                                root = rotateLeft(root, xp);
+                            }
+                            x = root;
+                        }
+                    }
+                } else { // symmetric
+                    if (xpl != null && xpl.red) {
+                        xpl.red = false;
+                        xp.red = true;
+                        root = rotateRight(root, xp);
+                        xpl = (xp = x.parent) == null ? null : xp.left;
+                    }
+                    if (xpl == null) {
+                        x = xp;
+                    } else {
+                        TreeNode<K, V> sl = xpl.left, sr = xpl.right;
+                        if ((sl == null || !sl.red) &&
+                                (sr == null || !sr.red)) {
+                            xpl.red = true;
+                            x = xp;
+                        } else {
+                            if (sl == null || !sl.red) {
+                                if (sr != null) {
+                                    sr.red = false;
+                                }
+                                xpl.red = true;
+                                root = rotateLeft(root, xpl);
+                                xpl = (xp = x.parent) == null ?
+                                        null : xp.left;
+                            }
+                            if (xpl != null) {
+                                xpl.red = (xp == null) ? false : xp.red;
+                                if ((sl = xpl.left) != null) {
+                                    sl.red = false;
+                                }
+                            }
+                            if (xp != null) {
+                                xp.red = false;
+                                root = rotateRight(root, xp);
+                            }
+                            x = root;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+
+    private abstract class HashIterator<E> implements Iterator<E>{
+
+        int expectedModCount;   // For fast-fail
+        int index;              // dense slot of the next entry, plus one
+        Entry<K,V> current;     // current entry
+
+        // 从 dense 数组末尾向前遍历：删除当前 entry 时移入其位置的是最后一个 entry，
+        // 它已经被遍历过，因此不会重复或遗漏
+        HashIterator(){
+            expectedModCount = modCount;
+            index = size;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index > 0;
+        }
+
+        final Entry<K, V> nextEntry(){
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (index == 0){
+                throw new NoSuchElementException();
+            }
+
+            Entry<K, V> e = dense[--index];
+            current = e;
+            return e;
+        }
+
+        @Override
+        public void remove() {
             if (current == null){
                 throw new NoSuchElementException();
             }
@@ -829,7 +2067,7 @@ public class CusHashMap<K, V>
             }
             K key = current.key;
 
-            CusHashMap.this.removeEntryForKey(key);
+            CusHashMap.this.removeEntryForKey(key, false);
 
             expectedModCount = modCount;
         }
@@ -1001,6 +2239,226 @@ public class CusHashMap<K, V>
         }
     }
 
+    // Spliterators - 可拆分遍历，按 dense 数组下标区间拆分
+
+    /**
+     * Returns a {@link CusSpliterator} over the keys of this map.  It
+     * splits the map's dense entry array by index ranges, so each part
+     * knows its exact size ({@link CusSpliterator#SIZED} and {@link
+     * CusSpliterator#SUBSIZED}) and the parts stay balanced however the
+     * keys hash.  The spliterator binds to the map on first use and is
+     * fail-fast: a structural modification after that makes traversal
+     * throw {@link ConcurrentModificationException}.  Elements are not
+     * reported in iteration order, not even for a {@link CusLinkedHashMap}.
+     *
+     * @return a spliterator over the keys of this map
+     */
+    public CusSpliterator<K> keySpliterator() {
+        return new KeySpliterator<>(this, 0, -1, 0);
+    }
+
+    /**
+     * Returns a {@link CusSpliterator} over the values of this map,
+     * splitting like {@link #keySpliterator}.
+     *
+     * @return a spliterator over the values of this map
+     */
+    public CusSpliterator<V> valueSpliterator() {
+        return new ValueSpliterator<>(this, 0, -1, 0);
+    }
+
+    /**
+     * Returns a {@link CusSpliterator} over the mappings of this map,
+     * splitting like {@link #keySpliterator}.
+     *
+     * @return a spliterator over the mappings of this map
+     */
+    public CusSpliterator<Map.Entry<K, V>> entrySpliterator() {
+        return new EntrySpliterator<>(this, 0, -1, 0);
+    }
+
+    static class DenseSpliterator<K, V> {
+        final CusHashMap<K, V> map;
+        int index;                  // current index, modified on advance/split
+        int fence;                  // one past last index; -1 until first use
+        int expectedModCount;       // for comodification checks
+
+        DenseSpliterator(CusHashMap<K, V> map, int origin, int fence, int expectedModCount) {
+            this.map = map;
+            this.index = origin;
+            this.fence = fence;
+            this.expectedModCount = expectedModCount;
+        }
+
+        final int getFence() { // initialize fence on first use
+            int hi;
+            if ((hi = fence) < 0) {
+                expectedModCount = map.modCount;
+                hi = fence = map.size;
+            }
+            return hi;
+        }
+
+        /**
+         * Returns the entry at dense slot i, after checking that the map
+         * was not structurally modified since binding.
+         */
+        final Entry<K, V> entryAt(int i) {
+            if (map.modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            return map.dense[i];
+        }
+
+        public final long estimateSize() {
+            return (long) (getFence() - index);
+        }
+    }
+
+    static final class KeySpliterator<K, V> extends DenseSpliterator<K, V>
+            implements CusSpliterator<K> {
+        KeySpliterator(CusHashMap<K, V> map, int origin, int fence, int expectedModCount) {
+            super(map, origin, fence, expectedModCount);
+        }
+
+        public KeySpliterator<K, V> trySplit() {
+            int hi = getFence();
+            int lo = index;
+            int mid = (lo + hi) >>> 1;
+            return (lo >= mid) ? null :
+                    new KeySpliterator<>(map, lo, index = mid, expectedModCount);
+        }
+
+        public boolean tryAdvance(Action<? super K> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            int i = index;
+            if (i < getFence()) {
+                Entry<K, V> e = entryAt(i);
+                index = i + 1;
+                action.apply(e.key);
+                return true;
+            }
+            return false;
+        }
+
+        public void forEachRemaining(Action<? super K> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            int hi = getFence();
+            for (int i = index; i < hi; i++) {
+                Entry<K, V> e = entryAt(i);
+                index = i + 1;
+                action.apply(e.key);
+            }
+            if (map.modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        public int characteristics() {
+            return SIZED | SUBSIZED | DISTINCT;
+        }
+    }
+
+    static final class ValueSpliterator<K, V> extends DenseSpliterator<K, V>
+            implements CusSpliterator<V> {
+        ValueSpliterator(CusHashMap<K, V> map, int origin, int fence, int expectedModCount) {
+            super(map, origin, fence, expectedModCount);
+        }
+
+        public ValueSpliterator<K, V> trySplit() {
+            int hi = getFence();
+            int lo = index;
+            int mid = (lo + hi) >>> 1;
+            return (lo >= mid) ? null :
+                    new ValueSpliterator<>(map, lo, index = mid, expectedModCount);
+        }
+
+        public boolean tryAdvance(Action<? super V> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            int i = index;
+            if (i < getFence()) {
+                Entry<K, V> e = entryAt(i);
+                index = i + 1;
+                action.apply(e.value);
+                return true;
+            }
+            return false;
+        }
+
+        public void forEachRemaining(Action<? super V> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            int hi = getFence();
+            for (int i = index; i < hi; i++) {
+                Entry<K, V> e = entryAt(i);
+                index = i + 1;
+                action.apply(e.value);
+            }
+            if (map.modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        public int characteristics() {
+            return SIZED | SUBSIZED;
+        }
+    }
+
+    static final class EntrySpliterator<K, V> extends DenseSpliterator<K, V>
+            implements CusSpliterator<Map.Entry<K, V>> {
+        EntrySpliterator(CusHashMap<K, V> map, int origin, int fence, int expectedModCount) {
+            super(map, origin, fence, expectedModCount);
+        }
+
+        public EntrySpliterator<K, V> trySplit() {
+            int hi = getFence();
+            int lo = index;
+            int mid = (lo + hi) >>> 1;
+            return (lo >= mid) ? null :
+                    new EntrySpliterator<>(map, lo, index = mid, expectedModCount);
+        }
+
+        public boolean tryAdvance(Action<? super Map.Entry<K, V>> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            int i = index;
+            if (i < getFence()) {
+                Entry<K, V> e = entryAt(i);
+                index = i + 1;
+                action.apply(e);
+                return true;
+            }
+            return false;
+        }
+
+        public void forEachRemaining(Action<? super Map.Entry<K, V>> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            int hi = getFence();
+            for (int i = index; i < hi; i++) {
+                Entry<K, V> e = entryAt(i);
+                index = i + 1;
+                action.apply(e);
+            }
+            if (map.modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        public int characteristics() {
+            return SIZED | SUBSIZED | DISTINCT;
+        }
+    }
+
     /**
      * Save the state of the <tt>HashMap</tt> instance to a stream (i.e.,
      * serialize it).
@@ -1052,9 +2510,14 @@ public class CusHashMap<K, V>
             throw new InvalidObjectException("Illegal load factor: " +
                     loadFactor);
         }
+        if (shrinkLoadFactor < 0 || shrinkLoadFactor > loadFactor / 4 || Float.isNaN(shrinkLoadFactor)) {
+            throw new InvalidObjectException("Illegal shrink load factor: " +
+                    shrinkLoadFactor);
+        }
 
         // set other fields that need values
         table = (Entry<K,V>[]) EMPTY_TABLE;
+        dense = (Entry<K,V>[]) EMPTY_TABLE;
 
         // Read in number of buckets
         s.readInt(); // ignored.
@@ -1088,6 +2551,343 @@ public class CusHashMap<K, V>
         }
     }
 
+    /* ---------------- Binary snapshots -------------- */
+
+    static final long SNAPSHOT_MAGIC = 0x4375734D61705348L; // "CusMapSH"
+
+    static final int SNAPSHOT_VERSION = 1;
+
+    static final int SNAPSHOT_HEADER_SIZE = 48;
+
+    // 流式读写时每次读写的字节数
+    static final int SNAPSHOT_CHUNK_SIZE = 1 << 20;
+
+    // 快照头部 flags
+    static final int SNAPSHOT_INCREMENTAL = 1;
+
+    static final int SNAPSHOT_SEEDLESS = 2;
+
+    // 记录 flags
+    static final int SNAPSHOT_NULL_KEY = 1;
+
+    static final int SNAPSHOT_NULL_VALUE = 2;
+
+    /**
+     * Writes a binary snapshot of this map to the channel, in chunks of
+     * {@value #SNAPSHOT_CHUNK_SIZE} bytes.  Unlike serialization, keys and
+     * values are encoded by fixed-size codecs, and every mapping is written
+     * with its hash so that {@link #readSnapshot(ReadableByteChannel, Codec,
+     * Codec)} can rebuild the table without calling {@code equals()}, and
+     * without calling {@code hashCode()} for keys of a {@link
+     * Codec.StableHash} codec.
+     *
+     * <p>A snapshot (big-endian) consists of a {@value #SNAPSHOT_HEADER_SIZE}
+     * byte header holding the magic number, format version, codec sizes,
+     * load factors, resize mode, capacity and size, followed by one record
+     * per mapping:
+     * <pre>
+     *   hash (int) | flags (byte) | key (keyCodec.size()) | value (valueCodec.size())
+     * </pre>
+     * where the flags mark a null key or value, whose bytes are zero.
+     *
+     * <p>写入二进制快照：定长编码，连同 hash 一起写出，加载时无需重新计算 hash</p>
+     */
+    public void writeSnapshot(WritableByteChannel out,
+                              Codec<? super K> keyCodec, Codec<? super V> valueCodec) throws IOException {
+        writeSnapshot(ByteBuffer.allocateDirect(SNAPSHOT_CHUNK_SIZE), out, keyCodec, valueCodec);
+    }
+
+    /**
+     * Writes a binary snapshot of this map into the buffer, starting at its
+     * position, which is advanced past the snapshot.  The buffer's byte
+     * order is ignored.
+     *
+     * @throws BufferOverflowException if the snapshot does not fit in
+     *                                 the buffer
+     * @see #writeSnapshot(WritableByteChannel, Codec, Codec)
+     */
+    public void writeSnapshot(ByteBuffer out,
+                              Codec<? super K> keyCodec, Codec<? super V> valueCodec) {
+        // duplicate 的字节序总是大端
+        ByteBuffer buf = out.duplicate();
+        try {
+            writeSnapshot(buf, null, keyCodec, valueCodec);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        out.position(buf.position());
+    }
+
+    private void writeSnapshot(ByteBuffer buf, WritableByteChannel out,
+                               Codec<? super K> keyCodec, Codec<? super V> valueCodec) throws IOException {
+        int keySize = keyCodec.size();
+        int valueSize = valueCodec.size();
+        int recordSize = 5 + keySize + valueSize;
+        if (out != null && recordSize > buf.capacity()) {
+            throw new IllegalArgumentException("Record too large: " + recordSize);
+        }
+
+        // 1. 头部
+        drain(buf, out, SNAPSHOT_HEADER_SIZE);
+        int flags = (incrementalResize ? SNAPSHOT_INCREMENTAL : 0) | (hashSeed == 0 ? SNAPSHOT_SEEDLESS : 0);
+        buf.putLong(SNAPSHOT_MAGIC)
+                .putInt(SNAPSHOT_VERSION)
+                .putInt(keySize)
+                .putInt(valueSize)
+                .putFloat(loadFactor)
+                .putFloat(shrinkLoadFactor)
+                .putInt(flags)
+                .putInt(table == EMPTY_TABLE ? roundUpToPowerOf2(threshold) : table.length)
+                .putInt(size)
+                .putLong(0L);
+
+        // 2. 记录：按 dense 数组顺序写出，渐进式扩容中的两张表都已包含在内
+        Entry<K, V>[] d = dense;
+        for (int i = 0; i < size; i++) {
+            Entry<K, V> e = d[i];
+            drain(buf, out, recordSize);
+            int p = buf.position();
+            int f = (e.key == null ? SNAPSHOT_NULL_KEY : 0) | (e.value == null ? SNAPSHOT_NULL_VALUE : 0);
+            buf.putInt(p, e.hash);
+            buf.put(p + 4, (byte) f);
+            if (e.key == null) {
+                zero(buf, p + 5, keySize);
+            } else {
+                keyCodec.write(buf, p + 5, e.key);
+            }
+            if (e.value == null) {
+                zero(buf, p + 5 + keySize, valueSize);
+            } else {
+                valueCodec.write(buf, p + 5 + keySize, e.value);
+            }
+            buf.position(p + recordSize);
+        }
+
+        if (out != null) {
+            drain(buf, out, buf.capacity());
+        }
+    }
+
+    // 剩余空间不足 n 字节时，将已写内容全部写入 channel
+    private static void drain(ByteBuffer buf, WritableByteChannel out, int n)
+            throws IOException {
+        if (buf.remaining() >= n) {
+            return;
+        }
+        if (out == null) {
+            throw new BufferOverflowException();
+        }
+        buf.flip();
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+        buf.clear();
+    }
+
+    private static void zero(ByteBuffer buf, int index, int n) {
+        for (int i = 0; i < n; i++) {
+            buf.put(index + i, (byte) 0);
+        }
+    }
+
+    /**
+     * Reads a map from a binary snapshot written by {@link
+     * #writeSnapshot(WritableByteChannel, Codec, Codec)},
+     * streaming it from the channel in chunks of {@value
+     * #SNAPSHOT_CHUNK_SIZE} bytes.
+     *
+     * <p>The map is rebuilt with the load factors and resize mode it was
+     * written with.  Its table grows as the records are read, up to the
+     * capacity it was written with, so a table larger than its mappings
+     * needed comes back smaller, and a corrupt header cannot make the
+     * reader allocate more than the records actually read call for.
+     * Keys are not compared, as a snapshot holds each key once.  If the
+     * key codec is a {@link Codec.StableHash} and neither map uses
+     * alternative String hashing, the stored hashes are reused, so no
+     * {@code hashCode()} is called except for bins that become trees;
+     * otherwise every key is hashed again.
+     *
+     * <p>从快照重建 Map：沿用容量与 hash，不逐个调用 put</p>
+     *
+     * @throws IllegalArgumentException if the codecs' sizes differ from
+     *                                  those the snapshot was written with
+     * @throws EOFException             if the snapshot is truncated
+     * @throws StreamCorruptedException if the channel holds no snapshot
+     */
+    public static <K, V> CusHashMap<K, V> readSnapshot(ReadableByteChannel in,
+                                                       Codec<K> keyCodec, Codec<V> valueCodec)
+            throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(SNAPSHOT_CHUNK_SIZE);
+        buf.flip();
+        return readSnapshot(buf, in, keyCodec, valueCodec);
+    }
+
+    /**
+     * Reads a map from a binary snapshot starting at the buffer's position,
+     * which is advanced past the snapshot.  The buffer's byte order is
+     * ignored.
+     *
+     * @see #readSnapshot(ReadableByteChannel, Codec, Codec)
+     */
+    public static <K, V> CusHashMap<K, V> readSnapshot(ByteBuffer in,
+                                                       Codec<K> keyCodec, Codec<V> valueCodec)
+            throws IOException {
+        ByteBuffer buf = in.duplicate();
+        CusHashMap<K, V> m = readSnapshot(buf, null, keyCodec, valueCodec);
+        in.position(buf.position());
+        return m;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> CusHashMap<K, V> readSnapshot(ByteBuffer buf,
+                                                        ReadableByteChannel in,
+                                                        Codec<K> keyCodec, Codec<V> valueCodec)
+            throws IOException {
+        // 1. 头部校验
+        fill(buf, in, SNAPSHOT_HEADER_SIZE);
+        if (buf.getLong() != SNAPSHOT_MAGIC) {
+            throw new StreamCorruptedException("Not a snapshot");
+        }
+        int version = buf.getInt();
+        if (version != SNAPSHOT_VERSION) {
+            throw new StreamCorruptedException("Unsupported snapshot version: " + version);
+        }
+        int keySize = buf.getInt();
+        int valueSize = buf.getInt();
+        if (keySize != keyCodec.size() || valueSize != valueCodec.size()) {
+            throw new IllegalArgumentException("Codec sizes " + keyCodec.size() + "/" + valueCodec.size()
+                    + " do not match " + keySize + "/" + valueSize);
+        }
+        float loadFactor = buf.getFloat();
+        float shrinkLoadFactor = buf.getFloat();
+        int flags = buf.getInt();
+        int capacity = buf.getInt();
+        int mappings = buf.getInt();
+        buf.getLong();
+        if (loadFactor <= 0 || Float.isNaN(loadFactor)
+                || shrinkLoadFactor < 0 || shrinkLoadFactor > loadFactor / 4 || Float.isNaN(shrinkLoadFactor)
+                || capacity <= 0 || capacity > MAXIMUM_CAPACITY || (capacity & (capacity - 1)) != 0
+                || mappings < 0) {
+            throw new StreamCorruptedException("Corrupt snapshot header");
+        }
+
+        int recordSize = 5 + keySize + valueSize;
+        if (in != null && recordSize > buf.capacity()) {
+            throw new IllegalArgumentException("Record too large: " + recordSize);
+        }
+        if (in == null && (long) mappings * recordSize > buf.remaining()) {
+            throw new EOFException();
+        }
+
+        // 2. 头部的容量与条数未经验证，只按已读入缓冲区的记录数预分配，之后随读随扩，最多扩到原容量
+        int known = Math.min(mappings, buf.remaining() / recordSize);
+        int initialCapacity = Math.min(capacity,
+                Math.max(DEFAULT_INITIAL_CAPACITY, roundUpToPowerOf2((int) Math.min(known / loadFactor + 1, MAXIMUM_CAPACITY))));
+        CusHashMap<K, V> m = new CusHashMap<>(initialCapacity, loadFactor,
+                (flags & SNAPSHOT_INCREMENTAL) != 0, shrinkLoadFactor);
+        if (mappings == 0) {
+            return m;
+        }
+        m.inflateTable(initialCapacity);
+        m.dense = (Entry<K, V>[]) new Entry[Math.max(known, 1)];
+        // 存储的 hash 来自写出时 JVM 中的 hashCode，仅当 key 的 hashCode 跨 JVM 稳定时才可复用
+        boolean reuseHash = (flags & SNAPSHOT_SEEDLESS) != 0 && keyCodec instanceof Codec.StableHash;
+
+        // 3. 逐条建 entry：不查重，hash 可复用时不调用 hashCode
+        for (int i = 0; i < mappings; i++) {
+            fill(buf, in, recordSize);
+            int p = buf.position();
+            int hash = buf.getInt(p);
+            int f = buf.get(p + 4);
+            K key = (f & SNAPSHOT_NULL_KEY) != 0 ? null : keyCodec.read(buf, p + 5);
+            V value = (f & SNAPSHOT_NULL_VALUE) != 0 ? null : valueCodec.read(buf, p + 5 + keySize);
+            buf.position(p + recordSize);
+
+            if (m.size >= m.threshold && m.table.length < capacity) {
+                m.resize(m.table.length << 1);
+                if (m.oldTable != null) {
+                    m.finishTransfer();
+                }
+            }
+            // 扩容可能启用替代哈希，每条记录重新判断
+            if (!reuseHash || m.hashSeed != 0) {
+                hash = key == null ? 0 : m.hash(key);
+            }
+            m.createEntry(hash, key, value, indexFor(hash, m.table.length));
+
+            // 小表树化时会改为扩容，渐进式扩容须立即完成，后续 entry 才能直接放入新表
+            if (m.oldTable != null) {
+                m.finishTransfer();
+            }
+        }
+        return m;
+    }
+
+    // 保证 buf 中至少有 n 字节可读
+    private static void fill(ByteBuffer buf, ReadableByteChannel in, int n)
+            throws IOException {
+        if (buf.remaining() >= n) {
+            return;
+        }
+        if (in == null) {
+            throw new EOFException();
+        }
+        buf.compact();
+        while (buf.position() < n) {
+            if (in.read(buf) < 0) {
+                throw new EOFException();
+            }
+        }
+        buf.flip();
+    }
+
+    /* ---------------- Statistics -------------- */
+
+    /**
+     * Turns statistics mode on, if it is not on already, and returns the
+     * statistics.  Counting starts from zero when the mode is turned on.
+     *
+     * <p>开启统计模式；关闭时仅在 get 中多一次判空</p>
+     */
+    public CusHashMapStats enableStats() {
+        CusHashMapStats s = stats;
+        return s != null ? s : (stats = new CusHashMapStats(this));
+    }
+
+    /**
+     * Turns statistics mode off.  Statistics returned earlier keep their
+     * counts but are no longer updated.
+     */
+    public void disableStats() {
+        stats = null;
+    }
+
+    /**
+     * Returns the statistics of this map, or null if statistics mode is
+     * off.
+     */
+    public CusHashMapStats getStats() {
+        return stats;
+    }
+
+    // 扫描所有桶（含渐进式扩容中的旧表），返回最长桶的 entry 数
+    final int maxChainLength() {
+        Entry<K, V>[] old = oldTable;
+        return Math.max(maxChainLength(table), old == null ? 0 : maxChainLength(old));
+    }
+
+    private static int maxChainLength(Entry<?, ?>[] tab) {
+        int max = 0;
+        for (Entry<?, ?> first : tab) {
+            int n = 0;
+            for (Entry<?, ?> e = first; e != null; e = e.next) {
+                n++;
+            }
+            max = Math.max(max, n);
+        }
+        return max;
+    }
+
     // These methods are used when serializing HashSets
     int   capacity()     { return table.length; }
     float loadFactor()   { return loadFactor;   }
@@ -0,0 +1,239 @@
+package map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Statistics of one {@link CusHashMap}, collected while its statistics
+ * mode is on (see {@link CusHashMap#enableStats}).  A map without
+ * statistics pays one null check per <tt>get</tt>.
+ *
+ * <p>The counters cover
+ * <ul>
+ * <li><tt>get</tt> hits and misses, and the probe length of every
+ *     <tt>get</tt> that lands in a list bin: the number of entries it
+ *     examined.  The last slot of the histogram also counts all longer
+ *     probes.  Lookups in tree bins are
+ *     counted separately;
+ * <li>the number and total duration of table growths ({@code resize}),
+ *     shrinks, full transfers ({@code transfer}), and the steps of
+ *     incremental resizes.
+ * </ul>
+ * The maximum chain length is computed on demand by scanning the table.
+ *
+ * <p>Like the map, the counters are not synchronized.  Published as an
+ * MBean with {@link #register}, they are read from other threads without
+ * locking, so a reading may be slightly stale.
+ *
+ * <p>统计信息：命中、未命中、探测长度直方图、扩容与迁移的次数和耗时</p>
+ */
+public class CusHashMapStats implements CusHashMapStatsMBean {
+
+    /**
+     * The number of slots of the probe length histogram.
+     */
+    public static final int PROBE_HISTOGRAM_SIZE = 16;
+
+    private final CusHashMap<?, ?> map;
+
+    long hits;
+
+    long misses;
+
+    // probes[i]：检查了 i 个 entry 的 get 次数，最后一格为 ≥ PROBE_HISTOGRAM_SIZE - 1
+    final long[] probes = new long[PROBE_HISTOGRAM_SIZE];
+
+    long treeBinLookups;
+
+    long resizeCount;
+
+    long resizeNanos;
+
+    long shrinkCount;
+
+    long shrinkNanos;
+
+    long transferCount;
+
+    long transferNanos;
+
+    long transferStepCount;
+
+    long transferStepNanos;
+
+    private ObjectName objectName;
+
+    CusHashMapStats(CusHashMap<?, ?> map) {
+        this.map = map;
+    }
+
+    // 记录一次链表桶中的 get
+    final void recordGet(boolean hit, int probeLength) {
+        if (hit) {
+            hits++;
+        } else {
+            misses++;
+        }
+        probes[Math.min(probeLength, PROBE_HISTOGRAM_SIZE - 1)]++;
+    }
+
+    // 记录一次树桶中的 get
+    final void recordTreeGet(boolean hit) {
+        if (hit) {
+            hits++;
+        } else {
+            misses++;
+        }
+        treeBinLookups++;
+    }
+
+    @Override
+    public int getSize() {
+        return map.size();
+    }
+
+    @Override
+    public int getCapacity() {
+        return map.capacity();
+    }
+
+    @Override
+    public long getHits() {
+        return hits;
+    }
+
+    @Override
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns hits / (hits + misses), or NaN if no <tt>get</tt> has been
+     * counted yet.
+     */
+    @Override
+    public double getHitRatio() {
+        long h = hits;
+        long total = h + misses;
+        return total == 0 ? Double.NaN : (double) h / total;
+    }
+
+    /**
+     * Returns a copy of the probe length histogram: slot i counts the
+     * <tt>get</tt> calls that examined i entries of a list bin.
+     */
+    @Override
+    public long[] getProbeHistogram() {
+        return probes.clone();
+    }
+
+    @Override
+    public long getTreeBinLookups() {
+        return treeBinLookups;
+    }
+
+    /**
+     * Returns the number of entries in the longest bin, scanning the whole
+     * table (and the old table of a pending incremental resize).
+     */
+    @Override
+    public int getMaxChainLength() {
+        return map.maxChainLength();
+    }
+
+    @Override
+    public long getResizeCount() {
+        return resizeCount;
+    }
+
+    @Override
+    public long getResizeNanos() {
+        return resizeNanos;
+    }
+
+    @Override
+    public long getShrinkCount() {
+        return shrinkCount;
+    }
+
+    @Override
+    public long getShrinkNanos() {
+        return shrinkNanos;
+    }
+
+    @Override
+    public long getTransferCount() {
+        return transferCount;
+    }
+
+    @Override
+    public long getTransferNanos() {
+        return transferNanos;
+    }
+
+    @Override
+    public long getTransferStepCount() {
+        return transferStepCount;
+    }
+
+    @Override
+    public long getTransferStepNanos() {
+        return transferStepNanos;
+    }
+
+    /**
+     * Sets all counters back to zero.
+     */
+    @Override
+    public void reset() {
+        hits = misses = treeBinLookups = 0;
+        Arrays.fill(probes, 0);
+        resizeCount = resizeNanos = shrinkCount = shrinkNanos = 0;
+        transferCount = transferNanos = transferStepCount = transferStepNanos = 0;
+    }
+
+    /**
+     * Registers these statistics with the platform MBean server under
+     * {@code map:type=CusHashMap,name=<name>}, replacing any previous
+     * registration of this object.
+     *
+     * @return the name the MBean was registered under
+     * @throws JMException if the name is malformed or already in use
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        unregister();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName on = new ObjectName("map:type=CusHashMap,name=" + ObjectName.quote(name));
+        server.registerMBean(this, on);
+        objectName = on;
+        return on;
+    }
+
+    /**
+     * Removes the MBean registered by {@link #register}, if any.
+     */
+    public synchronized void unregister() throws JMException {
+        if (objectName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            objectName = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CusHashMapStats{size=" + getSize()
+                + ", capacity=" + getCapacity()
+                + ", hits=" + hits
+                + ", misses=" + misses
+                + ", probes=" + Arrays.toString(probes)
+                + ", treeBinLookups=" + treeBinLookups
+                + ", resizes=" + resizeCount + " (" + resizeNanos + " ns)"
+                + ", shrinks=" + shrinkCount + " (" + shrinkNanos + " ns)"
+                + ", transfers=" + transferCount + " (" + transferNanos + " ns)"
+                + ", transferSteps=" + transferStepCount + " (" + transferStepNanos + " ns)"
+                + '}';
+    }
+}
@@ -0,0 +1,44 @@
+package map;
+
+/**
+ * Management interface of {@link CusHashMapStats}, through which the
+ * statistics of a {@link CusHashMap} are published as a JMX MBean.
+ *
+ * <p>JMX 管理接口：通过 MBean 暴露 CusHashMap 的统计信息</p>
+ */
+public interface CusHashMapStatsMBean {
+
+    int getSize();
+
+    int getCapacity();
+
+    long getHits();
+
+    long getMisses();
+
+    double getHitRatio();
+
+    long[] getProbeHistogram();
+
+    long getTreeBinLookups();
+
+    int getMaxChainLength();
+
+    long getResizeCount();
+
+    long getResizeNanos();
+
+    long getShrinkCount();
+
+    long getShrinkNanos();
+
+    long getTransferCount();
+
+    long getTransferNanos();
+
+    long getTransferStepCount();
+
+    long getTransferStepNanos();
+
+    void reset();
+}
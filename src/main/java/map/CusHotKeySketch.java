@@ -0,0 +1,293 @@
+package map;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Finds the keys that dominate the traffic of a {@link
+ * CusConcurrentHashMap}, fed by its <tt>get</tt> and <tt>put</tt> calls
+ * while hot key detection is on (see {@link
+ * CusConcurrentHashMap#enableHotKeys}).
+ *
+ * <p>One call in <tt>sampleRate</tt> is sampled, chosen at random by the
+ * calling thread.  A sampled key is counted in a Count-Min sketch: a few
+ * rows of counters, each indexed by a different hash of the key, whose
+ * smallest counter estimates the key's count and can only overestimate
+ * it.  The key is then offered to a small table of candidates, two slots
+ * per key, where it takes the place of a candidate with a lower
+ * estimate.  Every so many samples all counters are halved, so that the
+ * estimates follow the current traffic rather than the whole history.
+ *
+ * <p>Nothing here locks: counters are updated with atomic increments and
+ * candidates with compare-and-set, so concurrent samples may race and a
+ * reading is an estimate.  A call that is not sampled costs the random
+ * draw only.  Keys are kept as given to <tt>get</tt> and compared with
+ * <tt>equals</tt>; the sketch holds strong references to its candidates
+ * until they are displaced.
+ *
+ * <p>热点 key 探测：采样 get/put，Count-Min 计数，候选表保存 top-K，全程无锁</p>
+ *
+ * @param <K> the type of keys
+ */
+public class CusHotKeySketch<K> {
+
+    /**
+     * The largest number of keys a sketch can report.
+     */
+    public static final int MAX_TOP_K = 1 << 16;
+
+    /**
+     * The number of rows of the Count-Min sketch.
+     */
+    private static final int DEPTH = 4;
+
+    // 各行的乘法哈希常数（奇数）
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    /**
+     * The smallest number of counters per row.
+     */
+    private static final int MIN_WIDTH = 1 << 10;
+
+    /**
+     * The number of counters per row for each key to report.
+     */
+    private static final int WIDTH_PER_KEY = 64;
+
+    /**
+     * The number of candidate slots for each key to report.
+     */
+    private static final int SLOTS_PER_KEY = 8;
+
+    /**
+     * The number of samples between two halvings, per counter of a row.
+     */
+    private static final int AGING_SAMPLES_PER_COUNTER = 10;
+
+    private final int topK;
+
+    private final int sampleMask;
+
+    private final int sampleShift;
+
+    // 32 - log2(行宽)，取乘法哈希的高位作为行内下标
+    private final int rowShift;
+
+    private final int width;
+
+    // DEPTH 行计数器依次排列
+    private final AtomicIntegerArray counts;
+
+    private final int slotShift;
+
+    private final AtomicReferenceArray<K> candidates;
+
+    private final int agingPeriod;
+
+    private final AtomicBoolean aging = new AtomicBoolean();
+
+    /**
+     * Creates a sketch reporting the topK hottest keys.
+     *
+     * @param topK the number of keys to report
+     * @param sampleRate one call in sampleRate is sampled
+     * @throws IllegalArgumentException if topK is not positive or
+     *         greater than MAX_TOP_K, or sampleRate is not a positive
+     *         power of two
+     */
+    CusHotKeySketch(int topK, int sampleRate) {
+        if (topK <= 0 || topK > MAX_TOP_K || sampleRate <= 0 || Integer.bitCount(sampleRate) != 1) {
+            throw new IllegalArgumentException();
+        }
+        this.topK = topK;
+        this.sampleMask = sampleRate - 1;
+        this.sampleShift = Integer.numberOfTrailingZeros(sampleRate);
+        int w = Math.max(MIN_WIDTH, Integer.highestOneBit(topK * WIDTH_PER_KEY - 1) << 1);
+        this.width = w;
+        this.rowShift = Integer.numberOfLeadingZeros(w) + 1;
+        this.counts = new AtomicIntegerArray(DEPTH * w);
+        int slots = Integer.highestOneBit(topK * SLOTS_PER_KEY - 1) << 1;
+        this.slotShift = Integer.numberOfLeadingZeros(slots) + 1;
+        this.candidates = new AtomicReferenceArray<>(slots);
+        this.agingPeriod = w * AGING_SAMPLES_PER_COUNTER;
+    }
+
+    /**
+     * Returns the number of keys reported by {@link #topKeys}.
+     */
+    public int topK() {
+        return topK;
+    }
+
+    /**
+     * Returns the sampling rate: one call in this many is counted.
+     */
+    public int sampleRate() {
+        return sampleMask + 1;
+    }
+
+    /**
+     * Samples a call with the given key.  Called by the map on the read
+     * and write paths.
+     */
+    @SuppressWarnings("unchecked")
+    final void offer(Object key) {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        if ((r.nextInt() & sampleMask) != 0) {
+            return;
+        }
+        int h = spread(key.hashCode());
+        int est = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            est = Math.min(est, counts.incrementAndGet(index(h, i)));
+        }
+        offerCandidate((K) key, h, est);
+        if (r.nextInt(agingPeriod) == 0) {
+            age();
+        }
+    }
+
+    /**
+     * Returns the estimated number of calls with the given key since
+     * the counts were last halved, or a little more: the sampled count
+     * scaled by the sampling rate.
+     */
+    public long estimate(Object key) {
+        return (long) count(spread(key.hashCode())) << sampleShift;
+    }
+
+    /**
+     * Returns the current hot keys, hottest first: at most topK of
+     * them, each with its estimate (see {@link #estimate}).
+     */
+    public List<Map.Entry<K, Long>> topEntries() {
+        // 同时竞争的样本可能把同一 key 放进两个槽位，用 HashMap 去重
+        Map<K, Long> seen = new HashMap<>();
+        for (int j = 0; j < candidates.length(); j++) {
+            K c = candidates.get(j);
+            if (c != null && !seen.containsKey(c)) {
+                seen.put(c, estimate(c));
+            }
+        }
+        List<Map.Entry<K, Long>> list = new ArrayList<>(seen.entrySet());
+        Collections.sort(list, new Comparator<Map.Entry<K, Long>>() {
+            @Override
+            public int compare(Map.Entry<K, Long> a, Map.Entry<K, Long> b) {
+                return b.getValue().compareTo(a.getValue());
+            }
+        });
+        return list.size() > topK ? new ArrayList<>(list.subList(0, topK)) : list;
+    }
+
+    /**
+     * Returns the current hot keys, hottest first, at most topK of them.
+     */
+    public List<K> topKeys() {
+        List<Map.Entry<K, Long>> entries = topEntries();
+        List<K> keys = new ArrayList<>(entries.size());
+        for (Map.Entry<K, Long> e : entries) {
+            keys.add(e.getKey());
+        }
+        return keys;
+    }
+
+    /**
+     * Clears all counts and candidates.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        for (int j = 0; j < candidates.length(); j++) {
+            candidates.set(j, null);
+        }
+    }
+
+    /**
+     * Offers a sampled key with estimate est to its two candidate
+     * slots: nothing to do if it is there already, otherwise it takes
+     * an empty slot, or else replaces the candidate with the lower
+     * estimate if that is lower than est.
+     */
+    private void offerCandidate(K key, int h, int est) {
+        int j0 = (h * 0x7FEB352D) >>> slotShift;
+        int j1 = j0 ^ 1;
+        K c0 = candidates.get(j0);
+        K c1 = candidates.get(j1);
+        if (c0 == key || c1 == key ||
+                (c0 != null && c0.equals(key)) || (c1 != null && c1.equals(key))) {
+            return;
+        }
+        if (c0 == null && candidates.compareAndSet(j0, null, key)) {
+            return;
+        }
+        if (c1 == null && candidates.compareAndSet(j1, null, key)) {
+            return;
+        }
+        c0 = candidates.get(j0);
+        c1 = candidates.get(j1);
+        int e0 = c0 == null ? 0 : count(spread(c0.hashCode()));
+        int e1 = c1 == null ? 0 : count(spread(c1.hashCode()));
+        if (e0 <= e1) {
+            if (e0 < est) {
+                candidates.compareAndSet(j0, c0, key);
+            }
+        } else if (e1 < est) {
+            candidates.compareAndSet(j1, c1, key);
+        }
+    }
+
+    /**
+     * Halves all counters, unless another thread is doing it.  Updates
+     * made meanwhile may be lost, which only lowers some estimates.
+     */
+    private void age() {
+        if (!aging.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            for (int i = 0; i < counts.length(); i++) {
+                counts.set(i, counts.get(i) >>> 1);
+            }
+        } finally {
+            aging.set(false);
+        }
+    }
+
+    // 各行计数的最小值
+    private int count(int h) {
+        int est = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            est = Math.min(est, counts.get(index(h, i)));
+        }
+        return est;
+    }
+
+    private int index(int h, int row) {
+        return row * width + ((h * SEEDS[row]) >>> rowShift);
+    }
+
+    // 混合 hashCode 的各位，使乘法哈希的高位依赖全部输入位
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return "CusHotKeySketch{topK=" + topK
+                + ", sampleRate=" + sampleRate()
+                + ", hotKeys=" + topEntries()
+                + '}';
+    }
+}
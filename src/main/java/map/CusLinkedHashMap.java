@@ -0,0 +1,387 @@
+package map;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Hash table and linked list implementation of the Map interface, with
+ * predictable iteration order.  This implementation differs from
+ * {@link CusHashMap} in that it maintains a doubly-linked list running
+ * through all of its entries.  This linked list defines the iteration
+ * ordering, which is normally the order in which keys were inserted into
+ * the map (<i>insertion-order</i>).  Note that insertion order is not
+ * affected if a key is <i>re-inserted</i> into the map.
+ *
+ * <p>A special {@link #CusLinkedHashMap(int, float, boolean) constructor} is
+ * provided to create a linked hash map whose order of iteration is the order
+ * in which its entries were last accessed, from least-recently accessed to
+ * most-recently (<i>access-order</i>).  This kind of map is well-suited to
+ * building LRU caches.  Invoking the <tt>put</tt> or <tt>get</tt> method
+ * results in an access to the corresponding entry.
+ *
+ * <p>The {@link #removeEldestEntry(Map.Entry)} method may be overridden to
+ * impose a policy for removing stale mappings automatically when new
+ * mappings are added to the map.
+ *
+ * <p>Iteration over the collection-views of a <tt>CusLinkedHashMap</tt>
+ * follows the linked list and requires time proportional to the
+ * <i>size</i> of the map, regardless of its capacity, as it does over a
+ * <tt>CusHashMap</tt>, which walks its dense entry array.
+ *
+ * <p><strong>Note that this implementation is not synchronized.</strong>
+ * In access-ordered linked hash maps, merely querying the map with
+ * <tt>get</tt> is a structural modification.
+ *
+ * <p>双向链表贯穿所有 entry：插入顺序或访问顺序，header 为哨兵节点</p>
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public class CusLinkedHashMap<K, V> extends CusHashMap<K, V> implements Map<K, V> {
+
+    private static final long serialVersionUID = 3801124242820219131L;
+
+    /**
+     * The head of the doubly linked list.
+     */
+    // 哨兵节点：header.after 为最老的 entry，header.before 为最新的 entry
+    private transient Entry<K, V> header;
+
+    /**
+     * The iteration ordering method for this linked hash map: <tt>true</tt>
+     * for access-order, <tt>false</tt> for insertion-order.
+     *
+     * @serial
+     */
+    private final boolean accessOrder;
+
+    public CusLinkedHashMap(int initialCapacity, float loadFactor) {
+        super(initialCapacity, loadFactor);
+        accessOrder = false;
+    }
+
+    public CusLinkedHashMap(int initialCapacity) {
+        super(initialCapacity);
+        accessOrder = false;
+    }
+
+    public CusLinkedHashMap() {
+        super();
+        accessOrder = false;
+    }
+
+    public CusLinkedHashMap(Map<? extends K, ? extends V> m) {
+        super(m);
+        accessOrder = false;
+    }
+
+    /**
+     * Constructs an empty <tt>CusLinkedHashMap</tt> instance with the
+     * specified initial capacity, load factor and ordering mode.
+     *
+     * @param accessOrder the ordering mode - <tt>true</tt> for
+     *                    access-order, <tt>false</tt> for insertion-order
+     * @throws IllegalArgumentException if the initial capacity is negative
+     *                                  or the load factor is nonpositive
+     */
+    public CusLinkedHashMap(int initialCapacity, float loadFactor, boolean accessOrder) {
+        super(initialCapacity, loadFactor);
+        this.accessOrder = accessOrder;
+    }
+
+    /**
+     * Called by superclass constructors and pseudoconstructors (clone,
+     * readObject) before any entries are inserted into the map.  Initializes
+     * the chain.
+     */
+    @Override
+    void init() {
+        header = new Entry<>(-1, null, null, null);
+        header.before = header.after = header;
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map maps one or more keys to the
+     * specified value.  Walks the linked list, in iteration order; like
+     * the dense array scan of CusHashMap, this takes time proportional
+     * to the size.
+     */
+    @Override
+    public boolean containsValue(Object value) {
+        if (value == null) {
+            for (Entry e = header.after; e != header; e = e.after) {
+                if (e.value == null) {
+                    return true;
+                }
+            }
+        } else {
+            for (Entry e = header.after; e != header; e = e.after) {
+                if (value.equals(e.value)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped, or
+     * {@code null} if this map contains no mapping for the key.  In
+     * access-order mode the entry becomes the most recently used one.
+     */
+    @Override
+    public V get(Object key) {
+        CusHashMap.Entry<K, V> e = stats == null ? getEntry(key) : getEntryCounted(key);
+        if (e == null) {
+            return null;
+        }
+        e.recordAccess(this);
+        return e.value;
+    }
+
+    /**
+     * Removes all of the mappings from this map.
+     * The map will be empty after this call returns.
+     */
+    @Override
+    public void clear() {
+        super.clear();
+        header.before = header.after = header;
+    }
+
+    /**
+     * CusLinkedHashMap entry.  Also the base class of
+     * {@link CusHashMap.TreeNode}, whose nodes are only linked when they
+     * belong to a CusLinkedHashMap.
+     */
+    static class Entry<K, V> extends CusHashMap.Entry<K, V> {
+        // These fields comprise the doubly linked list used for iteration.
+        Entry<K, V> before, after;
+
+        Entry(int hash, K key, V value, CusHashMap.Entry<K, V> next) {
+            super(hash, key, value, next);
+        }
+
+        /**
+         * Removes this entry from the linked list.
+         */
+        void remove() {
+            before.after = after;
+            after.before = before;
+        }
+
+        /**
+         * Inserts this entry before the specified existing entry in the list.
+         */
+        void addBefore(Entry<K, V> existingEntry) {
+            after = existingEntry;
+            before = existingEntry.before;
+            before.after = this;
+            after.before = this;
+        }
+
+        /**
+         * This method is invoked by the superclass whenever the value
+         * of a pre-existing entry is read by Map.get or modified by Map.put.
+         * If the enclosing Map is access-ordered, it moves the entry
+         * to the end of the list; otherwise, it does nothing.
+         */
+        @Override
+        void recordAccess(CusHashMap<K, V> m) {
+            // 未链接的节点（普通 CusHashMap 中的树节点）无需处理
+            if (before == null) {
+                return;
+            }
+            CusLinkedHashMap<K, V> lm = (CusLinkedHashMap<K, V>) m;
+            if (lm.accessOrder) {
+                lm.modCount++;
+                remove();
+                addBefore(lm.header);
+            }
+        }
+
+        @Override
+        void recordRemoval(CusHashMap<K, V> m) {
+            if (before != null) {
+                remove();
+            }
+        }
+    }
+
+    /**
+     * Replaces src with dst in the linked list, for nodes exchanged when a
+     * bin is treeified or untreeified.
+     */
+    private void transferLinks(Entry<K, V> src, Entry<K, V> dst) {
+        Entry<K, V> b = dst.before = src.before;
+        Entry<K, V> a = dst.after = src.after;
+        b.after = dst;
+        a.before = dst;
+    }
+
+    // 以下钩子保证新建、替换的节点都挂在双向链表上
+
+    @Override
+    CusHashMap.Entry<K, V> newEntry(int hash, K key, V value, CusHashMap.Entry<K, V> next) {
+        Entry<K, V> e = new Entry<>(hash, key, value, next);
+        e.addBefore(header);
+        return e;
+    }
+
+    @Override
+    TreeNode<K, V> newTreeNode(int hash, K key, V value, CusHashMap.Entry<K, V> next) {
+        TreeNode<K, V> p = new TreeNode<>(hash, key, value, next);
+        p.addBefore(header);
+        return p;
+    }
+
+    @Override
+    TreeNode<K, V> replacementTreeNode(CusHashMap.Entry<K, V> p, CusHashMap.Entry<K, V> next) {
+        TreeNode<K, V> t = new TreeNode<>(p.hash, p.key, p.value, next);
+        transferLinks((Entry<K, V>) p, t);
+        return t;
+    }
+
+    @Override
+    CusHashMap.Entry<K, V> replacementEntry(CusHashMap.Entry<K, V> p, CusHashMap.Entry<K, V> next) {
+        Entry<K, V> e = new Entry<>(p.hash, p.key, p.value, next);
+        transferLinks((Entry<K, V>) p, e);
+        return e;
+    }
+
+    private abstract class LinkedHashIterator<T> implements Iterator<T> {
+        Entry<K, V> nextEntry = header.after;
+        Entry<K, V> lastReturned = null;
+
+        /**
+         * The modCount value that the iterator believes that the backing
+         * List should have.  If this expectation is violated, the iterator
+         * has detected concurrent modification.
+         */
+        int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return nextEntry != header;
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned == null) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+
+            // 不调整桶结构，避免树节点被替换
+            CusLinkedHashMap.this.removeEntryForKey(lastReturned.key, false);
+            lastReturned = null;
+            expectedModCount = modCount;
+        }
+
+        Entry<K, V> nextEntry() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (nextEntry == header) {
+                throw new NoSuchElementException();
+            }
+
+            Entry<K, V> e = lastReturned = nextEntry;
+            nextEntry = e.after;
+            return e;
+        }
+    }
+
+    private class KeyIterator extends LinkedHashIterator<K> {
+        @Override
+        public K next() {
+            return nextEntry().getKey();
+        }
+    }
+
+    private class ValueIterator extends LinkedHashIterator<V> {
+        @Override
+        public V next() {
+            return nextEntry().value;
+        }
+    }
+
+    private class EntryIterator extends LinkedHashIterator<Map.Entry<K, V>> {
+        @Override
+        public Map.Entry<K, V> next() {
+            return nextEntry();
+        }
+    }
+
+    // These Overrides alter the behavior of superclass view iterator() methods
+    @Override
+    Iterator<K> newKeyIterator() {
+        return new KeyIterator();
+    }
+
+    @Override
+    Iterator<V> newValueIterator() {
+        return new ValueIterator();
+    }
+
+    @Override
+    Iterator<Map.Entry<K, V>> newEntryIterator() {
+        return new EntryIterator();
+    }
+
+    /**
+     * This override alters behavior of superclass put method. It causes newly
+     * allocated entry to get inserted at the end of the linked list and
+     * removes the eldest entry if appropriate.
+     */
+    @Override
+    void addEntry(int hash, K key, V value, int bucketIndex) {
+        super.addEntry(hash, key, value, bucketIndex);
+
+        // Remove eldest entry if instructed
+        Entry<K, V> eldest = header.after;
+        if (removeEldestEntry(eldest)) {
+            removeEntryForKey(eldest.key);
+        }
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map should remove its eldest entry.
+     * This method is invoked by <tt>put</tt> and <tt>putAll</tt> after
+     * inserting a new entry into the map.  It provides the implementor
+     * with the opportunity to remove the eldest entry each time a new one
+     * is added.  This is useful if the map represents a cache: it allows
+     * the map to reduce memory consumption by deleting stale entries.
+     *
+     * <p>Sample use: this override will allow the map to grow up to 100
+     * entries and then delete the eldest entry each time a new entry is
+     * added, maintaining a steady state of 100 entries.
+     * <pre>
+     *     private static final int MAX_ENTRIES = 100;
+     *
+     *     protected boolean removeEldestEntry(Map.Entry eldest) {
+     *        return size() &gt; MAX_ENTRIES;
+     *     }
+     * </pre>
+     *
+     * <p>This method typically does not modify the map in any way,
+     * instead allowing the map to modify itself as directed by its
+     * return value.
+     *
+     * <p>默认实现返回 false，即不淘汰；LRU 缓存重写为 size() &gt; 上限 即可</p>
+     *
+     * @param eldest The least recently inserted entry in the map, or if
+     *               this is an access-ordered map, the least recently accessed
+     *               entry.  This is the entry that will be removed it this
+     *               method returns <tt>true</tt>.
+     * @return <tt>true</tt> if the eldest entry should be removed
+     * from the map; <tt>false</tt> if it should be retained.
+     */
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return false;
+    }
+}
@@ -0,0 +1,423 @@
+package map;
+
+import java.io.Closeable;
+import java.io.IOError;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Persistent {@link CusOffHeapHashMap} whose bucket table and records live
+ * in memory-mapped files.  A map is a directory holding three files:
+ * <pre>
+ *   header   - magic, version, layout and counts of the last checkpoint
+ *   buckets  - the bucket table, slab i at offset i * 1GB
+ *   records  - the records, slab i at offset i * (full slab size)
+ * </pre>
+ * Because the files hold exactly the slabs the map works on, {@link #open}
+ * only reads the header and maps the files: nothing is decoded or
+ * re-hashed, and pages are read in lazily as lookups touch them, so a
+ * map of any size reopens in about the same time.
+ *
+ * <p>Changes reach the files through the page cache at the operating
+ * system's discretion.  {@link #force} is the checkpoint: it writes every
+ * slab and then the header to the storage device.  The first modification
+ * after a checkpoint marks the header dirty, and a map that was not
+ * checkpointed after its last modification cannot be reopened, since its
+ * files may be torn; rebuild it from its source instead.
+ *
+ * <p>Growing the first record slab remaps a larger region of the records
+ * file rather than copying it, and a resize rewrites the bucket file in
+ * place.  Mapped memory is only released when the buffers are garbage
+ * collected, even after {@link #close}.  A directory may be open in one
+ * map at a time, which is enforced with a file lock.
+ *
+ * <p>持久化 Map：桶数组与记录都映射到文件中，重新打开时只需读取头部并映射文件，
+ * 数据按需换入；force() 为检查点</p>
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public class CusMappedHashMap<K, V> extends CusOffHeapHashMap<K, V> implements Closeable {
+
+    static final String HEADER_FILE = "header";
+
+    static final String BUCKETS_FILE = "buckets";
+
+    static final String RECORDS_FILE = "records";
+
+    static final long MAGIC = 0x4375734D61704846L; // "CusMapHF"
+
+    // 版本 2 起桶按 key 编码字节的 hash 组织，版本 1 的文件按 hashCode 组织，不再支持
+    static final int VERSION = 2;
+
+    // 头部各字段的偏移，头部固定为大端序
+    static final int H_MAGIC = 0;
+
+    static final int H_VERSION = 8;
+
+    static final int H_STATE = 12;
+
+    static final int H_ORDER = 16;
+
+    static final int H_KEY_SIZE = 20;
+
+    static final int H_VALUE_SIZE = 24;
+
+    static final int H_LOAD_FACTOR = 28;
+
+    static final int H_CAPACITY = 32;
+
+    static final int H_SIZE = 36;
+
+    static final int H_RECORD_CAPACITY = 40;
+
+    static final int HEADER_SIZE = 64;
+
+    // 头部状态：检查点之后是否有修改
+    static final int CLEAN = 0;
+
+    static final int DIRTY = 1;
+
+    private final FileChannel headerChannel;
+
+    private final FileChannel bucketChannel;
+
+    private final FileChannel recordChannel;
+
+    private final FileLock lock;
+
+    private final MappedByteBuffer header;
+
+    // 自上次检查点以来是否修改过
+    private boolean dirty;
+
+    private CusMappedHashMap(Codec<K> keyCodec, Codec<V> valueCodec, float loadFactor,
+                             MapFiles files, ByteOrder order) {
+        // 数据文件的字节序：创建时取本机字节序并记录在头部，重新打开时沿用头部记录的字节序
+        super(keyCodec, valueCodec, loadFactor, order);
+        this.headerChannel = files.header;
+        this.bucketChannel = files.buckets;
+        this.recordChannel = files.records;
+        this.lock = files.lock;
+        this.header = files.headerBuffer;
+    }
+
+    /**
+     * Creates an empty persistent map in dir, replacing any map stored
+     * there, and checkpoints it.
+     *
+     * @throws IllegalArgumentException if the initial capacity is negative
+     *                                  or the load factor is nonpositive
+     * @throws IOException              if the files cannot be created, or
+     *                                  the directory is in use
+     */
+    public static <K, V> CusMappedHashMap<K, V> create(Path dir, Codec<K> keyCodec, Codec<V> valueCodec,
+                                                       int initialCapacity, float loadFactor)
+            throws IOException {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: " +
+                    initialCapacity);
+        }
+
+        if (initialCapacity > MAXIMUM_CAPACITY) {
+            initialCapacity = MAXIMUM_CAPACITY;
+        }
+
+        Files.createDirectories(dir);
+        MapFiles files = MapFiles.open(dir, true);
+        CusMappedHashMap<K, V> m;
+        try {
+            m = new CusMappedHashMap<>(keyCodec, valueCodec, loadFactor, files, ByteOrder.nativeOrder());
+            m.initTable(initialCapacity);
+        } catch (IOError | RuntimeException e) {
+            files.close();
+            throw e;
+        }
+        m.dirty = true;
+        m.force();
+        return m;
+    }
+
+    public static <K, V> CusMappedHashMap<K, V> create(Path dir, Codec<K> keyCodec, Codec<V> valueCodec)
+            throws IOException {
+        return create(dir, keyCodec, valueCodec, DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * Reopens the map stored in dir at its last checkpoint.  Only the
+     * header is read; the slabs are mapped and paged in on demand.
+     *
+     * @throws IllegalArgumentException if the codecs' sizes differ from
+     *                                  those the map was created with
+     * @throws IOException              if dir holds no map, or one that was
+     *                                  modified after its last checkpoint,
+     *                                  or the directory is in use
+     */
+    public static <K, V> CusMappedHashMap<K, V> open(Path dir, Codec<K> keyCodec, Codec<V> valueCodec)
+            throws IOException {
+        MapFiles files = MapFiles.open(dir, false);
+        try {
+            ByteBuffer h = files.headerBuffer;
+            if (h.getLong(H_MAGIC) != MAGIC) {
+                throw new IOException("Not a map: " + dir);
+            }
+            if (h.getInt(H_VERSION) != VERSION) {
+                throw new IOException("Unsupported version: " + h.getInt(H_VERSION));
+            }
+            if (h.getInt(H_STATE) != CLEAN) {
+                throw new IOException("Map was modified after its last checkpoint: " + dir);
+            }
+            if (h.getInt(H_KEY_SIZE) != keyCodec.size() || h.getInt(H_VALUE_SIZE) != valueCodec.size()) {
+                throw new IllegalArgumentException("Codec sizes " + keyCodec.size() + "/" + valueCodec.size()
+                        + " do not match " + h.getInt(H_KEY_SIZE) + "/" + h.getInt(H_VALUE_SIZE));
+            }
+
+            ByteOrder order = h.getInt(H_ORDER) == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+            CusMappedHashMap<K, V> m = new CusMappedHashMap<>(keyCodec, valueCodec,
+                    h.getFloat(H_LOAD_FACTOR), files, order);
+            m.restore(h.getInt(H_CAPACITY), h.getInt(H_SIZE), h.getInt(H_RECORD_CAPACITY));
+            return m;
+        } catch (IOException | IOError | RuntimeException e) {
+            files.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Maps the slabs described by a clean header.
+     */
+    private void restore(int capacity, int size, int recordCapacity) throws IOException {
+        int full = 1 << recordShift;
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0 || capacity > MAXIMUM_CAPACITY
+                || size < 0 || size > recordCapacity
+                || (recordCapacity > full && recordCapacity % full != 0)) {
+            throw new IOException("Corrupt header");
+        }
+
+        this.capacity = capacity;
+        this.size = size;
+        this.threshold = capacity == MAXIMUM_CAPACITY
+                ? Integer.MAX_VALUE
+                : (int) Math.min(capacity * loadFactor, MAXIMUM_CAPACITY + 1);
+        buckets = mapBuckets(capacity);
+
+        int n = recordCapacity > full ? recordCapacity / full : 1;
+        slabs = new ByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            slabs[i] = mapRecords(i, Math.min(recordCapacity, full) * recordSize);
+        }
+        this.recordCapacity = recordCapacity;
+    }
+
+    /* ---------------- Slab mapping -------------- */
+
+    private ByteBuffer map(FileChannel ch, long position, int bytes) throws IOException {
+        return ch.map(FileChannel.MapMode.READ_WRITE, position, bytes).order(order);
+    }
+
+    private ByteBuffer[] mapBuckets(int capacity) throws IOException {
+        int n = ((capacity - 1) >>> BUCKET_SLAB_SHIFT) + 1;
+        ByteBuffer[] b = new ByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            b[i] = map(bucketChannel, (long) i << (BUCKET_SLAB_SHIFT + 2),
+                    Math.min(capacity, 1 << BUCKET_SLAB_SHIFT) << 2);
+        }
+        return b;
+    }
+
+    private ByteBuffer mapRecords(int index, int bytes) throws IOException {
+        return map(recordChannel, (long) index * ((long) recordSize << recordShift), bytes);
+    }
+
+    /**
+     * Maps the bucket file at the new size.  The part that existed before
+     * holds the old table and is zeroed; the part the mapping appends to
+     * the file is zero already.
+     */
+    @Override
+    ByteBuffer[] allocateBuckets(int capacity) {
+        try {
+            long existing = bucketChannel.size();
+            ByteBuffer[] b = mapBuckets(capacity);
+            for (int i = 0; i < b.length; i++) {
+                long start = (long) i << (BUCKET_SLAB_SHIFT + 2);
+                int end = (int) Math.min(Math.max(existing - start, 0), b[i].capacity());
+                ByteBuffer s = b[i];
+                int p = 0;
+                for (; p + 8 <= end; p += 8) {
+                    s.putLong(p, 0L);
+                }
+                for (; p < end; p++) {
+                    s.put(p, (byte) 0);
+                }
+            }
+            return b;
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    @Override
+    ByteBuffer allocateRecordSlab(int index, int bytes) {
+        try {
+            return mapRecords(index, bytes);
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    // 第一个 slab 直接映射更大的文件区域，原有记录已在文件中，无需拷贝
+    @Override
+    ByteBuffer growFirstSlab(ByteBuffer first, int bytes) {
+        return allocateRecordSlab(0, bytes);
+    }
+
+    /**
+     * Marks the header dirty, durably, before the first modification after
+     * a checkpoint, so that a crash before the next one is detected.
+     */
+    @Override
+    void beforeModification() {
+        if (!dirty) {
+            header.putInt(H_STATE, DIRTY);
+            header.force();
+            dirty = true;
+        }
+    }
+
+    /* ---------------- Checkpoint -------------- */
+
+    /**
+     * Checkpoints the map: writes all modified slabs to the storage device,
+     * then the header describing them.  Once this returns, {@link #open}
+     * will see the map as it is now, even after a crash.  Does nothing if
+     * the map has not been modified since the last checkpoint.
+     */
+    public void force() {
+        if (!dirty) {
+            return;
+        }
+        for (ByteBuffer s : slabs) {
+            ((MappedByteBuffer) s).force();
+        }
+        for (ByteBuffer b : buckets) {
+            ((MappedByteBuffer) b).force();
+        }
+
+        // 数据落盘后再写头部
+        MappedByteBuffer h = header;
+        h.putLong(H_MAGIC, MAGIC);
+        h.putInt(H_VERSION, VERSION);
+        h.putInt(H_ORDER, order == ByteOrder.BIG_ENDIAN ? 0 : 1);
+        h.putInt(H_KEY_SIZE, keySize);
+        h.putInt(H_VALUE_SIZE, recordSize - valueOffset);
+        h.putFloat(H_LOAD_FACTOR, loadFactor);
+        h.putInt(H_CAPACITY, capacity);
+        h.putInt(H_SIZE, size);
+        h.putInt(H_RECORD_CAPACITY, recordCapacity);
+        h.putInt(H_STATE, CLEAN);
+        h.force();
+        dirty = false;
+    }
+
+    /**
+     * Checkpoints the map and closes its files.  The map must not be used
+     * afterwards.  The mappings stay valid until they are garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!headerChannel.isOpen()) {
+            return;
+        }
+        force();
+        lock.release();
+        headerChannel.close();
+        bucketChannel.close();
+        recordChannel.close();
+    }
+
+    /**
+     * The open channels of a map directory, locked through the header file.
+     */
+    private static final class MapFiles {
+        final FileChannel header;
+        final FileChannel buckets;
+        final FileChannel records;
+        final FileLock lock;
+        final MappedByteBuffer headerBuffer;
+
+        private MapFiles(FileChannel header, FileChannel buckets, FileChannel records,
+                       FileLock lock, MappedByteBuffer headerBuffer) {
+            this.header = header;
+            this.buckets = buckets;
+            this.records = records;
+            this.lock = lock;
+            this.headerBuffer = headerBuffer;
+        }
+
+        static MapFiles open(Path dir, boolean create) throws IOException {
+            FileChannel h = FileChannel.open(dir.resolve(HEADER_FILE), create
+                    ? new StandardOpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE}
+                    : new StandardOpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE});
+            FileChannel b = null;
+            FileChannel r = null;
+            try {
+                FileLock lock;
+                try {
+                    lock = h.tryLock();
+                } catch (OverlappingFileLockException e) {
+                    // 本 JVM 内已打开
+                    lock = null;
+                }
+                if (lock == null) {
+                    throw new IOException("Map is in use: " + dir);
+                }
+                if (create) {
+                    // 清空旧数据：新建时桶文件必须全为 0
+                    h.truncate(0);
+                }
+                StandardOpenOption[] options = create
+                        ? new StandardOpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING}
+                        : new StandardOpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE};
+                b = FileChannel.open(dir.resolve(BUCKETS_FILE), options);
+                r = FileChannel.open(dir.resolve(RECORDS_FILE), options);
+                if (!create && h.size() < HEADER_SIZE) {
+                    throw new IOException("Not a map: " + dir);
+                }
+                MappedByteBuffer hb = h.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+                return new MapFiles(h, b, r, lock, hb);
+            } catch (IOException | RuntimeException e) {
+                closeQuietly(r);
+                closeQuietly(b);
+                closeQuietly(h);
+                throw e;
+            }
+        }
+
+        void close() {
+            closeQuietly(records);
+            closeQuietly(buckets);
+            closeQuietly(header);
+        }
+
+        private static void closeQuietly(Closeable c) {
+            if (c != null) {
+                try {
+                    c.close();
+                } catch (IOException ignored) {
+                    // 已在处理其他异常
+                }
+            }
+        }
+    }
+}
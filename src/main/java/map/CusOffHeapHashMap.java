@@ -0,0 +1,802 @@
+package map;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+
+/**
+ * Hash map whose bucket table and mappings live outside the Java heap, in
+ * direct {@link ByteBuffer} slabs.  Keys and values are stored in their
+ * encoded form through fixed-size {@link Codec}s, so the heap only holds the
+ * map object and a handful of buffer references no matter how many
+ * mappings there are, and the garbage collector never scans them.
+ *
+ * <p>A key's hash is computed from its encoded bytes, and its bucket is
+ * chosen from that hash with the same {@link CusHashMap#indexFor} math as
+ * {@code CusHashMap}; collisions are chained.  Every mapping is a record of
+ * <pre>
+ *   next (int) | hash (int) | key (keyCodec.size()) | value (valueCodec.size())
+ * </pre>
+ * where {@code next} and the bucket slots hold a record id plus one, 0
+ * meaning "none", so freshly allocated (zeroed) memory is an empty table.
+ * Records are packed into the ids [0, size): a removal moves the last
+ * record into the freed id, and iteration runs in O(size).
+ *
+ * <p>Record slabs never move once full; only the first slab is
+ * reallocated, doubling, until it reaches full size, so a small map costs
+ * little memory.  Off-heap memory is released when the buffers are garbage
+ * collected.  {@link CusMappedHashMap} places the slabs in memory-mapped
+ * files instead.
+ *
+ * <p>Keys are compared and hashed by their encoded bytes (see {@link
+ * Codec}), never by {@code equals} or {@code hashCode}.  Null
+ * keys and values are not permitted.  The Map.Entry objects returned by
+ * the entry set iterator hold a decoded copy of the key and read and write
+ * the value through to the map.  This map is not synchronized, and even
+ * lookups must not run concurrently, as they share an encoding buffer.
+ *
+ * <p>堆外 Map：桶数组与记录都存放在直接内存中，堆上只保留少量 ByteBuffer 引用</p>
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public class CusOffHeapHashMap<K, V>
+        extends CusAbstractMap<K, V>
+        implements Map<K, V> {
+
+    static final int DEFAULT_INITIAL_CAPACITY = 1 << 4; // aka 16
+
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    // 单个 slab 的最大字节数
+    static final int MAX_SLAB_BYTES = 1 << 30;
+
+    // 每个桶 slab 最多容纳 2^28 个桶（1GB）
+    static final int BUCKET_SLAB_SHIFT = 28;
+
+    static final int BUCKET_SLAB_MASK = (1 << BUCKET_SLAB_SHIFT) - 1;
+
+    // 记录内各字段的偏移
+    static final int NEXT = 0;
+
+    static final int HASH = 4;
+
+    static final int KEY = 8;
+
+    final Codec<K> keyCodec;
+
+    final Codec<V> valueCodec;
+
+    final int keySize;
+
+    final int valueOffset;
+
+    final int recordSize;
+
+    // 每个满 slab 容纳 2^recordShift 条记录
+    final int recordShift;
+
+    final int recordMask;
+
+    // 记录 slab：除第一个外都是满 slab
+    ByteBuffer[] slabs;
+
+    // 已分配的记录数
+    int recordCapacity;
+
+    // 桶 slab：桶中存放链表头记录 id + 1
+    ByteBuffer[] buckets;
+
+    // 桶的数量，必须为 2 的次幂
+    int capacity;
+
+    /**
+     * The number of key-value mappings contained in this map.
+     */
+    int size;
+
+    // 扩容阈值，capacity * load factor
+    int threshold;
+
+    final float loadFactor;
+
+    // 结构修改次数，用于迭代时 fail-fast
+    int modCount;
+
+    // slab 与编码缓冲区共用的字节序，key 的字节与其 hash 都依赖于它
+    final ByteOrder order;
+
+    // 查找时 key 先编码到这里，再与记录中的字节比较
+    private final ByteBuffer scratch;
+
+    public CusOffHeapHashMap(Codec<K> keyCodec, Codec<V> valueCodec,
+                             int initialCapacity, float loadFactor) {
+        this(keyCodec, valueCodec, loadFactor, ByteOrder.nativeOrder());
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: " +
+                    initialCapacity);
+        }
+
+        if (initialCapacity > MAXIMUM_CAPACITY) {
+            initialCapacity = MAXIMUM_CAPACITY;
+        }
+
+        initTable(initialCapacity);
+    }
+
+    public CusOffHeapHashMap(Codec<K> keyCodec, Codec<V> valueCodec, int initialCapacity) {
+        this(keyCodec, valueCodec, initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    public CusOffHeapHashMap(Codec<K> keyCodec, Codec<V> valueCodec) {
+        this(keyCodec, valueCodec, DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * Computes the record layout but allocates nothing.  The caller must
+     * either call {@link #initTable} or restore the slabs and counts of an
+     * existing table before the map is used.  Slabs and the buffers keys
+     * and values are encoded into for comparison all use the given byte
+     * order.
+     */
+    CusOffHeapHashMap(Codec<K> keyCodec, Codec<V> valueCodec, float loadFactor, ByteOrder order) {
+        if (loadFactor <= 0 || Float.isNaN(loadFactor)) {
+            throw new IllegalArgumentException("Illegal load factor: " +
+                    loadFactor);
+        }
+
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.loadFactor = loadFactor;
+        this.order = order;
+
+        keySize = keyCodec.size();
+        valueOffset = KEY + keySize;
+        recordSize = valueOffset + valueCodec.size();
+        if (recordSize > MAX_SLAB_BYTES) {
+            throw new IllegalArgumentException("Record too large: " + recordSize);
+        }
+
+        // 满 slab 的记录数取 2 的次幂，便于由 id 计算 slab 与偏移
+        int shift = 0;
+        while (shift < 30 && ((long) recordSize << (shift + 1)) <= MAX_SLAB_BYTES) {
+            shift++;
+        }
+        recordShift = shift;
+        recordMask = (1 << shift) - 1;
+
+        scratch = ByteBuffer.allocate(Math.max(keySize, 8)).order(order);
+    }
+
+    /**
+     * Allocates an empty table for the given initial capacity.
+     */
+    final void initTable(int initialCapacity) {
+        capacity = CusHashMap.roundUpToPowerOf2(Math.max(initialCapacity, 1));
+        threshold = (int) Math.min(capacity * loadFactor, MAXIMUM_CAPACITY + 1);
+        buckets = allocateBuckets(capacity);
+
+        int records = (int) Math.min(Math.max(threshold, DEFAULT_INITIAL_CAPACITY), 1L << recordShift);
+        slabs = new ByteBuffer[]{allocateRecordSlab(0, records * recordSize)};
+        recordCapacity = records;
+    }
+
+    /**
+     * Allocates a zeroed slab of the given size in direct memory, in the
+     * map's byte order.  Subclasses that place the slabs elsewhere
+     * override allocateBuckets and allocateRecordSlab instead, and give
+     * those slabs the same order.
+     */
+    private ByteBuffer allocateSlab(int bytes) {
+        return ByteBuffer.allocateDirect(bytes).order(order);
+    }
+
+    /**
+     * Allocates a zeroed bucket table of the given capacity.  Nothing reads
+     * the previous table afterwards, so subclasses may reuse its storage.
+     */
+    ByteBuffer[] allocateBuckets(int capacity) {
+        int n = ((capacity - 1) >>> BUCKET_SLAB_SHIFT) + 1;
+        ByteBuffer[] b = new ByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            b[i] = allocateSlab(Math.min(capacity, 1 << BUCKET_SLAB_SHIFT) << 2);
+        }
+        return b;
+    }
+
+    /**
+     * Allocates record slab number index.  Every record is written in full
+     * before it is read, so the slab need not be zeroed.
+     */
+    ByteBuffer allocateRecordSlab(int index, int bytes) {
+        return allocateSlab(bytes);
+    }
+
+    /**
+     * Returns a first record slab of the given size holding the records
+     * of first.
+     */
+    ByteBuffer growFirstSlab(ByteBuffer first, int bytes) {
+        ByteBuffer old = first.duplicate();
+        old.clear();
+        ByteBuffer grown = allocateRecordSlab(0, bytes);
+        grown.put(old);
+        grown.clear();
+        return grown;
+    }
+
+    /**
+     * Called before every modification of the slabs.
+     */
+    void beforeModification() {
+    }
+
+    /* ---------------- Record addressing -------------- */
+
+    final ByteBuffer slab(int id) {
+        return slabs[id >>> recordShift];
+    }
+
+    final int offset(int id) {
+        return (id & recordMask) * recordSize;
+    }
+
+    // 桶中存放的是记录 id + 1，0 表示空
+    final int head(int bucket) {
+        return buckets[bucket >>> BUCKET_SLAB_SHIFT].getInt((bucket & BUCKET_SLAB_MASK) << 2);
+    }
+
+    final void setHead(int bucket, int ref) {
+        buckets[bucket >>> BUCKET_SLAB_SHIFT].putInt((bucket & BUCKET_SLAB_MASK) << 2, ref);
+    }
+
+    final int nextRef(int id) {
+        return slab(id).getInt(offset(id) + NEXT);
+    }
+
+    final void setNextRef(int id, int ref) {
+        slab(id).putInt(offset(id) + NEXT, ref);
+    }
+
+    final int hashAt(int id) {
+        return slab(id).getInt(offset(id) + HASH);
+    }
+
+    final K keyAt(int id) {
+        return keyCodec.read(slab(id), offset(id) + KEY);
+    }
+
+    final V valueAt(int id) {
+        return valueCodec.read(slab(id), offset(id) + valueOffset);
+    }
+
+    /**
+     * Returns the hash of the key already encoded in scratch.  Keys are
+     * hashed by their encoded bytes, like they are compared, so that the
+     * hash does not depend on hashCode(), which need not be the same in
+     * another JVM, and the bucket table of a persistent map stays valid.
+     */
+    private int hashEncoded() {
+        ByteBuffer k = scratch;
+        long h = keySize;
+        int i = 0;
+        for (; i + 8 <= keySize; i += 8) {
+            h = (h ^ k.getLong(i)) * 0x9E3779B97F4A7C15L;
+            h ^= h >>> 32;
+        }
+        for (; i < keySize; i++) {
+            h = (h ^ (k.get(i) & 0xFF)) * 0x9E3779B97F4A7C15L;
+        }
+        // 末尾再混合一次，使低位也依赖所有字节
+        h ^= h >>> 29;
+        h *= 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 32;
+        return (int) h;
+    }
+
+    /* ---------------- Lookup -------------- */
+
+    // 将 key 编码到 scratch 中
+    private void encodeKey(K key) {
+        keyCodec.write(scratch, 0, key);
+    }
+
+    // 比较记录中的 key 与 scratch 中已编码的 key
+    private boolean keyBytesEqual(ByteBuffer s, int off) {
+        ByteBuffer k = scratch;
+        int i = 0;
+        for (; i + 8 <= keySize; i += 8) {
+            if (s.getLong(off + i) != k.getLong(i)) {
+                return false;
+            }
+        }
+        for (; i < keySize; i++) {
+            if (s.get(off + i) != k.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the id of the record holding the key already encoded in
+     * scratch, or -1.
+     */
+    private int findEncoded(int hash) {
+        for (int ref = head(CusHashMap.indexFor(hash, capacity)); ref != 0; ) {
+            int id = ref - 1;
+            ByteBuffer s = slab(id);
+            int off = offset(id);
+            if (s.getInt(off + HASH) == hash && keyBytesEqual(s, off + KEY)) {
+                return id;
+            }
+            ref = s.getInt(off + NEXT);
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    final int findRecord(Object key) {
+        if (key == null || size == 0) {
+            return -1;
+        }
+        encodeKey((K) key);
+        return findEncoded(hashEncoded());
+    }
+
+    /**
+     * Returns the number of key-value mappings in this map.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map contains no key-value mappings.
+     */
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public V get(Object key) {
+        int id = findRecord(key);
+        return id < 0 ? null : valueAt(id);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return findRecord(key) >= 0;
+    }
+
+    /**
+     * Returns <tt>true</tt> if some mapping has the given value, comparing
+     * encoded bytes.  Runs in O(size) without decoding any value.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean containsValue(Object value) {
+        if (value == null || size == 0) {
+            return false;
+        }
+        int vs = valueCodec.size();
+        ByteBuffer v = ByteBuffer.allocate(Math.max(vs, 1)).order(order);
+        valueCodec.write(v, 0, (V) value);
+        for (int id = 0; id < size; id++) {
+            ByteBuffer s = slab(id);
+            int off = offset(id) + valueOffset;
+            int i = 0;
+            while (i < vs && s.get(off + i) == v.get(i)) {
+                i++;
+            }
+            if (i == vs) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* ---------------- Modification -------------- */
+
+    /**
+     * Associates the specified value with the specified key in this map.
+     *
+     * @return the previous value associated with <tt>key</tt>, or
+     * <tt>null</tt> if there was no mapping for <tt>key</tt>.
+     * @throws NullPointerException  if key or value is null
+     * @throws IllegalStateException if no more records can be allocated
+     */
+    @Override
+    public V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+
+        beforeModification();
+
+        // 1. 查找已存在数据，覆盖 value 字节
+        encodeKey(key);
+        int hash = hashEncoded();
+        int id = findEncoded(hash);
+        if (id >= 0) {
+            V oldValue = valueAt(id);
+            valueCodec.write(slab(id), offset(id) + valueOffset, value);
+            return oldValue;
+        }
+
+        // 2. 扩容判断，再追加记录
+        modCount++;
+        if (size >= threshold) {
+            resize(capacity * 2);
+        }
+        if (size == recordCapacity) {
+            growRecords();
+        }
+
+        id = size;
+        int bucket = CusHashMap.indexFor(hash, capacity);
+        ByteBuffer s = slab(id);
+        int off = offset(id);
+        s.putInt(off + NEXT, head(bucket));
+        s.putInt(off + HASH, hash);
+        keyCodec.write(s, off + KEY, key);
+        valueCodec.write(s, off + valueOffset, value);
+        setHead(bucket, id + 1);
+        size++;
+        return null;
+    }
+
+    /**
+     * Makes room for one more record: the first slab doubles until it is
+     * full-size, after that full slabs are appended.  Full slabs never move.
+     */
+    private void growRecords() {
+        int full = 1 << recordShift;
+        if (slabs.length == 1 && recordCapacity < full) {
+            // 第一个 slab 翻倍重新分配并拷贝
+            int records = (int) Math.min((long) recordCapacity << 1, full);
+            slabs[0] = growFirstSlab(slabs[0], records * recordSize);
+            recordCapacity = records;
+            return;
+        }
+
+        if (recordCapacity > Integer.MAX_VALUE - 1 - full) {
+            throw new IllegalStateException("Capacity exhausted.");
+        }
+        slabs = Arrays.copyOf(slabs, slabs.length + 1);
+        slabs[slabs.length - 1] = allocateRecordSlab(slabs.length - 1, full * recordSize);
+        recordCapacity += full;
+    }
+
+    /**
+     * Rebuilds the bucket table with the given capacity.  Records stay in
+     * place; only their next links are rewritten.
+     */
+    private void resize(int newCapacity) {
+        if (capacity == MAXIMUM_CAPACITY) {
+            threshold = Integer.MAX_VALUE;
+            return;
+        }
+
+        buckets = allocateBuckets(newCapacity);
+        capacity = newCapacity;
+        for (int id = 0; id < size; id++) {
+            int bucket = CusHashMap.indexFor(hashAt(id), newCapacity);
+            setNextRef(id, head(bucket));
+            setHead(bucket, id + 1);
+        }
+        threshold = (int) Math.min(newCapacity * loadFactor, MAXIMUM_CAPACITY + 1);
+    }
+
+    @Override
+    public V remove(Object key) {
+        int id = findRecord(key);
+        if (id < 0) {
+            return null;
+        }
+        V oldValue = valueAt(id);
+        modCount++;
+        deleteRecord(id);
+        return oldValue;
+    }
+
+    /**
+     * Unlinks record id, then moves the last record into id so that
+     * [0, size) stays dense.
+     */
+    private void deleteRecord(int id) {
+        beforeModification();
+
+        // 1. 从所在链表中摘除
+        relink(id, nextRef(id));
+
+        // 2. 最后一条记录移入空出的 id，指向它的链接改为 id
+        int last = --size;
+        if (id != last) {
+            relink(last, id + 1);
+            ByteBuffer src = slab(last).duplicate();
+            int from = offset(last);
+            src.limit(from + recordSize).position(from);
+            ByteBuffer dst = slab(id).duplicate();
+            dst.position(offset(id));
+            dst.put(src);
+        }
+    }
+
+    // 将指向记录 id 的链接（桶头或前驱的 next）改为 ref
+    private void relink(int id, int ref) {
+        int bucket = CusHashMap.indexFor(hashAt(id), capacity);
+        int p = head(bucket);
+        if (p == id + 1) {
+            setHead(bucket, ref);
+            return;
+        }
+        while (nextRef(p - 1) != id + 1) {
+            p = nextRef(p - 1);
+        }
+        setNextRef(p - 1, ref);
+    }
+
+    /**
+     * Removes all of the mappings from this map.  The bucket table keeps
+     * its capacity; record slabs beyond the first are released.
+     */
+    @Override
+    public void clear() {
+        beforeModification();
+        modCount++;
+        buckets = allocateBuckets(capacity);
+        if (slabs.length > 1) {
+            slabs = new ByteBuffer[]{slabs[0]};
+            recordCapacity = 1 << recordShift;
+        }
+        size = 0;
+    }
+
+    /**
+     * Returns the number of off-heap bytes held by this map's slabs.
+     */
+    public long offHeapBytes() {
+        long bytes = 0;
+        for (ByteBuffer b : buckets) {
+            bytes += b.capacity();
+        }
+        for (ByteBuffer s : slabs) {
+            bytes += s.capacity();
+        }
+        return bytes;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /* ---------------- Iterator Support -------------- */
+
+    /**
+     * Iterators walk the record ids from size - 1 down to 0.  Removing the
+     * current mapping moves the last record, which has already been
+     * returned, into the current id, so nothing is skipped or repeated.
+     */
+    private abstract class RecordIterator<E> implements Iterator<E> {
+        int index;                  // id of the next record, plus one
+        int lastReturned = -1;      // id of the record last returned
+        int expectedModCount;       // For fast-fail
+
+        RecordIterator() {
+            expectedModCount = modCount;
+            index = size;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index > 0;
+        }
+
+        final int nextId() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (index == 0) {
+                throw new NoSuchElementException();
+            }
+            return lastReturned = --index;
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            modCount++;
+            deleteRecord(lastReturned);
+            lastReturned = -1;
+            expectedModCount = modCount;
+        }
+    }
+
+    private final class KeyIterator extends RecordIterator<K> {
+        @Override
+        public K next() {
+            return keyAt(nextId());
+        }
+    }
+
+    private final class ValueIterator extends RecordIterator<V> {
+        @Override
+        public V next() {
+            return valueAt(nextId());
+        }
+    }
+
+    private final class EntryIterator extends RecordIterator<Map.Entry<K, V>> {
+        @Override
+        public Map.Entry<K, V> next() {
+            return new RecordEntry(keyAt(nextId()));
+        }
+    }
+
+    /**
+     * Entry holding a decoded copy of the key.  Records move when others
+     * are removed, so the value is looked up by key on every access.
+     */
+    private final class RecordEntry implements Map.Entry<K, V> {
+        final K key;
+
+        RecordEntry(K key) {
+            this.key = key;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return get(key);
+        }
+
+        @Override
+        public V setValue(V value) {
+            return put(key, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry e = (Map.Entry) o;
+            return Objects.equals(getKey(), e.getKey())
+                    && Objects.equals(getValue(), e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    // Views - 视图部分实现
+
+    private transient Set<Map.Entry<K, V>> entrySet = null;
+
+    @Override
+    public Set<K> keySet() {
+        Set<K> ks = keySet;
+        return ks != null ? ks : (keySet = new KeySet());
+    }
+
+    private final class KeySet extends AbstractSet<K> {
+        @Override
+        public Iterator<K> iterator() {
+            return new KeyIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            int before = size;
+            CusOffHeapHashMap.this.remove(o);
+            return size != before;
+        }
+
+        @Override
+        public void clear() {
+            CusOffHeapHashMap.this.clear();
+        }
+    }
+
+    @Override
+    public Collection<V> values() {
+        Collection<V> vs = values;
+        return vs != null ? vs : (values = new Values());
+    }
+
+    private final class Values extends AbstractCollection<V> {
+        @Override
+        public Iterator<V> iterator() {
+            return new ValueIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsValue(o);
+        }
+
+        @Override
+        public void clear() {
+            CusOffHeapHashMap.this.clear();
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> es = entrySet;
+        return es != null ? es : (entrySet = new EntrySet());
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            int id = findRecord(e.getKey());
+            return id >= 0 && Objects.equals(valueAt(id), e.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!contains(o)) {
+                return false;
+            }
+            CusOffHeapHashMap.this.remove(((Map.Entry<?, ?>) o).getKey());
+            return true;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void clear() {
+            CusOffHeapHashMap.this.clear();
+        }
+    }
+}
@@ -0,0 +1,800 @@
+package map;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Open-addressing sibling of {@link CusHashMap}.  Instead of one
+ * {@link CusHashMap.Entry} object per mapping, keys, values and hashes are
+ * kept in three parallel arrays indexed by slot, and collisions are resolved
+ * by linear probing with Robin Hood displacement: an inserted key takes over
+ * the slot of any resident key that sits closer to its home slot, which keeps
+ * probe lengths short and lets unsuccessful lookups stop early.  Removal uses
+ * backward-shift deletion, so there are no tombstones.
+ *
+ * <p>Like {@code CusHashMap}, this map permits null keys and null values, is
+ * not synchronized, and its iterators are fail-fast.  The load factor must be
+ * below 1 since every slot holds at most one mapping.
+ *
+ * <p>开放寻址 + Robin Hood 探测：key、value、hash 分别存放在三个平行数组中，省去 Entry 对象</p>
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public class CusOpenHashMap<K, V>
+        extends CusAbstractMap<K, V>
+        implements Map<K, V>, Cloneable, Serializable {
+
+    static final int DEFAULT_INITIAL_CAPACITY = 1 << 4; // aka 16
+
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    // 所有空 Map 之间，共享一个空数组
+    static final Object[] EMPTY_TABLE = {};
+
+    static final int[] EMPTY_HASHES = {};
+
+    /**
+     * Value representing null keys inside tables.  A null slot in
+     * {@link #keys} always means "empty".
+     */
+    static final Object NULL_KEY = new Object();
+
+    // 三个平行数组，长度相同且必须为 2 的次幂
+    transient Object[] keys = EMPTY_TABLE;
+
+    transient Object[] vals = EMPTY_TABLE;
+
+    transient int[] hashes = EMPTY_HASHES;
+
+    /**
+     * The number of key-value mappings contained in this map.
+     */
+    transient int size;
+
+    // 扩容阈值；初始时 keys == EMPTY_TABLE, 则 threshold = initial capacity
+    int threshold;
+
+    final float loadFactor;
+
+    // 结构修改次数，用于迭代时 fail-fast
+    transient int modCount;
+
+    public CusOpenHashMap(int initialCapacity, float loadFactor) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: " +
+                    initialCapacity);
+        }
+
+        if (initialCapacity > MAXIMUM_CAPACITY) {
+            initialCapacity = MAXIMUM_CAPACITY;
+        }
+
+        // 每个槽位只能存放一个映射，负载因子必须小于 1
+        if (loadFactor <= 0 || loadFactor >= 1 || Float.isNaN(loadFactor)) {
+            throw new IllegalArgumentException("Illegal load factor: " +
+                    loadFactor);
+        }
+
+        this.loadFactor = loadFactor;
+        threshold = initialCapacity;
+    }
+
+    public CusOpenHashMap(int initialCapacity) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    public CusOpenHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR);
+    }
+
+    public CusOpenHashMap(Map<? extends K, ? extends V> map) {
+        this(Math.max((int) (map.size() / DEFAULT_LOAD_FACTOR) + 1,
+                DEFAULT_INITIAL_CAPACITY), DEFAULT_LOAD_FACTOR);
+
+        inflateTable(threshold);
+
+        for (Map.Entry<? extends K, ? extends V> e : map.entrySet()) {
+            putForCreate(e.getKey(), e.getValue());
+        }
+    }
+
+    // 表初次膨胀，容量至少为 2，保证始终存在空槽
+    private void inflateTable(int toSize) {
+        int capacity = Math.max(CusHashMap.roundUpToPowerOf2(toSize), 2);
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        threshold = thresholdFor(capacity);
+        keys = new Object[capacity];
+        vals = new Object[capacity];
+        hashes = new int[capacity];
+    }
+
+    // 阈值最多为 capacity - 1，保证至少留有一个空槽（查找与迭代依赖这一点）
+    private int thresholdFor(int capacity) {
+        return (int) Math.min(capacity * loadFactor, capacity - 1);
+    }
+
+    /**
+     * Applies the same supplemental hash function as {@link CusHashMap},
+     * which defends against poor quality hash functions.  Null keys
+     * always hash to 0.
+     */
+    static int hash(Object k) {
+        if (k == null) {
+            return 0;
+        }
+        int h = k.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+
+    private static Object maskNull(Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K> K unmaskNull(Object key) {
+        return key == NULL_KEY ? null : (K) key;
+    }
+
+    /**
+     * Distance of the mapping stored at slot i from its home slot.
+     */
+    private static int probeDistance(int hash, int i, int mask) {
+        return (i - (hash & mask)) & mask;
+    }
+
+    /**
+     * Returns the slot holding the given (masked) key, or -1.  Because
+     * Robin Hood insertion keeps every probe sequence ordered by distance,
+     * the search stops as soon as it meets a resident closer to home than
+     * the current probe length.
+     */
+    final int findIndex(Object k, int hash) {
+        if (size == 0) {
+            return -1;
+        }
+        Object[] ks = keys;
+        int[] hs = hashes;
+        int mask = ks.length - 1;
+        for (int i = hash & mask, dist = 0; ; i = (i + 1) & mask, dist++) {
+            Object x = ks[i];
+            if (x == null) {
+                return -1;
+            }
+            int h = hs[i];
+            if (h == hash && (x == k || k.equals(x))) {
+                return i;
+            }
+            if (dist > probeDistance(h, i, mask)) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of key-value mappings in this map.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns <tt>true</tt> if this map contains no key-value mappings.
+     */
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int i = findIndex(maskNull(key), hash(key));
+        return i < 0 ? null : (V) vals[i];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return findIndex(maskNull(key), hash(key)) >= 0;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        Object[] ks = keys;
+        Object[] vs = vals;
+        for (int i = 0; i < ks.length; i++) {
+            if (ks[i] != null) {
+                Object v = vs[i];
+                if (v == value || (value != null && value.equals(v))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Associates the specified value with the specified key in this map.
+     * If the map previously contained a mapping for the key, the old
+     * value is replaced.
+     *
+     * @param key   key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @return the previous value associated with <tt>key</tt>, or
+     * <tt>null</tt> if there was no mapping for <tt>key</tt>.
+     * @throws IllegalStateException if the table is already at
+     *                               MAXIMUM_CAPACITY and has no free slot left
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        // 1. 判断是否为初始空
+        if (keys == EMPTY_TABLE) {
+            inflateTable(threshold);
+        }
+
+        // 2. 查找已存在数据
+        Object k = maskNull(key);
+        int hash = hash(key);
+        int i = findIndex(k, hash);
+        if (i >= 0) {
+            V oldValue = (V) vals[i];
+            vals[i] = value;
+            return oldValue;
+        }
+
+        // 3. 扩容判断，再插入
+        modCount++;
+        if (size >= threshold) {
+            resize(keys.length * 2);
+        }
+        insert(hash, k, value);
+        size++;
+        return null;
+    }
+
+    /**
+     * Used instead of put by constructors and readObject; the table is
+     * already large enough.
+     */
+    private void putForCreate(K key, V value) {
+        Object k = maskNull(key);
+        int hash = hash(key);
+        int i = findIndex(k, hash);
+        if (i >= 0) {
+            vals[i] = value;
+            return;
+        }
+        insert(hash, k, value);
+        size++;
+    }
+
+    /**
+     * Robin Hood insertion of a key known to be absent.  Walking the probe
+     * sequence, the carried mapping swaps places with any resident whose
+     * probe distance is shorter than the carried one's, and the displaced
+     * resident continues the walk.
+     */
+    private void insert(int hash, Object k, Object v) {
+        Object[] ks = keys;
+        Object[] vs = vals;
+        int[] hs = hashes;
+        int mask = ks.length - 1;
+        for (int i = hash & mask, dist = 0; ; i = (i + 1) & mask, dist++) {
+            Object x = ks[i];
+            if (x == null) {
+                ks[i] = k;
+                vs[i] = v;
+                hs[i] = hash;
+                return;
+            }
+            int d = probeDistance(hs[i], i, mask);
+            if (d < dist) {
+                // 劫富济贫：当前元素离家更近，让位给探测距离更远的待插入元素
+                int th = hs[i];
+                Object tv = vs[i];
+                hs[i] = hash;
+                ks[i] = k;
+                vs[i] = v;
+                hash = th;
+                k = x;
+                v = tv;
+                dist = d;
+            }
+        }
+    }
+
+    /**
+     * Rehashes the contents of this map into arrays of the given capacity.
+     * If current capacity is MAXIMUM_CAPACITY the table cannot grow; the
+     * threshold is raised to the last free slot instead, and an exception
+     * is thrown once that is used up.
+     */
+    private void resize(int newCapacity) {
+        Object[] oldKeys = keys;
+        Object[] oldVals = vals;
+        int[] oldHashes = hashes;
+        int oldCapacity = oldKeys.length;
+
+        if (oldCapacity == MAXIMUM_CAPACITY) {
+            if (size + 1 >= MAXIMUM_CAPACITY) {
+                throw new IllegalStateException("Capacity exhausted.");
+            }
+            threshold = MAXIMUM_CAPACITY - 1;
+            return;
+        }
+
+        allocate(newCapacity);
+        for (int j = 0; j < oldCapacity; j++) {
+            Object k = oldKeys[j];
+            if (k != null) {
+                insert(oldHashes[j], k, oldVals[j]);
+            }
+        }
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        int numberKeysToBeAdded = m.size();
+        if (numberKeysToBeAdded == 0) {
+            return;
+        }
+
+        if (keys == EMPTY_TABLE) {
+            inflateTable((int) Math.max(numberKeysToBeAdded / loadFactor + 1, threshold));
+        } else if (numberKeysToBeAdded >= threshold) {
+            // 与 CusHashMap 相同的保守判断，最多多一次扩容
+            int targetCapacity = (int) Math.min(numberKeysToBeAdded / loadFactor + 1,
+                    MAXIMUM_CAPACITY);
+            int newCapacity = keys.length;
+            while (newCapacity < targetCapacity) {
+                newCapacity <<= 1;
+            }
+            if (newCapacity > keys.length) {
+                resize(newCapacity);
+            }
+        }
+
+        for (Map.Entry<? extends K, ? extends V> e : m.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        int i = findIndex(maskNull(key), hash(key));
+        if (i < 0) {
+            return null;
+        }
+        V oldValue = (V) vals[i];
+        modCount++;
+        size--;
+        deleteAt(i);
+        return oldValue;
+    }
+
+    /**
+     * Backward-shift deletion: every following mapping of the cluster that
+     * is not at its home slot moves back by one, so no tombstone is needed
+     * and probe distances shrink.
+     */
+    private void deleteAt(int i) {
+        Object[] ks = keys;
+        Object[] vs = vals;
+        int[] hs = hashes;
+        int mask = ks.length - 1;
+        for (int j = (i + 1) & mask; ; i = j, j = (j + 1) & mask) {
+            Object x = ks[j];
+            if (x == null || probeDistance(hs[j], j, mask) == 0) {
+                ks[i] = null;
+                vs[i] = null;
+                hs[i] = 0;
+                return;
+            }
+            ks[i] = x;
+            vs[i] = vs[j];
+            hs[i] = hs[j];
+        }
+    }
+
+    /**
+     * Removes all of the mappings from this map.
+     * The map will be empty after this call returns.
+     */
+    @Override
+    public void clear() {
+        modCount++;
+        Arrays.fill(keys, null);
+        Arrays.fill(vals, null);
+        size = 0;
+    }
+
+    /**
+     * Returns a shallow copy of this map: the keys and values themselves
+     * are not cloned.  The slot arrays are copied as they are, so no
+     * mapping is re-hashed.
+     *
+     * @return a shallow copy of this map
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object clone() {
+        CusOpenHashMap<K, V> result = null;
+        try {
+            result = (CusOpenHashMap<K, V>) super.clone();
+        } catch (CloneNotSupportedException e) {
+            // assert false;
+        }
+        if (keys != EMPTY_TABLE) {
+            result.keys = keys.clone();
+            result.vals = vals.clone();
+            result.hashes = hashes.clone();
+        }
+        result.entrySet = null;
+        result.modCount = 0;
+        return result;
+    }
+
+    /* ---------------- Iterator Support -------------- */
+
+    /**
+     * Iterators start right after an empty slot and walk the table
+     * cyclically.  Backward-shift deletion never moves a mapping across an
+     * empty slot, so removing through the iterator can only pull not yet
+     * visited mappings back into the current slot, which is then examined
+     * again.
+     */
+    private abstract class OpenIterator<E> implements Iterator<E> {
+        int start;                  // an empty slot
+        int cursor;                 // offset from start of the next slot to return
+        int lastCursor = -1;        // offset of the slot last returned
+        int expectedModCount;       // For fast-fail
+
+        OpenIterator() {
+            expectedModCount = modCount;
+            Object[] ks = keys;
+            if (size > 0) {
+                while (ks[start] != null) {
+                    start++;
+                }
+                cursor = 1;
+                advance();
+            } else {
+                cursor = ks.length;
+            }
+        }
+
+        private void advance() {
+            Object[] ks = keys;
+            int n = ks.length;
+            int mask = n - 1;
+            while (cursor < n && ks[(start + cursor) & mask] == null) {
+                cursor++;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return cursor < keys.length;
+        }
+
+        final int nextIndex() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (cursor >= keys.length) {
+                throw new NoSuchElementException();
+            }
+            int i = (start + cursor) & (keys.length - 1);
+            lastCursor = cursor++;
+            advance();
+            return i;
+        }
+
+        @Override
+        public void remove() {
+            if (lastCursor < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            modCount++;
+            size--;
+            deleteAt((start + lastCursor) & (keys.length - 1));
+
+            // 后续元素可能前移到当前槽位，需要重新检查
+            cursor = lastCursor;
+            lastCursor = -1;
+            advance();
+            expectedModCount = modCount;
+        }
+    }
+
+    private final class KeyIterator extends OpenIterator<K> {
+        @Override
+        public K next() {
+            return unmaskNull(keys[nextIndex()]);
+        }
+    }
+
+    private final class ValueIterator extends OpenIterator<V> {
+        @Override
+        @SuppressWarnings("unchecked")
+        public V next() {
+            return (V) vals[nextIndex()];
+        }
+    }
+
+    private final class EntryIterator extends OpenIterator<Map.Entry<K, V>> {
+        @Override
+        public Map.Entry<K, V> next() {
+            int i = nextIndex();
+            return new SlotEntry(i, keys[i]);
+        }
+    }
+
+    /**
+     * Entry view over a slot.  Mappings can move when others are removed,
+     * so the slot is re-located by key if it no longer holds this entry's
+     * key; writes go through to the map.
+     */
+    private final class SlotEntry implements Map.Entry<K, V> {
+        final Object key;   // masked
+        int index;
+
+        SlotEntry(int index, Object key) {
+            this.index = index;
+            this.key = key;
+        }
+
+        private int slot() {
+            Object[] ks = keys;
+            if (index >= ks.length || ks[index] != key) {
+                index = findIndex(key, hash(unmaskNull(key)));
+            }
+            return index;
+        }
+
+        @Override
+        public K getKey() {
+            return unmaskNull(key);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V getValue() {
+            int i = slot();
+            return i < 0 ? null : (V) vals[i];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V setValue(V value) {
+            int i = slot();
+            if (i < 0) {
+                return put(getKey(), value);
+            }
+            V oldValue = (V) vals[i];
+            vals[i] = value;
+            return oldValue;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry e = (Map.Entry) o;
+            return Objects.equals(getKey(), e.getKey())
+                    && Objects.equals(getValue(), e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    // Views - 视图部分实现
+
+    private transient Set<Map.Entry<K, V>> entrySet = null;
+
+    @Override
+    public Set<K> keySet() {
+        Set<K> ks = keySet;
+        return ks != null ? ks : (keySet = new KeySet());
+    }
+
+    private final class KeySet extends AbstractSet<K> {
+        @Override
+        public Iterator<K> iterator() {
+            return new KeyIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            int before = size;
+            CusOpenHashMap.this.remove(o);
+            return size != before;
+        }
+
+        @Override
+        public void clear() {
+            CusOpenHashMap.this.clear();
+        }
+    }
+
+    @Override
+    public Collection<V> values() {
+        Collection<V> vs = values;
+        return vs != null ? vs : (values = new Values());
+    }
+
+    private final class Values extends AbstractCollection<V> {
+        @Override
+        public Iterator<V> iterator() {
+            return new ValueIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsValue(o);
+        }
+
+        @Override
+        public void clear() {
+            CusOpenHashMap.this.clear();
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> es = entrySet;
+        return es != null ? es : (entrySet = new EntrySet());
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            int i = findIndex(maskNull(e.getKey()), hash(e.getKey()));
+            return i >= 0 && Objects.equals(vals[i], e.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!contains(o)) {
+                return false;
+            }
+            CusOpenHashMap.this.remove(((Map.Entry<?, ?>) o).getKey());
+            return true;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void clear() {
+            CusOpenHashMap.this.clear();
+        }
+    }
+
+    /**
+     * Save the state of the map to a stream (i.e., serialize it).
+     *
+     * @serialData The <i>capacity</i> of the map (the length of the slot
+     *             arrays) is emitted (int), followed by the <i>size</i>
+     *             (an int, the number of key-value mappings), followed by
+     *             the key (Object) and value (Object) for each key-value
+     *             mapping, in slot order.
+     */
+    private void writeObject(java.io.ObjectOutputStream s)
+            throws IOException
+    {
+        s.defaultWriteObject();
+
+        if (keys == EMPTY_TABLE) {
+            s.writeInt(CusHashMap.roundUpToPowerOf2(threshold));
+        } else {
+            s.writeInt(keys.length);
+        }
+
+        s.writeInt(size);
+
+        Object[] ks = keys;
+        Object[] vs = vals;
+        for (int i = 0; i < ks.length; i++) {
+            if (ks[i] != null) {
+                s.writeObject(unmaskNull(ks[i]));
+                s.writeObject(vs[i]);
+            }
+        }
+    }
+
+    private static final long serialVersionUID = -6281403271823094418L;
+
+    /**
+     * Reconstitute the map from a stream (i.e., deserialize it).
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(java.io.ObjectInputStream s)
+            throws IOException, ClassNotFoundException
+    {
+        s.defaultReadObject();
+        if (loadFactor <= 0 || loadFactor >= 1 || Float.isNaN(loadFactor)) {
+            throw new InvalidObjectException("Illegal load factor: " +
+                    loadFactor);
+        }
+
+        keys = EMPTY_TABLE;
+        vals = EMPTY_TABLE;
+        hashes = EMPTY_HASHES;
+
+        s.readInt(); // capacity, ignored
+
+        int mappings = s.readInt();
+        if (mappings < 0) {
+            throw new InvalidObjectException("Illegal mappings count: " +
+                    mappings);
+        }
+
+        int capacity = (int) Math.min(mappings / loadFactor + 1, MAXIMUM_CAPACITY);
+        if (mappings > 0) {
+            inflateTable(capacity);
+        } else {
+            threshold = capacity;
+        }
+
+        for (int i = 0; i < mappings; i++) {
+            K key = (K) s.readObject();
+            V value = (V) s.readObject();
+            putForCreate(key, value);
+        }
+    }
+
+    int   capacity()     { return keys.length; }
+    float loadFactor()   { return loadFactor;   }
+
+}
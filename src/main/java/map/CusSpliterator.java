@@ -0,0 +1,96 @@
+package map;
+
+/**
+ * An object for traversing and partitioning the elements of a map view,
+ * shaped after {@code java.util.Spliterator} so that the maps of this
+ * package can feed parallel traversals while still compiling for Java 7.
+ *
+ * <p>The characteristic bits have the same values as those of
+ * {@code java.util.Spliterator}, so on Java 8 and later a spliterator can
+ * be adapted one to one, for instance to build a parallel stream with
+ * {@code StreamSupport.stream}.
+ *
+ * <p>可拆分的遍历器，用于并行遍历 Map 的视图</p>
+ *
+ * @param <T> the type of elements returned by this spliterator
+ */
+public interface CusSpliterator<T> {
+
+    /**
+     * Characteristic value signifying that no two encountered elements
+     * are equal.
+     */
+    int DISTINCT = 0x00000001;
+
+    /**
+     * Characteristic value signifying that the elements have a defined
+     * encounter order.
+     */
+    int ORDERED = 0x00000010;
+
+    /**
+     * Characteristic value signifying that {@link #estimateSize} is exact
+     * before traversal or splitting, unless the source is modified.
+     */
+    int SIZED = 0x00000040;
+
+    /**
+     * Characteristic value signifying that no encountered element is null.
+     */
+    int NONNULL = 0x00000100;
+
+    /**
+     * Characteristic value signifying that the source may be safely
+     * modified concurrently, without synchronization, during traversal.
+     */
+    int CONCURRENT = 0x00001000;
+
+    /**
+     * Characteristic value signifying that all spliterators returned by
+     * {@link #trySplit} are {@link #SIZED} and {@link #SUBSIZED} as well.
+     */
+    int SUBSIZED = 0x00004000;
+
+    /**
+     * Receives the elements of a spliterator.
+     */
+    interface Action<T> {
+        void apply(T t);
+    }
+
+    /**
+     * If a remaining element exists, performs the given action on it and
+     * returns {@code true}; otherwise returns {@code false}.
+     *
+     * @throws NullPointerException if the action is null
+     */
+    boolean tryAdvance(Action<? super T> action);
+
+    /**
+     * Performs the given action for each remaining element, sequentially
+     * in the current thread, until all elements have been processed.
+     *
+     * @throws NullPointerException if the action is null
+     */
+    void forEachRemaining(Action<? super T> action);
+
+    /**
+     * If this spliterator can be partitioned, returns a spliterator
+     * covering some of its elements, which upon return will no longer be
+     * covered by this one; otherwise returns {@code null}.
+     */
+    CusSpliterator<T> trySplit();
+
+    /**
+     * Returns an estimate of the number of elements that would be
+     * encountered by {@link #forEachRemaining}, exact if this spliterator
+     * is {@link #SIZED}.
+     */
+    long estimateSize();
+
+    /**
+     * Returns the characteristics of this spliterator and its elements,
+     * as a combination of the constants of this interface.
+     */
+    int characteristics();
+}
@@ -0,0 +1,82 @@
+package map;
+
+import java.io.*;
+
+/**
+ * Checks that clone and serialization keep every mapping of an
+ * incremental-mode CusHashMap whose keys collide, so that rebuilding
+ * the copy treeifies bins and resizes a small table on the way.
+ *
+ * <p>渐进式扩容模式下，clone 与序列化往返后所有 key 仍可查到</p>
+ */
+public class IncrementalCloneTest {
+
+    public static void main(String[] args) throws Exception {
+        for (float loadFactor : new float[]{0.75f, 4f}) {
+            for (int n = 1; n <= 300; n++) {
+                CusHashMap<Object, Integer> m = new CusHashMap<>(2, loadFactor, true);
+                for (int i = 0; i < n; i++) {
+                    m.put(key(i), i);
+                }
+                check(m, copy(m), n, "clone");
+                check(m, roundTrip(m), n, "serialization");
+            }
+        }
+        System.out.println("OK");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static CusHashMap<Object, Integer> copy(CusHashMap<Object, Integer> m) {
+        return (CusHashMap<Object, Integer>) m.clone();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static CusHashMap<Object, Integer> roundTrip(CusHashMap<Object, Integer> m)
+            throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(m);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (CusHashMap<Object, Integer>) in.readObject();
+        }
+    }
+
+    private static void check(CusHashMap<Object, Integer> m, CusHashMap<Object, Integer> c,
+                              int n, String how) {
+        if (c.size() != n || !c.equals(m)) {
+            throw new AssertionError(how + " of " + n + " mappings differs");
+        }
+        for (int i = 0; i < n; i++) {
+            if (!Integer.valueOf(i).equals(c.get(key(i)))) {
+                throw new AssertionError(how + " of " + n + " mappings lost key " + i);
+            }
+        }
+    }
+
+    // 偶数用只有 3 种 hashCode 的 key，制造冲突
+    private static Object key(int i) {
+        return i % 2 == 0 ? new Colliding(i) : Integer.valueOf(i);
+    }
+
+    static class Colliding implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final int value;
+
+        Colliding(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int hashCode() {
+            return value % 3;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Colliding && ((Colliding) o).value == value;
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package map;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A hash map from {@code int} keys to {@code int} values that never boxes.
+ * Keys and values are stored in two flat arrays using open addressing with
+ * linear probing; the table length is a power of two and is sized with the
+ * same {@link CusHashMap#roundUpToPowerOf2} / {@link CusHashMap#indexFor}
+ * logic as {@code CusHashMap}.
+ *
+ * <p>Key {@code 0} marks a free slot inside the arrays, so a mapping for
+ * key {@code 0} is kept in a separate field.  Lookups of absent keys return
+ * the map's <i>no entry value</i> (0 unless given to the constructor).
+ * Removal uses backward-shift deletion, so there are no tombstones.
+ *
+ * <p>This map is not synchronized.  {@link #forEach} allocates nothing and
+ * must not be combined with modifications of the map.
+ *
+ * <p>基本类型特化：key、value 均以 int 数组存储，get/put/遍历 全程无装箱</p>
+ */
+public class IntIntMap implements Cloneable, Serializable {
+
+    private static final long serialVersionUID = 4216093574316203731L;
+
+    static final int DEFAULT_INITIAL_CAPACITY = 1 << 4; // aka 16
+
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    // 数组中表示空槽的 key
+    static final int FREE_KEY = 0;
+
+    /**
+     * Receives the mappings of an {@link IntIntMap} without boxing.
+     */
+    public interface IntIntConsumer {
+        void accept(int key, int value);
+    }
+
+    int[] keys;
+
+    int[] values;
+
+    // key 为 0 的映射单独存放
+    boolean hasFreeKey;
+
+    int freeValue;
+
+    /**
+     * The number of mappings, including the one for key 0.
+     */
+    int size;
+
+    // 数组中已占用槽位数量达到该值时扩容，最多为 capacity - 1
+    int threshold;
+
+    final float loadFactor;
+
+    final int noEntryValue;
+
+    public IntIntMap(int initialCapacity, float loadFactor, int noEntryValue) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: " +
+                    initialCapacity);
+        }
+
+        if (initialCapacity > MAXIMUM_CAPACITY) {
+            initialCapacity = MAXIMUM_CAPACITY;
+        }
+
+        if (loadFactor <= 0 || loadFactor >= 1 || Float.isNaN(loadFactor)) {
+            throw new IllegalArgumentException("Illegal load factor: " +
+                    loadFactor);
+        }
+
+        this.loadFactor = loadFactor;
+        this.noEntryValue = noEntryValue;
+        allocate(Math.max(CusHashMap.roundUpToPowerOf2(initialCapacity), 2));
+    }
+
+    public IntIntMap(int initialCapacity, float loadFactor) {
+        this(initialCapacity, loadFactor, 0);
+    }
+
+    public IntIntMap(int initialCapacity) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR, 0);
+    }
+
+    public IntIntMap() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, 0);
+    }
+
+    private void allocate(int capacity) {
+        threshold = (int) Math.min(capacity * loadFactor, capacity - 1);
+        keys = new int[capacity];
+        values = new int[capacity];
+    }
+
+    // 乘以黄金分割常数并混合高位，使连续的 key 也能均匀分布
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the slot holding key, or {@code ~slot} of the free slot
+     * where it would be inserted.
+     */
+    private int slot(int key) {
+        int[] ks = keys;
+        int mask = ks.length - 1;
+        for (int i = CusHashMap.indexFor(hash(key), ks.length); ; i = (i + 1) & mask) {
+            int k = ks[i];
+            if (k == key) {
+                return i;
+            }
+            if (k == FREE_KEY) {
+                return ~i;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the value to which the key is mapped, or the no entry value
+     * if there is no mapping for the key.
+     */
+    public int get(int key) {
+        return get(key, noEntryValue);
+    }
+
+    public int get(int key, int defaultValue) {
+        if (key == FREE_KEY) {
+            return hasFreeKey ? freeValue : defaultValue;
+        }
+        int i = slot(key);
+        return i >= 0 ? values[i] : defaultValue;
+    }
+
+    public boolean containsKey(int key) {
+        return key == FREE_KEY ? hasFreeKey : slot(key) >= 0;
+    }
+
+    public boolean containsValue(int value) {
+        if (hasFreeKey && freeValue == value) {
+            return true;
+        }
+        int[] ks = keys;
+        int[] vs = values;
+        for (int i = 0; i < ks.length; i++) {
+            if (ks[i] != FREE_KEY && vs[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Associates value with key.
+     *
+     * @return the previous value, or the no entry value if there was none
+     * @throws IllegalStateException if the table is already at
+     *                               MAXIMUM_CAPACITY and has no free slot left
+     */
+    public int put(int key, int value) {
+        if (key == FREE_KEY) {
+            int oldValue = hasFreeKey ? freeValue : noEntryValue;
+            if (!hasFreeKey) {
+                hasFreeKey = true;
+                size++;
+            }
+            freeValue = value;
+            return oldValue;
+        }
+
+        int i = slot(key);
+        if (i >= 0) {
+            int oldValue = values[i];
+            values[i] = value;
+            return oldValue;
+        }
+
+        // 扩容后重新定位空槽
+        if (size - (hasFreeKey ? 1 : 0) >= threshold) {
+            resize(keys.length * 2);
+            i = slot(key);
+        }
+        i = ~i;
+        keys[i] = key;
+        values[i] = value;
+        size++;
+        return noEntryValue;
+    }
+
+    /**
+     * Adds delta to the value mapped to key, treating an absent mapping
+     * as the no entry value, and returns the new value.
+     */
+    public int addTo(int key, int delta) {
+        int value = get(key) + delta;
+        put(key, value);
+        return value;
+    }
+
+    private void resize(int newCapacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        int oldCapacity = oldKeys.length;
+
+        if (oldCapacity == MAXIMUM_CAPACITY) {
+            if (threshold >= MAXIMUM_CAPACITY - 1) {
+                throw new IllegalStateException("Capacity exhausted.");
+            }
+            threshold = MAXIMUM_CAPACITY - 1;
+            return;
+        }
+
+        allocate(newCapacity);
+        int[] ks = keys;
+        int[] vs = values;
+        int mask = newCapacity - 1;
+        for (int j = 0; j < oldCapacity; j++) {
+            int k = oldKeys[j];
+            if (k != FREE_KEY) {
+                int i = CusHashMap.indexFor(hash(k), newCapacity);
+                while (ks[i] != FREE_KEY) {
+                    i = (i + 1) & mask;
+                }
+                ks[i] = k;
+                vs[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * Removes the mapping for key.
+     *
+     * @return the removed value, or the no entry value if there was none
+     */
+    public int remove(int key) {
+        if (key == FREE_KEY) {
+            if (!hasFreeKey) {
+                return noEntryValue;
+            }
+            hasFreeKey = false;
+            size--;
+            return freeValue;
+        }
+
+        int i = slot(key);
+        if (i < 0) {
+            return noEntryValue;
+        }
+        int oldValue = values[i];
+        size--;
+        shiftKeys(i);
+        return oldValue;
+    }
+
+    /**
+     * Backward-shift deletion: closes the gap at pos by moving back every
+     * following entry of the cluster whose home slot does not lie
+     * (cyclically) between the gap and its current slot.
+     */
+    private void shiftKeys(int pos) {
+        int[] ks = keys;
+        int[] vs = values;
+        int mask = ks.length - 1;
+        for (int last; ; ) {
+            pos = ((last = pos) + 1) & mask;
+            int k;
+            for (; ; pos = (pos + 1) & mask) {
+                if ((k = ks[pos]) == FREE_KEY) {
+                    ks[last] = FREE_KEY;
+                    return;
+                }
+                int home = CusHashMap.indexFor(hash(k), ks.length);
+                if (last <= pos ? last >= home || home > pos : last >= home && home > pos) {
+                    break;
+                }
+            }
+            ks[last] = k;
+            vs[last] = vs[pos];
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE_KEY);
+        hasFreeKey = false;
+        size = 0;
+    }
+
+    /**
+     * Performs the given action for each mapping, without allocating.
+     */
+    public void forEach(IntIntConsumer action) {
+        if (hasFreeKey) {
+            action.accept(FREE_KEY, freeValue);
+        }
+        int[] ks = keys;
+        int[] vs = values;
+        for (int i = 0; i < ks.length; i++) {
+            int k = ks[i];
+            if (k != FREE_KEY) {
+                action.accept(k, vs[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the keys in no particular order.
+     */
+    public int[] keys() {
+        int[] result = new int[size];
+        int n = 0;
+        if (hasFreeKey) {
+            result[n++] = FREE_KEY;
+        }
+        for (int k : keys) {
+            if (k != FREE_KEY) {
+                result[n++] = k;
+            }
+        }
+        return result;
+    }
+
+    public int getNoEntryValue() {
+        return noEntryValue;
+    }
+
+    /**
+     * Returns a copy of this map.
+     */
+    @Override
+    public IntIntMap clone() {
+        IntIntMap result = null;
+        try {
+            result = (IntIntMap) super.clone();
+        } catch (CloneNotSupportedException e) {
+            // assert false;
+        }
+        result.keys = keys.clone();
+        result.values = values.clone();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("{");
+        forEach(new IntIntConsumer() {
+            @Override
+            public void accept(int key, int value) {
+                if (sb.length() > 1) {
+                    sb.append(", ");
+                }
+                sb.append(key).append('=').append(value);
+            }
+        });
+        return sb.append('}').toString();
+    }
+
+    int capacity() { return keys.length; }
+}
@@ -0,0 +1,369 @@
+package map;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A hash map from {@code long} keys to object values that never boxes keys.
+ * Keys and values are stored in two flat arrays using open addressing with
+ * linear probing; the table length is a power of two and is sized with the
+ * same {@link CusHashMap#roundUpToPowerOf2} / {@link CusHashMap#indexFor}
+ * logic as {@code CusHashMap}.
+ *
+ * <p>Key {@code 0} marks a free slot inside the arrays, so a mapping for
+ * key {@code 0} is kept in a separate field.  Lookups of absent keys return
+ * {@code null}; null values are permitted.  Removal uses backward-shift
+ * deletion, so there are no tombstones.
+ *
+ * <p>This map is not synchronized.  {@link #forEach} allocates nothing and
+ * must not be combined with modifications of the map.
+ *
+ * <p>基本类型特化：key 以 long 数组存储，get/put/遍历 全程无装箱</p>
+ *
+ * @param <V> the type of mapped values
+ */
+public class LongObjectMap<V> implements Cloneable, Serializable {
+
+    private static final long serialVersionUID = 5522436707917385264L;
+
+    static final int DEFAULT_INITIAL_CAPACITY = 1 << 4; // aka 16
+
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    // 数组中表示空槽的 key
+    static final long FREE_KEY = 0L;
+
+    /**
+     * Receives the mappings of an {@link LongObjectMap} without boxing keys.
+     */
+    public interface LongObjectConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    long[] keys;
+
+    Object[] values;
+
+    // key 为 0 的映射单独存放
+    boolean hasFreeKey;
+
+    V freeValue;
+
+    /**
+     * The number of mappings, including the one for key 0.
+     */
+    int size;
+
+    // 数组中已占用槽位数量达到该值时扩容，最多为 capacity - 1
+    int threshold;
+
+    final float loadFactor;
+
+    public LongObjectMap(int initialCapacity, float loadFactor) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal initial capacity: " +
+                    initialCapacity);
+        }
+
+        if (initialCapacity > MAXIMUM_CAPACITY) {
+            initialCapacity = MAXIMUM_CAPACITY;
+        }
+
+        if (loadFactor <= 0 || loadFactor >= 1 || Float.isNaN(loadFactor)) {
+            throw new IllegalArgumentException("Illegal load factor: " +
+                    loadFactor);
+        }
+
+        this.loadFactor = loadFactor;
+        allocate(Math.max(CusHashMap.roundUpToPowerOf2(initialCapacity), 2));
+    }
+
+    public LongObjectMap(int initialCapacity) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    public LongObjectMap() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR);
+    }
+
+    private void allocate(int capacity) {
+        threshold = (int) Math.min(capacity * loadFactor, capacity - 1);
+        keys = new long[capacity];
+        values = new Object[capacity];
+    }
+
+    // 乘以黄金分割常数并混合高位，使连续的 key 也能均匀分布
+    static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int) (h ^ (h >>> 16));
+    }
+
+    /**
+     * Returns the slot holding key, or {@code ~slot} of the free slot
+     * where it would be inserted.
+     */
+    private int slot(long key) {
+        long[] ks = keys;
+        int mask = ks.length - 1;
+        for (int i = CusHashMap.indexFor(hash(key), ks.length); ; i = (i + 1) & mask) {
+            long k = ks[i];
+            if (k == key) {
+                return i;
+            }
+            if (k == FREE_KEY) {
+                return ~i;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the value to which the key is mapped, or {@code null}
+     * if there is no mapping for the key.
+     */
+    public V get(long key) {
+        return get(key, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key, V defaultValue) {
+        if (key == FREE_KEY) {
+            return hasFreeKey ? freeValue : defaultValue;
+        }
+        int i = slot(key);
+        return i >= 0 ? (V) values[i] : defaultValue;
+    }
+
+    public boolean containsKey(long key) {
+        return key == FREE_KEY ? hasFreeKey : slot(key) >= 0;
+    }
+
+    public boolean containsValue(Object value) {
+        if (hasFreeKey && eq(freeValue, value)) {
+            return true;
+        }
+        long[] ks = keys;
+        Object[] vs = values;
+        for (int i = 0; i < ks.length; i++) {
+            if (ks[i] != FREE_KEY && eq(vs[i], value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean eq(Object a, Object b) {
+        return a == b || (a != null && a.equals(b));
+    }
+
+    /**
+     * Associates value with key.
+     *
+     * @return the previous value, or {@code null} if there was none
+     * @throws IllegalStateException if the table is already at
+     *                               MAXIMUM_CAPACITY and has no free slot left
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (key == FREE_KEY) {
+            V oldValue = hasFreeKey ? freeValue : null;
+            if (!hasFreeKey) {
+                hasFreeKey = true;
+                size++;
+            }
+            freeValue = value;
+            return oldValue;
+        }
+
+        int i = slot(key);
+        if (i >= 0) {
+            V oldValue = (V) values[i];
+            values[i] = value;
+            return oldValue;
+        }
+
+        // 扩容后重新定位空槽
+        if (size - (hasFreeKey ? 1 : 0) >= threshold) {
+            resize(keys.length * 2);
+            i = slot(key);
+        }
+        i = ~i;
+        keys[i] = key;
+        values[i] = value;
+        size++;
+        return null;
+    }
+
+    private void resize(int newCapacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        int oldCapacity = oldKeys.length;
+
+        if (oldCapacity == MAXIMUM_CAPACITY) {
+            if (threshold >= MAXIMUM_CAPACITY - 1) {
+                throw new IllegalStateException("Capacity exhausted.");
+            }
+            threshold = MAXIMUM_CAPACITY - 1;
+            return;
+        }
+
+        allocate(newCapacity);
+        long[] ks = keys;
+        Object[] vs = values;
+        int mask = newCapacity - 1;
+        for (int j = 0; j < oldCapacity; j++) {
+            long k = oldKeys[j];
+            if (k != FREE_KEY) {
+                int i = CusHashMap.indexFor(hash(k), newCapacity);
+                while (ks[i] != FREE_KEY) {
+                    i = (i + 1) & mask;
+                }
+                ks[i] = k;
+                vs[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * Removes the mapping for key.
+     *
+     * @return the removed value, or {@code null} if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        if (key == FREE_KEY) {
+            if (!hasFreeKey) {
+                return null;
+            }
+            V oldValue = freeValue;
+            hasFreeKey = false;
+            freeValue = null;
+            size--;
+            return oldValue;
+        }
+
+        int i = slot(key);
+        if (i < 0) {
+            return null;
+        }
+        V oldValue = (V) values[i];
+        size--;
+        shiftKeys(i);
+        return oldValue;
+    }
+
+    /**
+     * Backward-shift deletion: closes the gap at pos by moving back every
+     * following entry of the cluster whose home slot does not lie
+     * (cyclically) between the gap and its current slot.
+     */
+    private void shiftKeys(int pos) {
+        long[] ks = keys;
+        Object[] vs = values;
+        int mask = ks.length - 1;
+        for (int last; ; ) {
+            pos = ((last = pos) + 1) & mask;
+            long k;
+            for (; ; pos = (pos + 1) & mask) {
+                if ((k = ks[pos]) == FREE_KEY) {
+                    ks[last] = FREE_KEY;
+                    vs[last] = null;
+                    return;
+                }
+                int home = CusHashMap.indexFor(hash(k), ks.length);
+                if (last <= pos ? last >= home || home > pos : last >= home && home > pos) {
+                    break;
+                }
+            }
+            ks[last] = k;
+            vs[last] = vs[pos];
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE_KEY);
+        Arrays.fill(values, null);
+        hasFreeKey = false;
+        freeValue = null;
+        size = 0;
+    }
+
+    /**
+     * Performs the given action for each mapping, without allocating.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(LongObjectConsumer<? super V> action) {
+        if (hasFreeKey) {
+            action.accept(FREE_KEY, freeValue);
+        }
+        long[] ks = keys;
+        Object[] vs = values;
+        for (int i = 0; i < ks.length; i++) {
+            long k = ks[i];
+            if (k != FREE_KEY) {
+                action.accept(k, (V) vs[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the keys in no particular order.
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+        int n = 0;
+        if (hasFreeKey) {
+            result[n++] = FREE_KEY;
+        }
+        for (long k : keys) {
+            if (k != FREE_KEY) {
+                result[n++] = k;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a copy of this map.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public LongObjectMap<V> clone() {
+        LongObjectMap<V> result = null;
+        try {
+            result = (LongObjectMap<V>) super.clone();
+        } catch (CloneNotSupportedException e) {
+            // assert false;
+        }
+        result.keys = keys.clone();
+        result.values = values.clone();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("{");
+        forEach(new LongObjectConsumer<V>() {
+            @Override
+            public void accept(long key, V value) {
+                if (sb.length() > 1) {
+                    sb.append(", ");
+                }
+                sb.append(key).append('=').append(value);
+            }
+        });
+        return sb.append('}').toString();
+    }
+
+    int capacity() { return keys.length; }
+}
@@ -0,0 +1,119 @@
+package map;
+
+import java.util.Map;
+
+/**
+ * Compares {@link CusOpenHashMap} and {@link CusCompactHashMap} with
+ * {@link CusHashMap} for put, get, iteration and remove over Integer keys
+ * at several map sizes.
+ *
+ * <p>Sizes are given as arguments (default 1K, 100K, 1M and 10M).  Large
+ * sizes need a large heap, e.g. 50M entries run with {@code -Xmx12g}:
+ * <pre>
+ *   java -Xmx12g map.OpenHashMapBenchmark 1000 1000000 50000000
+ * </pre>
+ * Each measurement is repeated and the best round is reported, after the
+ * JIT has warmed up on the smallest size.
+ *
+ * <p>用法：java map.OpenHashMapBenchmark [size...]
+ */
+public class OpenHashMapBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    private static final int[] DEFAULT_SIZES = {1000, 100000, 1000000, 10000000};
+
+    public static void main(String[] args) {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        // 预热
+        Integer[] warmup = keys(10000);
+        for (int i = 0; i < 200; i++) {
+            run(new CusHashMap<Integer, Integer>(), warmup);
+            run(new CusOpenHashMap<Integer, Integer>(), warmup);
+            run(new CusCompactHashMap<Integer, Integer>(), warmup);
+        }
+
+        System.out.printf("%-18s %10s %10s %10s %10s %10s   (ns/op, best of %d)%n",
+                "map", "size", "put", "get", "iterate", "remove", ROUNDS);
+        for (int size : sizes) {
+            Integer[] keys = keys(size);
+            report("CusHashMap", size, keys, 0);
+            report("CusOpenHashMap", size, keys, 1);
+            report("CusCompactHashMap", size, keys, 2);
+            keys = null;
+            System.gc();
+        }
+    }
+
+    private static void report(String name, int size, Integer[] keys, int kind) {
+        long[] best = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+        for (int r = 0; r < ROUNDS; r++) {
+            Map<Integer, Integer> map = kind == 1
+                    ? new CusOpenHashMap<Integer, Integer>()
+                    : kind == 2
+                    ? new CusCompactHashMap<Integer, Integer>()
+                    : new CusHashMap<Integer, Integer>();
+            long[] nanos = run(map, keys);
+            for (int i = 0; i < best.length; i++) {
+                best[i] = Math.min(best[i], nanos[i]);
+            }
+        }
+        System.out.printf("%-18s %10d %10.1f %10.1f %10.1f %10.1f%n", name, size,
+                (double) best[0] / size, (double) best[1] / size,
+                (double) best[2] / size, (double) best[3] / size);
+    }
+
+    /**
+     * Runs put, get, iterate and remove over all keys and returns the
+     * elapsed nanoseconds of each phase.
+     */
+    private static long[] run(Map<Integer, Integer> map, Integer[] keys) {
+        long[] nanos = new long[4];
+        long sink = 0;
+
+        long start = System.nanoTime();
+        for (Integer key : keys) {
+            map.put(key, key);
+        }
+        nanos[0] = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (Integer key : keys) {
+            sink += map.get(key);
+        }
+        nanos[1] = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (Integer value : map.values()) {
+            sink += value;
+        }
+        nanos[2] = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (Integer key : keys) {
+            map.remove(key);
+        }
+        nanos[3] = System.nanoTime() - start;
+
+        if (sink == 42 || !map.isEmpty()) {
+            System.out.println("unexpected: " + sink);
+        }
+        return nanos;
+    }
+
+    // 分散但互不相同的 key：乘以黄金分割常数（奇数）是 int 上的双射
+    private static Integer[] keys(int size) {
+        Integer[] keys = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = i * 0x9E3779B9;
+        }
+        return keys;
+    }
+}
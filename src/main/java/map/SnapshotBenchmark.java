@@ -0,0 +1,130 @@
+package map;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compares {@link CusHashMap#writeSnapshot} and {@link
+ * CusHashMap#readSnapshot} with Java serialization of the same
+ * {@code CusHashMap<Long, Long>}, both through a temporary file.
+ *
+ * <p>Sizes are given as arguments (default 100K, 1M and 10M).  The file
+ * stays in the page cache, so the figures measure encoding and rebuilding
+ * rather than the storage device.  Each measurement is repeated and the
+ * best round is reported.
+ *
+ * <p>用法：java map.SnapshotBenchmark [size...]
+ */
+public class SnapshotBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    private static final int[] DEFAULT_SIZES = {100000, 1000000, 10000000};
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        Path file = Files.createTempFile("snapshot", ".bin");
+        try {
+            // 预热
+            CusHashMap<Long, Long> warmup = map(10000);
+            for (int i = 0; i < 50; i++) {
+                run(warmup, file);
+            }
+
+            System.out.printf("%10s %-13s %10s %10s %12s   (ms, best of %d)%n",
+                    "size", "format", "write", "read", "bytes", ROUNDS);
+            for (int size : sizes) {
+                CusHashMap<Long, Long> map = map(size);
+                long[] best = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+                long[] bytes = null;
+                for (int r = 0; r < ROUNDS; r++) {
+                    long[] result = run(map, file);
+                    for (int i = 0; i < best.length; i++) {
+                        best[i] = Math.min(best[i], result[i]);
+                    }
+                    bytes = new long[]{result[4], result[5]};
+                }
+                System.out.printf("%10d %-13s %10.1f %10.1f %12d%n", size, "Serializable",
+                        best[0] / 1e6, best[1] / 1e6, bytes[0]);
+                System.out.printf("%10d %-13s %10.1f %10.1f %12d%n", size, "snapshot",
+                        best[2] / 1e6, best[3] / 1e6, bytes[1]);
+                map = null;
+                System.gc();
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Writes and reads the map in both formats and returns the elapsed
+     * nanoseconds of each phase, followed by the two file sizes.
+     */
+    @SuppressWarnings("unchecked")
+    private static long[] run(CusHashMap<Long, Long> map, Path file)
+            throws IOException, ClassNotFoundException {
+        long[] result = new long[6];
+
+        long start = System.nanoTime();
+        try (ObjectOutputStream out = new ObjectOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            out.writeObject(map);
+        }
+        result[0] = System.nanoTime() - start;
+        result[4] = Files.size(file);
+
+        start = System.nanoTime();
+        CusHashMap<Long, Long> read;
+        try (ObjectInputStream in = new ObjectInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            read = (CusHashMap<Long, Long>) in.readObject();
+        }
+        result[1] = System.nanoTime() - start;
+        check(map, read);
+
+        start = System.nanoTime();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            map.writeSnapshot(ch, Codec.LONG, Codec.LONG);
+        }
+        result[2] = System.nanoTime() - start;
+        result[5] = Files.size(file);
+
+        start = System.nanoTime();
+        try (FileChannel ch = FileChannel.open(file)) {
+            read = CusHashMap.readSnapshot(ch, Codec.LONG, Codec.LONG);
+        }
+        result[3] = System.nanoTime() - start;
+        check(map, read);
+
+        return result;
+    }
+
+    private static void check(CusHashMap<Long, Long> expected, CusHashMap<Long, Long> actual) {
+        if (actual.size() != expected.size()) {
+            throw new IllegalStateException("size " + actual.size() + " != " + expected.size());
+        }
+    }
+
+    private static CusHashMap<Long, Long> map(int size) {
+        CusHashMap<Long, Long> map = new CusHashMap<>();
+        for (long i = 0; i < size; i++) {
+            map.put(i * 0x9E3779B97F4A7C15L, i);
+        }
+        return map;
+    }
+}